@@ -0,0 +1,208 @@
+import java.awt.image.BufferedImage;
+import java.util.function.UnaryOperator;
+
+/**
+ * This abstract class is the base of the Image representations which do not store their pixels as
+ * a plain 3D array. A subclass only has to give its size and the color of each pixel, every
+ * operation it does not handle itself is done on an equivalent ImageImpl.
+ */
+abstract class AbstractImage implements Image {
+
+  /**
+   * Return an ImageImpl holding the same pixels as this image. Helper function of all the
+   * operations this representation does not specialize.
+   *
+   * @return an ImageImpl holding the same pixels as this image.
+   */
+  ImageImpl toImageImpl() {
+    return new ImageImpl(getData());
+  }
+
+  @Override
+  public Image blur() {
+    return toImageImpl().blur();
+  }
+
+  @Override
+  public Image sharpen() {
+    return toImageImpl().sharpen();
+  }
+
+  @Override
+  public Image sepia() {
+    return toImageImpl().sepia();
+  }
+
+  @Override
+  public Image greyscale() {
+    return toImageImpl().greyscale();
+  }
+
+  @Override
+  public Image applyFilter(Filter filter) {
+    return toImageImpl().applyFilter(filter);
+  }
+
+  @Override
+  public Image applyColorConvert(ColorConverter converter) {
+    return toImageImpl().applyColorConvert(converter);
+  }
+
+  @Override
+  public Image mosaicing(int seed) throws IllegalArgumentException {
+    return toImageImpl().mosaicing(seed);
+  }
+
+  @Override
+  public Image mosaicing(int seed, SeedPlacement placement, long randomSeed)
+          throws IllegalArgumentException {
+    return toImageImpl().mosaicing(seed, placement, randomSeed);
+  }
+
+  @Override
+  public Image applyDithering() {
+    return toImageImpl().applyDithering();
+  }
+
+  @Override
+  public Image threshold(int level) throws IllegalArgumentException {
+    return toImageImpl().threshold(level);
+  }
+
+  @Override
+  public Image quantize(int colors, boolean dither) throws IllegalArgumentException {
+    return toImageImpl().quantize(colors, dither);
+  }
+
+  @Override
+  public ImageStatistics statistics() {
+    return toImageImpl().statistics();
+  }
+
+  @Override
+  public Image autoLevels() {
+    return toImageImpl().autoLevels();
+  }
+
+  @Override
+  public Image equalize() {
+    return toImageImpl().equalize();
+  }
+
+  @Override
+  public Image boxBlur(int radius) throws IllegalArgumentException {
+    return toImageImpl().boxBlur(radius);
+  }
+
+  @Override
+  public Image over(Image background, int x, int y) {
+    return RgbaImage.of(this).over(background, x, y);
+  }
+
+  @Override
+  public Image opacity(double opacity) throws IllegalArgumentException {
+    return RgbaImage.of(this).opacity(opacity);
+  }
+
+  @Override
+  public Image median(int radius) throws IllegalArgumentException {
+    return toImageImpl().median(radius);
+  }
+
+  @Override
+  public Image erode(int radius) throws IllegalArgumentException {
+    return toImageImpl().erode(radius);
+  }
+
+  @Override
+  public Image dilate(int radius) throws IllegalArgumentException {
+    return toImageImpl().dilate(radius);
+  }
+
+  @Override
+  public Image edges(GradientOperator operator) {
+    return toImageImpl().edges(operator);
+  }
+
+  @Override
+  public Image gradient(GradientOperator operator) {
+    return toImageImpl().gradient(operator);
+  }
+
+  @Override
+  public Image gaussianBlur(double sigma) throws IllegalArgumentException {
+    return toImageImpl().gaussianBlur(sigma);
+  }
+
+  @Override
+  public Image resize(int width, int height, ResampleFilter filter)
+          throws IllegalArgumentException {
+    return toImageImpl().resize(width, height, filter);
+  }
+
+  @Override
+  public Image scale(double factor, ResampleFilter filter) throws IllegalArgumentException {
+    return toImageImpl().scale(factor, filter);
+  }
+
+  @Override
+  public Image applyToRegion(Region region, int halo, UnaryOperator<Image> operation)
+          throws IllegalArgumentException {
+    return toImageImpl().applyToRegion(region, halo, operation);
+  }
+
+  @Override
+  public int[][][] getData() {
+    int height = this.getHeight();
+    int width = this.getWidth();
+    int[][][] result = new int[height][width][3];
+    for (int r = 0; r < height; r++) {
+      for (int c = 0; c < width; c++) {
+        int color = getRGB(r, c);
+        result[r][c][0] = (color >> 16) & 0xFF;
+        result[r][c][1] = (color >> 8) & 0xFF;
+        result[r][c][2] = color & 0xFF;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public BufferedImage getBufferImage() {
+    int height = this.getHeight();
+    int width = this.getWidth();
+    BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    for (int r = 0; r < height; r++) {
+      for (int c = 0; c < width; c++) {
+        output.setRGB(c, r, getRGB(r, c));
+      }
+    }
+    return output;
+  }
+
+  @Override
+  public Image rainbowFlag(int height, int width, String direction)
+          throws IllegalArgumentException {
+    return new ImageImpl().rainbowFlag(height, width, direction);
+  }
+
+  @Override
+  public Image generateCheckerBoard(int squareSize) throws IllegalArgumentException {
+    return new ImageImpl().generateCheckerBoard(squareSize);
+  }
+
+  @Override
+  public Image generateFrenchFlag(int height, int width) throws IllegalArgumentException {
+    return new ImageImpl().generateFrenchFlag(height, width);
+  }
+
+  @Override
+  public Image generateSwitzerlandFlag(int height, int width) throws IllegalArgumentException {
+    return new ImageImpl().generateSwitzerlandFlag(height, width);
+  }
+
+  @Override
+  public Image generateGreeceFlag(int height, int width) throws IllegalArgumentException {
+    return new ImageImpl().generateGreeceFlag(height, width);
+  }
+}
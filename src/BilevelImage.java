@@ -0,0 +1,239 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * This class represents an Image whose pixels are either black or white, such as the result of a
+ * dithering or of a threshold, stored as one bit per pixel: a set bit is a white pixel. Every row
+ * starts on a new long, so rows are written in parallel. It takes about 300 times less memory than
+ * the same image as an ImageImpl, and its BufferedImage is a 1-bit TYPE_BYTE_BINARY image, which
+ * PNG and BMP files store as 1 bit per pixel as well.
+ */
+public final class BilevelImage extends AbstractImage {
+  private static final int WHITE = 0xFFFFFF;
+
+  private final int height;
+  private final int width;
+  private final int wordsPerRow;
+  private final long[] bits;
+
+  /**
+   * Constructor of a BilevelImage from its bits, which must not be modified afterwards.
+   *
+   * @param height height of the image.
+   * @param width  width of the image.
+   * @param bits   the bits of every row, each row starting on a new long.
+   */
+  private BilevelImage(int height, int width, long[] bits) {
+    this.height = height;
+    this.width = width;
+    this.wordsPerRow = (width + 63) / 64;
+    this.bits = bits;
+  }
+
+  /**
+   * Return the dithering of a greyscale image by Floyd-Steinberg error diffusion: every pixel
+   * becomes black or white, whichever is closer, and the difference is spread over its right and
+   * lower neighbours with the weights 7, 3, 5 and 1 sixteenths. Only two rows of errors are kept
+   * while the image is scanned.
+   *
+   * @param grey the greyscale image as a 3D array of [r, g, b], whose three values are equal.
+   * @return the dithered image.
+   */
+  static BilevelImage dither(int[][][] grey) {
+    int height = grey.length;
+    int width = grey[0].length;
+    int wordsPerRow = (width + 63) / 64;
+    long[] bits = new long[height * wordsPerRow];
+    int[] current = new int[width];
+    int[] next = new int[width];
+    for (int c = 0; c < width; c++) {
+      current[c] = grey[0][c][0];
+    }
+    for (int r = 0; r < height; r++) {
+      int rowStart = r * wordsPerRow;
+      for (int c = 0; c < width; c++) {
+        int oldColor = current[c];
+        int newColor = oldColor <= 127 ? 0 : 255;
+        int error = oldColor - newColor;
+        if (newColor == 255) {
+          bits[rowStart + (c >> 6)] |= 1L << c;
+        }
+        if (c + 1 < width) {
+          current[c + 1] += (int) Math.round(error * 7 / 16.0);
+        }
+        if (c - 1 >= 0) {
+          next[c - 1] += (int) Math.round(error * 3 / 16.0);
+        }
+        next[c] += (int) Math.round(error * 5 / 16.0);
+        if (c + 1 < width) {
+          next[c + 1] += (int) Math.round(error / 16.0);
+        }
+      }
+      if (r + 1 < height) {
+        int[][] below = grey[r + 1];
+        for (int c = 0; c < width; c++) {
+          current[c] = below[c][0] + next[c];
+        }
+        Arrays.fill(next, 0);
+      }
+    }
+    return new BilevelImage(height, width, bits);
+  }
+
+  /**
+   * Return the dithering of grey levels kept at full precision, with the same error diffusion as
+   * dither(int[][][]) but without rounding the grey levels nor the errors.
+   *
+   * @param grey   the grey level of every pixel, row by row, on the 0 to 255 scale.
+   * @param height height of the image.
+   * @param width  width of the image.
+   * @return the dithered image.
+   */
+  static BilevelImage dither(float[] grey, int height, int width) {
+    int wordsPerRow = (width + 63) / 64;
+    long[] bits = new long[height * wordsPerRow];
+    float[] current = new float[width];
+    float[] next = new float[width];
+    System.arraycopy(grey, 0, current, 0, width);
+    for (int r = 0; r < height; r++) {
+      int rowStart = r * wordsPerRow;
+      for (int c = 0; c < width; c++) {
+        float oldColor = current[c];
+        float newColor = oldColor < 127.5f ? 0 : 255;
+        float error = oldColor - newColor;
+        if (newColor == 255) {
+          bits[rowStart + (c >> 6)] |= 1L << c;
+        }
+        if (c + 1 < width) {
+          current[c + 1] += error * 7 / 16;
+          next[c + 1] += error / 16;
+        }
+        if (c - 1 >= 0) {
+          next[c - 1] += error * 3 / 16;
+        }
+        next[c] += error * 5 / 16;
+      }
+      if (r + 1 < height) {
+        for (int c = 0; c < width; c++) {
+          current[c] = grey[(r + 1) * width + c] + next[c];
+        }
+        Arrays.fill(next, 0);
+      }
+    }
+    return new BilevelImage(height, width, bits);
+  }
+
+  /**
+   * Return the threshold of a greyscale image: the pixels whose grey level is at least level
+   * become white and the others black. Rows are computed in parallel.
+   *
+   * @param grey  the greyscale image as a 3D array of [r, g, b], whose three values are equal.
+   * @param level the smallest grey level of a white pixel.
+   * @return the threshold image.
+   */
+  static BilevelImage threshold(int[][][] grey, int level) {
+    int height = grey.length;
+    int width = grey[0].length;
+    int wordsPerRow = (width + 63) / 64;
+    long[] bits = new long[height * wordsPerRow];
+    IntStream.range(0, height).parallel().forEach(r -> {
+      int[][] row = grey[r];
+      int rowStart = r * wordsPerRow;
+      for (int c = 0; c < width; c++) {
+        if (row[c][0] >= level) {
+          bits[rowStart + (c >> 6)] |= 1L << c;
+        }
+      }
+    });
+    return new BilevelImage(height, width, bits);
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getRGB(int row, int column) {
+    return (bits[row * wordsPerRow + (column >> 6)] >>> column & 1) != 0 ? WHITE : 0;
+  }
+
+  @Override
+  public int[][][] getData() {
+    int[][][] result = new int[height][width][3];
+    IntStream.range(0, height).parallel().forEach(r -> {
+      int rowStart = r * wordsPerRow;
+      int[][] row = result[r];
+      for (int c = 0; c < width; c++) {
+        if ((bits[rowStart + (c >> 6)] >>> c & 1) != 0) {
+          row[c][0] = 255;
+          row[c][1] = 255;
+          row[c][2] = 255;
+        }
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Return the image as a 1-bit TYPE_BYTE_BINARY BufferedImage, whose color 0 is black and 1 is
+   * white, without expanding the pixels to colors. Rows are converted in parallel.
+   *
+   * @return the image as a 1-bit BufferedImage.
+   */
+  @Override
+  public BufferedImage getBufferImage() {
+    BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+    byte[] packed = ((DataBufferByte) output.getRaster().getDataBuffer()).getData();
+    int bytesPerRow = (width + 7) / 8;
+    IntStream.range(0, height).parallel().forEach(r -> {
+      int rowStart = r * wordsPerRow;
+      int target = r * bytesPerRow;
+      //a BufferedImage puts the first pixel of a byte in its highest bit, a long in its lowest.
+      for (int b = 0; b < bytesPerRow; b++) {
+        int octet = (int) (bits[rowStart + (b >> 3)] >>> ((b & 7) << 3)) & 0xFF;
+        packed[target + b] = (byte) (Integer.reverse(octet) >>> 24);
+      }
+    });
+    return output;
+  }
+
+  /**
+   * Return an estimate of the memory used by this image, in bytes.
+   *
+   * @return an estimate of the memory used by this image, in bytes.
+   */
+  long estimateBytes() {
+    return 8L * bits.length + 64;
+  }
+
+  @Override
+  public Image greyscale() {
+    return this;
+  }
+
+  @Override
+  public Image applyDithering() {
+    return this;
+  }
+
+  @Override
+  public Image threshold(int level) throws IllegalArgumentException {
+    if (level < 0 || level > 255) {
+      throw new IllegalArgumentException("Threshold level must be between 0 and 255.");
+    }
+    if (level > 0) {
+      return this;
+    }
+    long[] white = new long[bits.length];
+    Arrays.fill(white, -1L);
+    return new BilevelImage(height, width, white);
+  }
+}
@@ -0,0 +1,206 @@
+import java.util.stream.IntStream;
+
+/**
+ * This class contains the box (mean) blur of any radius. Each pass is split into a horizontal and
+ * a vertical running sum, so the cost per pixel does not depend on the radius. Near the border the
+ * mean is taken over the pixels inside the image only. Several passes in a row approximate a
+ * Gaussian blur; the intermediate results are kept as fixed point numbers and only rounded to
+ * integers at the end.
+ *
+ * <p>The running sums are exact longs, so a mean only depends on the pixels of its window and not
+ * on where the sum started: a pixel is blurred the same in the whole image, in a tile or in a
+ * region, as long as they hold the same window around it.
+ */
+final class BoxBlur {
+
+  /**
+   * Number of box passes used to approximate a Gaussian blur.
+   */
+  static final int GAUSSIAN_PASSES = 3;
+
+  /**
+   * Number of columns processed together by one task of the vertical pass.
+   */
+  private static final int COLUMN_BAND = 256;
+
+  /**
+   * Number of fractional bits of the fixed point values of the planes between two passes.
+   */
+  private static final int FRACTION_BITS = 20;
+
+  /**
+   * This class only contains static methods.
+   */
+  private BoxBlur() {
+  }
+
+  /**
+   * Return the image after a box blur pass for every given radius, one after the other.
+   *
+   * @param data  the image as a 3D array of [r, g, b].
+   * @param radii the radius of every pass. A pass of radius 0 leaves the image unchanged.
+   * @return a new 3D array holding the blurred image.
+   */
+  static int[][][] blur(int[][][] data, int[] radii) {
+    int height = data.length;
+    int width = data[0].length;
+    int[][][] result = PixelBufferPool.shared().acquire(height, width);
+    int[] plane = new int[height * width];
+    int[] temp = new int[height * width];
+
+    for (int channel = 0; channel < 3; channel++) {
+      for (int r = 0; r < height; r++) {
+        for (int c = 0; c < width; c++) {
+          plane[r * width + c] = data[r][c][channel] << FRACTION_BITS;
+        }
+      }
+      for (int radius : radii) {
+        horizontal(plane, temp, height, width, radius);
+        vertical(temp, plane, height, width, radius);
+      }
+      //a mean of values between 0 and 255 stays between 0 and 255.
+      int half = 1 << (FRACTION_BITS - 1);
+      for (int r = 0; r < height; r++) {
+        for (int c = 0; c < width; c++) {
+          result[r][c][channel] = (plane[r * width + c] + half) >> FRACTION_BITS;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Return the radius of each of the box passes approximating a Gaussian blur of the given standard
+   * deviation (from W. Kovesi, "Fast Almost-Gaussian Filtering", 2010).
+   *
+   * @param sigma standard deviation of the Gaussian, in pixels.
+   * @return the radius of each of the GAUSSIAN_PASSES box passes.
+   * @throws IllegalArgumentException if sigma is not positive.
+   */
+  static int[] gaussianRadii(double sigma) throws IllegalArgumentException {
+    if (!(sigma > 0)) {
+      throw new IllegalArgumentException("Standard deviation must be positive.");
+    }
+    int n = GAUSSIAN_PASSES;
+    int lower = (int) Math.floor(Math.sqrt(12 * sigma * sigma / n + 1));
+    if (lower % 2 == 0) {
+      lower--;
+    }
+    int upper = lower + 2;
+    int lowerCount = (int) Math.round((12 * sigma * sigma - n * lower * lower - 4 * n * lower
+            - 3 * n) / (-4.0 * lower - 4));
+    int[] radii = new int[n];
+    for (int i = 0; i < n; i++) {
+      radii[i] = ((i < lowerCount ? lower : upper) - 1) / 2;
+    }
+    return radii;
+  }
+
+  /**
+   * Return the distance from which the pixels have no weight in the Gaussian blur of the given
+   * standard deviation, the sum of the radii of its box passes.
+   *
+   * @param sigma standard deviation of the Gaussian, in pixels.
+   * @return the reach of the blur, in pixels.
+   * @throws IllegalArgumentException if sigma is not positive.
+   */
+  static int gaussianReach(double sigma) throws IllegalArgumentException {
+    int reach = 0;
+    for (int radius : gaussianRadii(sigma)) {
+      reach += radius;
+    }
+    return reach;
+  }
+
+  /**
+   * Write into dst the mean of every horizontal window of 2 * radius + 1 pixels of src. Rows are
+   * processed in parallel.
+   *
+   * @param src    source plane, row-major.
+   * @param dst    destination plane, row-major.
+   * @param height number of rows.
+   * @param width  number of columns.
+   * @param radius radius of the window.
+   */
+  private static void horizontal(int[] src, int[] dst, int height, int width, int radius) {
+    IntStream.range(0, height).parallel().forEach(r -> {
+      int rowStart = r * width;
+      long sum = 0;
+      for (int c = 0; c <= Math.min(radius, width - 1); c++) {
+        sum += src[rowStart + c];
+      }
+      for (int c = 0; c < width; c++) {
+        int count = Math.min(c + radius, width - 1) - Math.max(c - radius, 0) + 1;
+        dst[rowStart + c] = mean(sum, count);
+        if (c + radius + 1 < width) {
+          sum += src[rowStart + c + radius + 1];
+        }
+        if (c - radius >= 0) {
+          sum -= src[rowStart + c - radius];
+        }
+      }
+    });
+  }
+
+  /**
+   * Write into dst the mean of every vertical window of 2 * radius + 1 pixels of src. A running sum
+   * per column slides down the image one row at a time, so every step is a contiguous loop over a
+   * row. Bands of columns are processed in parallel.
+   *
+   * @param src    source plane, row-major.
+   * @param dst    destination plane, row-major.
+   * @param height number of rows.
+   * @param width  number of columns.
+   * @param radius radius of the window.
+   */
+  private static void vertical(int[] src, int[] dst, int height, int width, int radius) {
+    int bands = (width + COLUMN_BAND - 1) / COLUMN_BAND;
+    IntStream.range(0, bands).parallel().forEach(band -> {
+      int left = band * COLUMN_BAND;
+      int right = Math.min(left + COLUMN_BAND, width);
+      long[] sums = new long[right - left];
+      for (int r = 0; r <= Math.min(radius, height - 1); r++) {
+        addRow(sums, src, r * width + left, 1);
+      }
+      for (int r = 0; r < height; r++) {
+        int count = Math.min(r + radius, height - 1) - Math.max(r - radius, 0) + 1;
+        int rowStart = r * width + left;
+        for (int i = 0; i < sums.length; i++) {
+          dst[rowStart + i] = mean(sums[i], count);
+        }
+        if (r + radius + 1 < height) {
+          addRow(sums, src, (r + radius + 1) * width + left, 1);
+        }
+        if (r - radius >= 0) {
+          addRow(sums, src, (r - radius) * width + left, -1);
+        }
+      }
+    });
+  }
+
+  /**
+   * Add sign * src[offset + i] to sums[i] for every i of sums.
+   *
+   * @param sums   the running sums.
+   * @param src    source plane.
+   * @param offset index in src of the value added to sums[0].
+   * @param sign   1 to add the row, -1 to remove it.
+   */
+  private static void addRow(long[] sums, int[] src, int offset, int sign) {
+    for (int i = 0; i < sums.length; i++) {
+      sums[i] += sign * src[offset + i];
+    }
+  }
+
+  /**
+   * Return the mean of count non-negative fixed point values, rounded to the nearest fixed point
+   * value.
+   *
+   * @param sum   the sum of the values.
+   * @param count the number of values.
+   * @return the rounded mean.
+   */
+  private static int mean(long sum, int count) {
+    return (int) ((sum + count / 2) / count);
+  }
+}
@@ -1,3 +1,5 @@
+import java.util.Arrays;
+
 /**
  * This Class represents color converter which contains a color converting matrix. This is the
  * matrix used to convert a image (represented in RGB format) into different color tone.
@@ -46,4 +48,16 @@ public class ColorConverter {
   public double[][] getData() {
     return this.matrix;
   }
+
+  /**
+   * Return a canonical description of this ColorConverter: its size followed by every value of its
+   * matrix. Two ColorConverters with the same description give the same result on the same image.
+   *
+   * @return a canonical description of this ColorConverter.
+   */
+  @Override
+  public String toString() {
+    return "ColorConverter " + matrix.length + "x" + matrix[0].length + " "
+            + Arrays.deepToString(matrix);
+  }
 }
@@ -0,0 +1,402 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+
+/**
+ * This class contains the reduction of an image to a few colors. The palette is chosen by median
+ * cut: starting from one box holding every color of the image, the box of the widest color range
+ * is split at the median of its pixels along that range until there are as many boxes as colors,
+ * and every box gives the mean of its pixels. A few k-means iterations then move every color to
+ * the mean of the pixels closest to it. Both work on a histogram of the image at 5 bits per
+ * channel, built in parallel over bands of rows, so their cost does not depend on the size of the
+ * image.
+ *
+ * <p>Every pixel is then given the closest color of the palette. A 3D table of 32 * 32 * 32 cells
+ * keeps, for every cell of the color space, the only colors of the palette which can be the
+ * closest to a color of the cell, so a pixel is compared with a few colors rather than all of
+ * them; the result is the same as comparing it with every color. Pixels are assigned in parallel
+ * over rows, or, with error diffusion, in order with the error of every pixel spread over its
+ * neighbours as in applyDithering.
+ */
+final class ColorQuantizer {
+
+  /**
+   * Bits per channel of the histogram and of the table of candidates.
+   */
+  private static final int CELL_BITS = 5;
+
+  /**
+   * Number of k-means iterations after the median cut.
+   */
+  private static final int KMEANS_ITERATIONS = 4;
+
+  /**
+   * Number of rows of the histogram computed by one task.
+   */
+  private static final int ROW_BAND = 64;
+
+  private final int[] palette;
+  private final AtomicReferenceArray<int[]> candidates;
+
+  /**
+   * Constructor of a ColorQuantizer to the given palette.
+   *
+   * @param palette the colors packed as 0xRRGGBB.
+   */
+  private ColorQuantizer(int[] palette) {
+    this.palette = palette;
+    this.candidates = new AtomicReferenceArray<>(1 << (3 * CELL_BITS));
+  }
+
+  /**
+   * Return the image reduced to at most the given number of colors, as an IndexedImage.
+   *
+   * @param data   the image as a 3D array of [r, g, b].
+   * @param colors largest number of colors of the result.
+   * @param dither true to spread the error of every pixel over its neighbours (Floyd-Steinberg),
+   *               false to give every pixel its closest color.
+   * @return the quantized image.
+   */
+  static IndexedImage quantize(int[][][] data, int colors, boolean dither) {
+    int height = data.length;
+    int width = data[0].length;
+    ColorQuantizer quantizer = new ColorQuantizer(choosePalette(histogram(data), colors));
+    int[] labels = new int[height * width];
+    if (dither) {
+      quantizer.diffuse(data, labels);
+    } else {
+      IntStream.range(0, height).parallel().forEach(r -> {
+        int[][] row = data[r];
+        for (int c = 0; c < width; c++) {
+          labels[r * width + c] = quantizer.closest(row[c][0], row[c][1], row[c][2]);
+        }
+      });
+    }
+    return new IndexedImage(height, width, quantizer.palette, labels);
+  }
+
+  /**
+   * Return the histogram of the image at CELL_BITS bits per channel: for every cell, the number
+   * of pixels and the sums of their red, green and blue values, at index 4 * cell. Bands of rows
+   * are counted in parallel, each in a histogram of its own, and then added.
+   *
+   * @param data the image as a 3D array of [r, g, b].
+   * @return the histogram.
+   */
+  private static long[] histogram(int[][][] data) {
+    int height = data.length;
+    int bands = (height + ROW_BAND - 1) / ROW_BAND;
+    return IntStream.range(0, bands).parallel().mapToObj(band -> {
+      long[] counts = new long[4 << (3 * CELL_BITS)];
+      for (int r = band * ROW_BAND; r < Math.min((band + 1) * ROW_BAND, height); r++) {
+        for (int[] pixel : data[r]) {
+          int cell = 4 * cell(pixel[0], pixel[1], pixel[2]);
+          counts[cell]++;
+          counts[cell + 1] += pixel[0];
+          counts[cell + 2] += pixel[1];
+          counts[cell + 3] += pixel[2];
+        }
+      }
+      return counts;
+    }).reduce((a, b) -> {
+      for (int i = 0; i < a.length; i++) {
+        a[i] += b[i];
+      }
+      return a;
+    }).orElseThrow(IllegalStateException::new);
+  }
+
+  /**
+   * Return the palette of at most colors colors chosen by median cut and refined by k-means.
+   *
+   * @param histogram the histogram of the image.
+   * @param colors    largest number of colors.
+   * @return the colors packed as 0xRRGGBB.
+   */
+  private static int[] choosePalette(long[] histogram, int colors) {
+    //the occupied cells, each as the mean color of its pixels and their number.
+    int occupied = 0;
+    for (int i = 0; i < histogram.length; i += 4) {
+      if (histogram[i] > 0) {
+        occupied++;
+      }
+    }
+    double[][] means = new double[occupied][3];
+    long[] weights = new long[occupied];
+    int n = 0;
+    for (int i = 0; i < histogram.length; i += 4) {
+      if (histogram[i] > 0) {
+        weights[n] = histogram[i];
+        for (int k = 0; k < 3; k++) {
+          means[n][k] = (double) histogram[i + k + 1] / histogram[i];
+        }
+        n++;
+      }
+    }
+
+    //median cut: boxes are ranges of order, split until there are enough of them.
+    Integer[] order = new Integer[occupied];
+    for (int i = 0; i < occupied; i++) {
+      order[i] = i;
+    }
+    int[] starts = new int[colors + 1];
+    int[] ends = new int[colors + 1];
+    int boxes = 1;
+    starts[0] = 0;
+    ends[0] = occupied;
+    while (boxes < colors) {
+      int widest = -1;
+      int widestAxis = 0;
+      double widestRange = 0;
+      for (int b = 0; b < boxes; b++) {
+        for (int axis = 0; axis < 3; axis++) {
+          double low = Double.POSITIVE_INFINITY;
+          double high = Double.NEGATIVE_INFINITY;
+          for (int i = starts[b]; i < ends[b]; i++) {
+            low = Math.min(low, means[order[i]][axis]);
+            high = Math.max(high, means[order[i]][axis]);
+          }
+          if (high - low > widestRange) {
+            widestRange = high - low;
+            widest = b;
+            widestAxis = axis;
+          }
+        }
+      }
+      if (widest < 0) {
+        break;
+      }
+      int axis = widestAxis;
+      Arrays.sort(order, starts[widest], ends[widest],
+              Comparator.comparingDouble(i -> means[i][axis]));
+      long total = 0;
+      for (int i = starts[widest]; i < ends[widest]; i++) {
+        total += weights[order[i]];
+      }
+      //the first cell past half of the pixels, leaving at least one cell on each side.
+      int split = starts[widest] + 1;
+      long seen = weights[order[starts[widest]]];
+      while (split < ends[widest] - 1 && seen * 2 < total) {
+        seen += weights[order[split]];
+        split++;
+      }
+      starts[boxes] = split;
+      ends[boxes] = ends[widest];
+      ends[widest] = split;
+      boxes++;
+    }
+    double[][] centers = new double[boxes][3];
+    for (int b = 0; b < boxes; b++) {
+      centers[b] = weightedMean(means, weights, order, starts[b], ends[b]);
+    }
+
+    //k-means on the cells: every color moves to the mean of the cells closest to it.
+    for (int iteration = 0; iteration < KMEANS_ITERATIONS; iteration++) {
+      double[][] sums = new double[boxes][3];
+      long[] counts = new long[boxes];
+      for (int i = 0; i < occupied; i++) {
+        int best = 0;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int b = 0; b < boxes; b++) {
+          double distance = 0;
+          for (int k = 0; k < 3; k++) {
+            double d = means[i][k] - centers[b][k];
+            distance += d * d;
+          }
+          if (distance < bestDistance) {
+            bestDistance = distance;
+            best = b;
+          }
+        }
+        counts[best] += weights[i];
+        for (int k = 0; k < 3; k++) {
+          sums[best][k] += means[i][k] * weights[i];
+        }
+      }
+      for (int b = 0; b < boxes; b++) {
+        if (counts[b] > 0) {
+          for (int k = 0; k < 3; k++) {
+            centers[b][k] = sums[b][k] / counts[b];
+          }
+        }
+      }
+    }
+    int[] palette = new int[boxes];
+    for (int b = 0; b < boxes; b++) {
+      palette[b] = (channel(centers[b][0]) << 16) | (channel(centers[b][1]) << 8)
+              | channel(centers[b][2]);
+    }
+    return palette;
+  }
+
+  /**
+   * Return the mean of the cells of a box, weighted by their number of pixels.
+   *
+   * @param means   the mean color of every cell.
+   * @param weights the number of pixels of every cell.
+   * @param order   the cells, a box being a range of it.
+   * @param start   first index of the box in order.
+   * @param end     index after the last of the box in order.
+   * @return the mean [r, g, b] of the box.
+   */
+  private static double[] weightedMean(double[][] means, long[] weights, Integer[] order,
+                                       int start, int end) {
+    double[] mean = new double[3];
+    long total = 0;
+    for (int i = start; i < end; i++) {
+      int cell = order[i];
+      total += weights[cell];
+      for (int k = 0; k < 3; k++) {
+        mean[k] += means[cell][k] * weights[cell];
+      }
+    }
+    for (int k = 0; k < 3; k++) {
+      mean[k] /= Math.max(total, 1);
+    }
+    return mean;
+  }
+
+  /**
+   * Write the index of the color of every pixel, spreading the difference between every pixel
+   * and its color over its right and lower neighbours with the weights 7, 3, 5 and 1 sixteenths
+   * (Floyd-Steinberg). Only two rows of errors are kept while the image is scanned.
+   *
+   * @param data   the image as a 3D array of [r, g, b].
+   * @param labels the array receiving the index of the color of every pixel, row by row.
+   */
+  private void diffuse(int[][][] data, int[] labels) {
+    int height = data.length;
+    int width = data[0].length;
+    int[][] current = new int[width][3];
+    int[][] next = new int[width][3];
+    for (int r = 0; r < height; r++) {
+      int[][] row = data[r];
+      for (int c = 0; c < width; c++) {
+        int red = Math.min(Math.max(row[c][0] + current[c][0], 0), 255);
+        int green = Math.min(Math.max(row[c][1] + current[c][1], 0), 255);
+        int blue = Math.min(Math.max(row[c][2] + current[c][2], 0), 255);
+        int label = closest(red, green, blue);
+        labels[r * width + c] = label;
+        for (int k = 0; k < 3; k++) {
+          int value = k == 0 ? red : k == 1 ? green : blue;
+          int error = value - ((palette[label] >> (16 - 8 * k)) & 0xFF);
+          if (c + 1 < width) {
+            current[c + 1][k] += (int) Math.round(error * 7 / 16.0);
+          }
+          if (c - 1 >= 0) {
+            next[c - 1][k] += (int) Math.round(error * 3 / 16.0);
+          }
+          next[c][k] += (int) Math.round(error * 5 / 16.0);
+          if (c + 1 < width) {
+            next[c + 1][k] += (int) Math.round(error / 16.0);
+          }
+        }
+      }
+      int[][] swap = current;
+      current = next;
+      next = swap;
+      for (int[] error : next) {
+        Arrays.fill(error, 0);
+      }
+    }
+  }
+
+  /**
+   * Return the index of the color of the palette closest to a color, the first one in case of a
+   * tie.
+   *
+   * @param red   red value of the color.
+   * @param green green value of the color.
+   * @param blue  blue value of the color.
+   * @return the index of the closest color of the palette.
+   */
+  private int closest(int red, int green, int blue) {
+    int cell = cell(red, green, blue);
+    int[] kept = candidates.get(cell);
+    if (kept == null) {
+      //a cell is only computed once it is needed. Two threads may both compute it, into equal
+      //arrays; the array is published with its contents, and the first one stored is kept.
+      kept = cellCandidates(cell);
+      if (!candidates.compareAndSet(cell, null, kept)) {
+        kept = candidates.get(cell);
+      }
+    }
+    int best = kept[0];
+    int bestDistance = Integer.MAX_VALUE;
+    for (int index : kept) {
+      int color = palette[index];
+      int dr = red - ((color >> 16) & 0xFF);
+      int dg = green - ((color >> 8) & 0xFF);
+      int db = blue - (color & 0xFF);
+      int distance = dr * dr + dg * dg + db * db;
+      if (distance < bestDistance) {
+        bestDistance = distance;
+        best = index;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Return the colors of the palette which may be the closest to a color of a cell: those whose
+   * distance to the cell is at most the smallest distance from a color of the palette to the
+   * farthest corner of the cell.
+   *
+   * @param cell the cell.
+   * @return the indices of the candidates, in increasing order.
+   */
+  private int[] cellCandidates(int cell) {
+    int size = 1 << (8 - CELL_BITS);
+    int[] low = {(cell >> (2 * CELL_BITS)) * size, ((cell >> CELL_BITS) & ((1 << CELL_BITS) - 1))
+            * size, (cell & ((1 << CELL_BITS) - 1)) * size};
+    long[] nearest = new long[palette.length];
+    long limit = Long.MAX_VALUE;
+    for (int i = 0; i < palette.length; i++) {
+      long inside = 0;
+      long farthest = 0;
+      for (int k = 0; k < 3; k++) {
+        int value = (palette[i] >> (16 - 8 * k)) & 0xFF;
+        int high = low[k] + size - 1;
+        long d = value < low[k] ? low[k] - value : value > high ? value - high : 0;
+        long f = Math.max(Math.abs(value - low[k]), Math.abs(value - high));
+        inside += d * d;
+        farthest += f * f;
+      }
+      nearest[i] = inside;
+      limit = Math.min(limit, farthest);
+    }
+    int[] kept = new int[palette.length];
+    int count = 0;
+    for (int i = 0; i < palette.length; i++) {
+      if (nearest[i] <= limit) {
+        kept[count++] = i;
+      }
+    }
+    return Arrays.copyOf(kept, count);
+  }
+
+  /**
+   * Return the cell of a color in the histogram and the table of candidates.
+   *
+   * @param red   red value of the color.
+   * @param green green value of the color.
+   * @param blue  blue value of the color.
+   * @return the cell of the color.
+   */
+  private static int cell(int red, int green, int blue) {
+    int shift = 8 - CELL_BITS;
+    return ((red >> shift) << (2 * CELL_BITS)) | ((green >> shift) << CELL_BITS)
+            | (blue >> shift);
+  }
+
+  /**
+   * Round a channel value and clamp it between 0 and 255.
+   *
+   * @param value the value.
+   * @return the value rounded and clamped between 0 and 255.
+   */
+  private static int channel(double value) {
+    return Math.min(Math.max((int) Math.round(value), 0), 255);
+  }
+}
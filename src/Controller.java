@@ -1,8 +1,20 @@
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.SplittableRandom;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.UnaryOperator;
 
 /**
  * This class takes in user commands as a list of string and react accordingly. The controller class
@@ -17,6 +29,11 @@ public class Controller implements Feature {
   private IView view;
   private Stack<Image> redoStack;
   private Stack<Image> undoStack;
+  private ScriptMetrics scriptMetrics;
+  private final ResultCache resultCache;
+  private final DecodedImageCache decodedImages;
+  private final Set<Image> produced;
+  private final Map<Image, Image> thawedFrom;
 
   /**
    * Construct a Controller object with and Image object. Set default empty redoStack and empty
@@ -26,10 +43,38 @@ public class Controller implements Feature {
    * @param model Image object server as model of this controller.
    */
   public Controller(Image model) {
+    this(model, new ResultCache(ResultCache.DEFAULT_MEMORY_BUDGET));
+  }
+
+  /**
+   * Construct a Controller object with and Image object and the cache used for the results of
+   * deterministic operations (blur, sharpen, greyscale, sepia and dithering).
+   *
+   * @param model       Image object server as model of this controller.
+   * @param resultCache cache of the results of deterministic operations.
+   */
+  public Controller(Image model, ResultCache resultCache) {
+    this(model, resultCache, new DecodedImageCache(DecodedImageCache.DEFAULT_BUDGET));
+  }
+
+  /**
+   * Construct a Controller object sharing the caches of another one. Used to run the branches of
+   * a batch-scrip.
+   *
+   * @param model         Image object server as model of this controller.
+   * @param resultCache   cache of the results of deterministic operations.
+   * @param decodedImages cache of the decoded image files.
+   */
+  private Controller(Image model, ResultCache resultCache, DecodedImageCache decodedImages) {
+    this.resultCache = resultCache;
+    this.decodedImages = decodedImages;
     this.model = model;
     view = null;
     redoStack = new Stack<>();
     undoStack = new Stack<>();
+    scriptMetrics = new ScriptMetrics();
+    produced = Collections.newSetFromMap(new IdentityHashMap<>());
+    thawedFrom = new IdentityHashMap<>();
   }
 
   @Override
@@ -48,21 +93,22 @@ public class Controller implements Feature {
     if (view == null) {
       return;
     }
+    Image previous = model;
     switch (command) {
       case "blur":
-        model = model.blur();
+        model = blur(model);
         break;
       case "sharpen":
-        model = model.sharpen();
+        model = sharpen(model);
         break;
       case "greyscale":
-        model = model.greyscale();
+        model = greyscale(model);
         break;
       case "sepia":
-        model = model.sepia();
+        model = sepia(model);
         break;
       case "dithering":
-        model = model.applyDithering();
+        model = dithering(model);
         break;
       case "mosaicing":
         String seed_s = view.getInput("Enter number of seed (integer): ");
@@ -132,10 +178,16 @@ public class Controller implements Feature {
       default:
         break;
     }
+    if (model != previous) {
+      produced.add(model);
+    }
     if (model.getData() == null) {
       return;
     }
     view.updateImage(model.getBufferImage());
+    if (!undoStack.empty() && undoStack.peek() != model) {
+      undoStack.push(freeze(undoStack.pop()));
+    }
     undoStack.push(model);
   }
 
@@ -144,9 +196,10 @@ public class Controller implements Feature {
     if (redoStack.empty()) {
       return;
     }
-    Image temp = redoStack.pop();
-    undoStack.push(temp);
-    model = undoStack.peek();
+    Image previous = undoStack.pop();
+    model = thaw(redoStack.pop());
+    undoStack.push(freeze(previous));
+    undoStack.push(model);
     if (view == null) {
       return;
     }
@@ -163,8 +216,9 @@ public class Controller implements Feature {
       undoStack.push(temp);
       return;
     }
-    redoStack.push(temp);
-    model = undoStack.peek();
+    model = thaw(undoStack.pop());
+    undoStack.push(model);
+    redoStack.push(freeze(temp));
     if (view == null) {
       return;
     }
@@ -185,16 +239,22 @@ public class Controller implements Feature {
 
   /**
    * Lode the image file into the model. The image file will be transfer into 3D array and store as
-   * the data in the model. Initilize undo and redo stack when loading a new file.
+   * the data in the model, unless the same version of the file was already decoded, in which case
+   * the decoded image is shared. Initilize undo and redo stack when loading a new file.
    *
    * @param loadedImage String represants path and name of the loaded file.
    * @throws IOException if reading the file not successes.
    */
   private void load(String loadedImage) throws IOException {
-    model = new ImageImpl(ImageUtil.readImage(loadedImage));
+    List<Image> history = new ArrayList<>(undoStack);
+    history.addAll(redoStack);
+    model = decodedImages.load(loadedImage);
     undoStack = new Stack<>();
     redoStack = new Stack<>();
     undoStack.push(model);
+    for (Image image : history) {
+      retire(image);
+    }
   }
 
   @Override
@@ -204,7 +264,7 @@ public class Controller implements Feature {
     }
     String saveImage = view.getFilePath();
     if (!saveImage.equals("")) {
-      ImageUtil.writeImage(model.getData(), model.getWidth(), model.getHeight(), saveImage);
+      ImageUtil.writeImage(model, saveImage);
     }
   }
 
@@ -232,118 +292,698 @@ public class Controller implements Feature {
 
   @Override
   public void processFile(String f) throws IllegalArgumentException {
+    //braces and semicolons of branch blocks are tokens of their own.
+    f = f.replace("{", " { ").replace("}", " } ").replace(";", " ");
     Scanner scanTemp = new Scanner(f);
     String first = scanTemp.next();
     if (!first.equals("load") && !first.equals("generate")) {
       throw new IllegalArgumentException("File must start with load or generate.");
     }
 
-    Scanner scan = new Scanner(f);
+    scriptMetrics = new ScriptMetrics();
+    ScriptMetrics previous = scriptMetrics.bind();
+    try {
+      runCommands(new Scanner(f));
+    } finally {
+      ScriptMetrics.restore(previous);
+    }
+  }
+
+  /**
+   * Return the report of the time, CPU time, allocation and image size of every command run by the
+   * last call of processFile.
+   *
+   * @return the report of the last batch-scrip as a multi-line string.
+   */
+  public String getScriptReport() {
+    return scriptMetrics.report();
+  }
+
+  /**
+   * Run every command read from the scanner on the model, measuring each of them with the current
+   * ScriptMetrics. Helper function of processFile.
+   *
+   * @param scan scanner over the batch-scrip commands.
+   * @throws IllegalArgumentException if the commands are not valid format of the batch-scrip.
+   */
+  private void runCommands(Scanner scan) throws IllegalArgumentException {
     while (scan.hasNext()) {
       String command = scan.next();
-      switch (command) {
-        case "load":
-          //must follow by valid file name
-          if (!scan.hasNext()) {
-            throw new IllegalArgumentException("Load must follow by a file name");
-          }
-          String filename = scan.next();
-          if (!filename.contains(".")) {
-            throw new IllegalArgumentException("Load must follow by a valid file name");
-          }
-          try {
-            load(filename);
-          } catch (IOException e) {
-            throw new IllegalArgumentException("Error writing or reading file");
-          }
-          break;
-        case "save":
-          //must follow by valid file name
-          if (!scan.hasNext()) {
-            throw new IllegalArgumentException("Save must follow by a file name");
-          }
-          String saveFileName = scan.next();
-          if (!saveFileName.contains(".")) {
-            throw new IllegalArgumentException("Save must follow by a valid file name");
-          }
-          try {
-            ImageUtil.writeImage(model.getData(), model.getWidth(), model.getHeight(),
-                    saveFileName);
-          } catch (IOException e) {
-            throw new IllegalArgumentException("Error writing or reading file");
-          }
-          break;
-        case "blur":
-          model = model.blur();
-          break;
-        case "sharpen":
-          model = model.sharpen();
-          break;
-        case "greyscale":
-          model = model.greyscale();
-          break;
-        case "sepia":
-          model = model.sepia();
-          break;
-        case "dithering":
-          model = model.applyDithering();
-          break;
-        case "mosaicing":
+      boolean createsImage = command.equals("load") || command.equals("generate");
+      ScriptMetrics.Span span = scriptMetrics.start(command, createsImage ? null : model);
+      try {
+        runCommand(command, scan);
+      } finally {
+        //a command which fails is measured too, with the model it leaves.
+        span.end(command.equals("save") || command.equals("preview") ? null : model);
+      }
+    }
+  }
+
+  /**
+   * Run one command on the model, reading its arguments from the scanner. Helper function of
+   * runCommands.
+   *
+   * @param command the command.
+   * @param scan    scanner positioned right after the command.
+   * @throws IllegalArgumentException if the command is not valid format of the batch-scrip.
+   */
+  private void runCommand(String command, Scanner scan) throws IllegalArgumentException {
+    Image previous = model;
+    switch (command) {
+      case "load":
+        //must follow by valid file name
+        if (!scan.hasNext()) {
+          throw new IllegalArgumentException("Load must follow by a file name");
+        }
+        String filename = scan.next();
+        if (!filename.contains(".")) {
+          throw new IllegalArgumentException("Load must follow by a valid file name");
+        }
+        try {
+          load(filename);
+        } catch (IOException e) {
+          throw new IllegalArgumentException("Error writing or reading file");
+        }
+        break;
+      case "save":
+        //must follow by valid file name
+        if (!scan.hasNext()) {
+          throw new IllegalArgumentException("Save must follow by a file name");
+        }
+        String saveFileName = scan.next();
+        if (!saveFileName.contains(".")) {
+          throw new IllegalArgumentException("Save must follow by a valid file name");
+        }
+        try {
+          ImageUtil.writeImage(model, saveFileName);
+        } catch (IOException e) {
+          throw new IllegalArgumentException("Error writing or reading file");
+        }
+        break;
+      case "preview":
+        if (!scan.hasNextInt()) {
+          throw new IllegalArgumentException("Please specify the largest width(int) and "
+                  + "height(int) following 'preview', then a file name");
+        }
+        int previewWidth = scan.nextInt();
+        if (!scan.hasNextInt()) {
+          throw new IllegalArgumentException("Please specify the largest width(int) and "
+                  + "height(int) following 'preview', then a file name");
+        }
+        int previewHeight = scan.nextInt();
+        if (!scan.hasNext()) {
+          throw new IllegalArgumentException("Preview must follow by a file name");
+        }
+        String previewFileName = scan.next();
+        if (!previewFileName.contains(".")) {
+          throw new IllegalArgumentException("Preview must follow by a valid file name");
+        }
+        Image preview = ImagePyramid.of(model).preview(previewWidth, previewHeight);
+        try {
+          ImageUtil.writeImage(preview, previewFileName);
+        } catch (IOException e) {
+          throw new IllegalArgumentException("Error writing or reading file");
+        }
+        break;
+      case "blur":
+        model = applyCached(model, readRegion(scan), Filter.BLUR.getMatrix().length / 2,
+            "filter " + Filter.BLUR, Image::blur);
+        break;
+      case "sharpen":
+        model = applyCached(model, readRegion(scan), Filter.SHARPEN.getMatrix().length / 2,
+            "filter " + Filter.SHARPEN, Image::sharpen);
+        break;
+      case "greyscale":
+        model = applyCached(model, readRegion(scan), 0, "color " + ColorConverter.GREYSCALE,
+            Image::greyscale);
+        break;
+      case "sepia":
+        model = applyCached(model, readRegion(scan), 0, "color " + ColorConverter.SEPIA,
+            Image::sepia);
+        break;
+      case "dithering":
+        model = applyCached(model, readRegion(scan), 0, "dithering " + ColorConverter.GREYSCALE,
+            Image::applyDithering);
+        break;
+      case "threshold":
+        if (!scan.hasNextInt()) {
+          throw new IllegalArgumentException("Please specify a greyscale level(int) between 0 "
+                  + "and 255 following 'threshold'");
+        }
+        int level = scan.nextInt();
+        model = applyCached(model, readRegion(scan), 0, "threshold " + level,
+            image -> image.threshold(level));
+        break;
+      case "quantize":
+        if (!scan.hasNextInt()) {
+          throw new IllegalArgumentException("Please specify a number of colors(int) between 1 "
+                  + "and 256 following 'quantize', then optionally dither");
+        }
+        int colors = scan.nextInt();
+        boolean dither = scan.hasNext("dither");
+        if (dither) {
+          scan.next();
+        }
+        model = applyCached(model, readRegion(scan), 0,
+            "quantize " + colors + (dither ? " dither" : ""),
+            image -> image.quantize(colors, dither));
+        break;
+      case "autolevels":
+        model = applyCached(model, readRegion(scan), 0, "autolevels", Image::autoLevels);
+        break;
+      case "equalize":
+        model = applyCached(model, readRegion(scan), 0, "equalize", Image::equalize);
+        break;
+      case "convolve":
+        if (!scan.hasNextInt()) {
+          throw new IllegalArgumentException("Please specify the odd size of the filter "
+                  + "following 'convolve', then its values, e.g. convolve 3 [0 1 0 1 2 1 0 1 0]");
+        }
+        int size = scan.nextInt();
+        double[] values = readValues(scan, size * size, "convolve");
+        double[][] matrix = new double[size][size];
+        for (int i = 0; i < size * size; i++) {
+          matrix[i / size][i % size] = values[i];
+        }
+        Filter filter = new Filter(matrix);
+        model = applyCached(model, readRegion(scan), filter.getMatrix().length / 2,
+            "filter " + filter, image -> image.applyFilter(filter));
+        break;
+      case "colormatrix":
+        double[] colorValues = readValues(scan, 9, "colormatrix");
+        double[][] colorMatrix = new double[3][3];
+        for (int i = 0; i < 9; i++) {
+          colorMatrix[i / 3][i % 3] = colorValues[i];
+        }
+        ColorConverter converter = new ColorConverter(colorMatrix);
+        model = applyCached(model, readRegion(scan), 0, "color " + converter,
+            image -> image.applyColorConvert(converter));
+        break;
+      case "boxblur":
+        if (!scan.hasNextInt()) {
+          throw new IllegalArgumentException("Please specify a integer radius following "
+                  + "'boxblur'");
+        }
+        int radius = scan.nextInt();
+        model = applyCached(model, readRegion(scan), Math.max(radius, 0), "boxblur " + radius,
+            image -> image.boxBlur(radius));
+        break;
+      case "over":
+        if (!scan.hasNext()) {
+          throw new IllegalArgumentException("Over must follow by a file name");
+        }
+        String overlayName = scan.next();
+        if (!overlayName.contains(".")) {
+          throw new IllegalArgumentException("Over must follow by a valid file name");
+        }
+        int overlayX = 0;
+        int overlayY = 0;
+        if (scan.hasNextInt()) {
+          overlayX = scan.nextInt();
           if (!scan.hasNextInt()) {
-            throw new IllegalArgumentException("Please specify a integer number of seed "
-                    + "following 'mosaicing'");
-          }
-          int seed = scan.nextInt();
-          model = model.mosaicing(seed);
-          break;
-        case "generate":
-          if (!scan.hasNext()) {
-            throw new IllegalArgumentException("What do you want to generate? Specify "
-                    + "after 'generate'");
-          }
-          String generateTo = scan.next();
-          switch (generateTo) {
-            case "rainbowFlag":
-              if (!scan.hasNextInt()) {
-                throw new IllegalArgumentException("Please generate rainbow flag "
-                        + "with height(int), width(int) and direction('h' or 'v')");
-              }
-              int height = scan.nextInt();
-              if (!scan.hasNextInt()) {
-                throw new IllegalArgumentException("Please generate rainbow flag "
-                        + "with height(int), width(int) and direction('h' or 'v')");
-              }
-              int width = scan.nextInt();
-              if (!scan.hasNext()) {
-                throw new IllegalArgumentException("Please generate rainbow flag with "
-                        + "height(int), width(int) and direction('h' or 'v')");
-              }
-              String direction = scan.next();
-              if (!direction.equals("h") && !direction.equals("v")) {
-                throw new IllegalArgumentException("Direction of the rainbow flag "
-                        + "must be 'h' or 'v'");
-              }
-              model = model.rainbowFlag(height, width, direction);
-              break;
-            case "checkerboard":
-              if (!scan.hasNextInt()) {
-                throw new IllegalArgumentException("Please generate checkerboard "
-                        + "with square size(int)");
-              }
-              int squaresize = scan.nextInt();
-              model = model.generateCheckerBoard(squaresize);
-
-              break;
-            default:
-              throw new IllegalArgumentException("Generate type does not supported.");
+            throw new IllegalArgumentException("Please specify the column(int) and row(int) of "
+                    + "the overlay following its file name");
           }
+          overlayY = scan.nextInt();
+        }
+        try {
+          model = decodedImages.load(overlayName).over(model, overlayX, overlayY);
+        } catch (IOException e) {
+          throw new IllegalArgumentException("Error writing or reading file");
+        }
+        break;
+      case "precise":
+        if (model.getWidth() > 0 && model.getHeight() > 0) {
+          model = PreciseImage.of(model);
+        }
+        break;
+      case "opacity":
+        if (!scan.hasNextDouble()) {
+          throw new IllegalArgumentException("Please specify an opacity between 0 and 1 "
+                  + "following 'opacity'");
+        }
+        double opacity = scan.nextDouble();
+        model = resultCache.apply(model, "opacity " + opacity, image -> image.opacity(opacity));
+        break;
+      case "edges":
+        GradientOperator edgeOperator = readGradientOperator(scan);
+        model = applyCached(model, readRegion(scan), edgeOperator.getReach(),
+            "edges " + edgeOperator,
+            image -> image.edges(edgeOperator));
+        break;
+      case "gradient":
+        GradientOperator gradientOperator = readGradientOperator(scan);
+        model = applyCached(model, readRegion(scan), gradientOperator.getReach(),
+            "gradient " + gradientOperator,
+            image -> image.gradient(gradientOperator));
+        break;
+      case "median":
+      case "erode":
+      case "dilate":
+        if (!scan.hasNextInt()) {
+          throw new IllegalArgumentException("Please specify a integer radius following '"
+                  + command + "'");
+        }
+        int rankRadius = scan.nextInt();
+        UnaryOperator<Image> rankFilter = command.equals("median")
+                ? image -> image.median(rankRadius) : command.equals("erode")
+                ? image -> image.erode(rankRadius) : image -> image.dilate(rankRadius);
+        model = applyCached(model, readRegion(scan), Math.max(rankRadius, 0),
+            command + " " + rankRadius, rankFilter);
+        break;
+      case "gaussian":
+        if (!scan.hasNextDouble()) {
+          throw new IllegalArgumentException("Please specify a standard deviation following "
+                  + "'gaussian'");
+        }
+        double sigma = scan.nextDouble();
+        boolean coarse = scan.hasNext("coarse");
+        if (coarse) {
+          scan.next();
+        }
+        model = applyCached(model, readRegion(scan), BoxBlur.gaussianReach(sigma),
+            "gaussian " + sigma + (coarse ? " coarse" : ""), coarse
+                ? image -> ImagePyramid.of(image).gaussianBlur(sigma)
+                : image -> image.gaussianBlur(sigma));
+        break;
+      case "resize":
+        if (!scan.hasNextInt()) {
+          throw new IllegalArgumentException("Please specify the width(int) and height(int) "
+                  + "following 'resize', then optionally nearest, bilinear, bicubic or lanczos");
+        }
+        int newWidth = scan.nextInt();
+        if (!scan.hasNextInt()) {
+          throw new IllegalArgumentException("Please specify the width(int) and height(int) "
+                  + "following 'resize', then optionally nearest, bilinear, bicubic or lanczos");
+        }
+        int newHeight = scan.nextInt();
+        ResampleFilter resizeFilter = readResampleFilter(scan);
+        model = resultCache.apply(model, "resize " + newWidth + " " + newHeight + " "
+                + resizeFilter, image -> image.resize(newWidth, newHeight, resizeFilter));
+        break;
+      case "scale":
+        if (!scan.hasNextDouble()) {
+          throw new IllegalArgumentException("Please specify a factor following 'scale', then "
+                  + "optionally nearest, bilinear, bicubic or lanczos");
+        }
+        double factor = scan.nextDouble();
+        ResampleFilter scaleFilter = readResampleFilter(scan);
+        model = resultCache.apply(model, "scale " + factor + " " + scaleFilter,
+            image -> image.scale(factor, scaleFilter));
+        break;
+      case "mosaicing":
+        if (!scan.hasNextInt()) {
+          throw new IllegalArgumentException("Please specify a integer number of seed "
+                  + "following 'mosaicing'");
+        }
+        int seed = scan.nextInt();
+        SeedPlacement placement = scan.hasNext("(?i)random|poisson")
+            ? SeedPlacement.fromName(scan.next()) : SeedPlacement.RANDOM;
+        if (scan.hasNextLong()) {
+          //a given random seed always gives the same mosaic, which can then be cached.
+          long randomSeed = scan.nextLong();
+          model = applyCached(model, readRegion(scan), 0,
+              "mosaicing " + seed + " " + placement + " " + randomSeed,
+              image -> image.mosaicing(seed, placement, randomSeed));
           break;
-        default:
-          throw new IllegalArgumentException("Unknown command");
+        }
+        Region mosaicRegion = readRegion(scan);
+        long anySeed = new SplittableRandom().nextLong();
+        model = mosaicRegion == null ? model.mosaicing(seed, placement, anySeed)
+            : model.applyToRegion(mosaicRegion, 0,
+                image -> image.mosaicing(seed, placement, anySeed));
+        break;
+      case "branch":
+        runBranches(readBranches(scan));
+        break;
+      case "generate":
+        if (!scan.hasNext()) {
+          throw new IllegalArgumentException("What do you want to generate? Specify "
+                  + "after 'generate'");
+        }
+        String generateTo = scan.next();
+        switch (generateTo) {
+          case "rainbowFlag":
+            if (!scan.hasNextInt()) {
+              throw new IllegalArgumentException("Please generate rainbow flag "
+                      + "with height(int), width(int) and direction('h' or 'v')");
+            }
+            int height = scan.nextInt();
+            if (!scan.hasNextInt()) {
+              throw new IllegalArgumentException("Please generate rainbow flag "
+                      + "with height(int), width(int) and direction('h' or 'v')");
+            }
+            int width = scan.nextInt();
+            if (!scan.hasNext()) {
+              throw new IllegalArgumentException("Please generate rainbow flag with "
+                      + "height(int), width(int) and direction('h' or 'v')");
+            }
+            String direction = scan.next();
+            if (!direction.equals("h") && !direction.equals("v")) {
+              throw new IllegalArgumentException("Direction of the rainbow flag "
+                      + "must be 'h' or 'v'");
+            }
+            model = model.rainbowFlag(height, width, direction);
+            break;
+          case "checkerboard":
+            if (!scan.hasNextInt()) {
+              throw new IllegalArgumentException("Please generate checkerboard "
+                      + "with square size(int)");
+            }
+            int squaresize = scan.nextInt();
+            model = model.generateCheckerBoard(squaresize);
+
+            break;
+          default:
+            throw new IllegalArgumentException("Generate type does not supported.");
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown command");
+    }
+    if (model != previous) {
+      produced.add(model);
+      retire(previous);
+    }
+  }
+
+  /**
+   * Give an image back to the PixelBufferPool once nothing refers to it any more: it was produced
+   * by a command of this controller, and it is neither the model nor in the undo or redo history.
+   * Images this controller did not produce, such as the model a branch starts from, are left
+   * alone, and the pool itself ignores the images it did not hand out or which a cache shares.
+   *
+   * @param image an image which may no longer be used by this controller.
+   */
+  private void retire(Image image) {
+    if (image != model && !undoStack.contains(image) && !redoStack.contains(image)
+            && produced.remove(image)) {
+      thawedFrom.remove(image);
+      PixelBufferPool.shared().release(image);
+    }
+  }
+
+  /**
+   * Return the compressed form of an image leaving the model for the undo or redo history, and
+   * retire the image itself. An image thawed from the history gets back the FrozenImage it came
+   * from, without compressing it again. Images this controller did not produce belong to a cache
+   * or to the caller and are kept as they are.
+   *
+   * @param image an image which is no longer the model.
+   * @return the image to push on the undo or redo stack.
+   */
+  private Image freeze(Image image) {
+    if (!produced.contains(image)) {
+      return image;
+    }
+    Image frozen = thawedFrom.get(image);
+    if (frozen == null) {
+      frozen = FrozenImage.freeze(image);
+    }
+    if (frozen != image) {
+      retire(image);
+    }
+    return frozen;
+  }
+
+  /**
+   * Return the image popped from the undo or redo history to become the model, decompressed if it
+   * was compressed by freeze.
+   *
+   * @param image the image popped from the history.
+   * @return the image to use as the model.
+   */
+  private Image thaw(Image image) {
+    Image thawed = FrozenImage.thaw(image);
+    if (thawed != image) {
+      produced.add(thawed);
+      thawedFrom.put(thawed, image);
+    }
+    return thawed;
+  }
+
+  /**
+   * Read the values of a matrix following a command. Values may be separated by spaces or commas
+   * and enclosed in brackets, e.g. [0.1, 0.2, 0.3] or [0.1 0.2 0.3].
+   *
+   * @param scan    scanner positioned right before the values.
+   * @param count   number of values to read.
+   * @param command name of the command, used in the error message.
+   * @return the values read.
+   * @throws IllegalArgumentException if there are not enough values or if a value is not a
+   *                                  number.
+   */
+  private double[] readValues(Scanner scan, int count, String command)
+          throws IllegalArgumentException {
+    if (count < 1) {
+      throw new IllegalArgumentException("Size following '" + command + "' must be positive");
+    }
+    double[] values = new double[count];
+    int read = 0;
+    while (read < count) {
+      if (!scan.hasNext()) {
+        throw new IllegalArgumentException("'" + command + "' must follow by " + count
+                + " values");
+      }
+      for (String part : scan.next().replace("[", "").replace("]", "").split(",")) {
+        if (part.isEmpty()) {
+          continue;
+        }
+        if (read == count) {
+          throw new IllegalArgumentException("'" + command + "' must follow by " + count
+                  + " values");
+        }
+        try {
+          values[read++] = Double.parseDouble(part);
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("'" + part + "' is not a number in '" + command
+                  + "'");
+        }
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Read the optional resampling filter following a resize or scale command.
+   *
+   * @param scan scanner positioned right after the size or the factor.
+   * @return the filter named by the next token, or LANCZOS if the next token is not the name of a
+   *         filter.
+   */
+  private ResampleFilter readResampleFilter(Scanner scan) {
+    if (scan.hasNext("(?i)nearest|bilinear|bicubic|lanczos")) {
+      return ResampleFilter.fromName(scan.next());
+    }
+    return ResampleFilter.LANCZOS;
+  }
+
+  /**
+   * Read the optional gradient operator following an edges or gradient command.
+   *
+   * @param scan scanner positioned right after the command.
+   * @return the operator named by the next token, or SOBEL if the next token is not the name of an
+   *         operator.
+   */
+  private GradientOperator readGradientOperator(Scanner scan) {
+    if (scan.hasNext("(?i)prewitt|sobel|scharr")) {
+      return GradientOperator.fromName(scan.next());
+    }
+    return GradientOperator.SOBEL;
+  }
+
+  /**
+   * Read the optional region following an operation, written @x,y,width,height.
+   *
+   * @param scan scanner positioned right after the operation and its arguments.
+   * @return the region, or null if the next token does not start with '@'.
+   * @throws IllegalArgumentException if the region is not written @x,y,width,height.
+   */
+  private Region readRegion(Scanner scan) throws IllegalArgumentException {
+    if (scan.hasNext("@.*")) {
+      return Region.parse(scan.next());
+    }
+    return null;
+  }
+
+  /**
+   * Return the result of an operation on the whole image, from the result cache if possible, or on
+   * a region of it only. An operation on a region is not cached: looking it up would hash and
+   * freeze the whole image, which costs far more than computing the region and its halo.
+   *
+   * @param image      the image.
+   * @param region     the region the operation is restricted to, or null for the whole image.
+   * @param halo       number of pixels around the region the operation reads.
+   * @param descriptor canonical description of the operation on the whole image.
+   * @param operation  the operation.
+   * @return the result of the operation.
+   * @throws IllegalArgumentException if the region is not inside the image or if the operation
+   *                                  fails.
+   */
+  private Image applyCached(Image image, Region region, int halo, String descriptor,
+                            UnaryOperator<Image> operation) throws IllegalArgumentException {
+    if (region == null) {
+      return resultCache.apply(image, descriptor, operation);
+    }
+    return image.applyToRegion(region, halo, operation);
+  }
+
+  /**
+   * Read the blocks following a branch command, each of them enclosed in braces. Blocks may
+   * contain branch commands of their own.
+   *
+   * @param scan scanner positioned right after the branch command.
+   * @return the commands of every block, one string per block.
+   * @throws IllegalArgumentException if no block follows or if a block is not closed.
+   */
+  private List<String> readBranches(Scanner scan) throws IllegalArgumentException {
+    List<String> blocks = new ArrayList<>();
+    while (scan.hasNext("\\{")) {
+      scan.next();
+      StringBuilder block = new StringBuilder();
+      int depth = 1;
+      while (depth > 0) {
+        if (!scan.hasNext()) {
+          throw new IllegalArgumentException("Branch block must be closed by '}'");
+        }
+        String token = scan.next();
+        if (token.equals("{")) {
+          depth++;
+        } else if (token.equals("}")) {
+          depth--;
+        }
+        if (depth > 0) {
+          block.append(token).append(' ');
+        }
+      }
+      blocks.add(block.toString());
+    }
+    if (blocks.isEmpty()) {
+      throw new IllegalArgumentException("Branch must follow by blocks of commands in braces, "
+              + "e.g. branch { blur; save a.png } { sepia; save b.png }");
+    }
+    return blocks;
+  }
+
+  /**
+   * Run every block of commands in parallel on the ForkJoinPool, each of them starting from the
+   * current model which is shared without copy since images are immutable. Every block runs in a
+   * controller of its own sharing the caches of this one, and this method returns once all of
+   * them are done. The model is left unchanged: the branches only produce their saved files, and
+   * their measurements are added to the ScriptMetrics of this controller.
+   *
+   * @param blocks the commands of every block.
+   * @throws IllegalArgumentException if the commands of a block are not valid format of the
+   *                                  batch-scrip.
+   */
+  private void runBranches(List<String> blocks) throws IllegalArgumentException {
+    List<BranchTask> tasks = new ArrayList<>();
+    for (String block : blocks) {
+      tasks.add(new BranchTask(new Controller(model, resultCache, decodedImages), block));
+    }
+    if (ForkJoinTask.inForkJoinPool()) {
+      ForkJoinTask.invokeAll(tasks);
+    } else {
+      ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          invokeAll(tasks);
+        }
+      });
+    }
+    for (BranchTask task : tasks) {
+      scriptMetrics.addAll(task.join());
+    }
+  }
+
+  /**
+   * This class represents one block of a branch command running in a controller of its own.
+   */
+  private static class BranchTask extends RecursiveTask<ScriptMetrics> {
+    private static final long serialVersionUID = 1L;
+
+    private final Controller controller;
+    private final String block;
+
+    /**
+     * Constructor of a BranchTask.
+     *
+     * @param controller the controller running the block.
+     * @param block      the commands of the block.
+     */
+    BranchTask(Controller controller, String block) {
+      this.controller = controller;
+      this.block = block;
+    }
+
+    @Override
+    protected ScriptMetrics compute() {
+      ScriptMetrics previous = controller.scriptMetrics.bind();
+      try {
+        controller.runCommands(new Scanner(block));
+        //the last image of the block is not used by anyone once the block is done.
+        Image last = controller.model;
+        controller.model = null;
+        controller.retire(last);
+      } finally {
+        ScriptMetrics.restore(previous);
       }
+      return controller.scriptMetrics;
     }
   }
 
+  /**
+   * Return the blurred image, from the result cache if possible.
+   *
+   * @param image the image to blur.
+   * @return the blurred image.
+   */
+  private Image blur(Image image) {
+    return resultCache.apply(image, "filter " + Filter.BLUR, Image::blur);
+  }
+
+  /**
+   * Return the sharpened image, from the result cache if possible.
+   *
+   * @param image the image to sharpen.
+   * @return the sharpened image.
+   */
+  private Image sharpen(Image image) {
+    return resultCache.apply(image, "filter " + Filter.SHARPEN, Image::sharpen);
+  }
+
+  /**
+   * Return the greyscale image, from the result cache if possible.
+   *
+   * @param image the image to convert.
+   * @return the greyscale image.
+   */
+  private Image greyscale(Image image) {
+    return resultCache.apply(image, "color " + ColorConverter.GREYSCALE, Image::greyscale);
+  }
+
+  /**
+   * Return the sepia tone image, from the result cache if possible.
+   *
+   * @param image the image to convert.
+   * @return the sepia tone image.
+   */
+  private Image sepia(Image image) {
+    return resultCache.apply(image, "color " + ColorConverter.SEPIA, Image::sepia);
+  }
+
+  /**
+   * Return the dithered image, from the result cache if possible.
+   *
+   * @param image the image to dither.
+   * @return the dithered image.
+   */
+  private Image dithering(Image image) {
+    return resultCache.apply(image, "dithering " + ColorConverter.GREYSCALE,
+            Image::applyDithering);
+  }
+
   @Override
   public void saveScrip() {
     if (view == null) {
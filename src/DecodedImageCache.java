@@ -0,0 +1,57 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This class represents a cache of decoded image files. An entry is found by the canonical path of
+ * the file together with its modification time and its length, so a file changed on disk is
+ * decoded again. Entries are evicted least recently used first once their estimated size goes over
+ * the budget.
+ *
+ * <p>Images are never modified after they are created, so the cached Image object itself is
+ * handed back to every caller without any copy. Files with transparent pixels are decoded as
+ * RgbaImage and files of more than 8 bits per channel as PreciseImage; the others are stored as
+ * TiledImage when the system property "imager.storage" is "tiled" or "checked".
+ */
+public class DecodedImageCache {
+  /**
+   * Default budget of the cache, in bytes.
+   */
+  public static final long DEFAULT_BUDGET = 512L * 1024 * 1024;
+
+  private final LruCache<String, Image> images;
+
+  /**
+   * Constructor of a DecodedImageCache with the given budget.
+   *
+   * @param budget maximum estimated size in bytes of the decoded images kept.
+   * @throws IllegalArgumentException if budget is negative.
+   */
+  public DecodedImageCache(long budget) throws IllegalArgumentException {
+    this.images = new LruCache<>(budget, ResultCache::estimateBytes);
+  }
+
+  /**
+   * Return the decoded image of the file, from the cache if the same version of the file was
+   * already decoded.
+   *
+   * @param filename path and name of the image file.
+   * @return the decoded image, shared with every other caller loading the same file.
+   * @throws IOException if the file can not be read or decoded.
+   */
+  public Image load(String filename) throws IOException {
+    File file = new File(filename);
+    if (!file.isFile()) {
+      throw new IOException("File not found: " + filename);
+    }
+    String key = file.getCanonicalPath() + "|" + file.lastModified() + "|" + file.length();
+    Image image = images.get(key);
+    if (image == null) {
+      image = ImageUtil.readImageWithAlpha(filename);
+      if (TiledImage.isDefaultStorage() && image instanceof ImageImpl) {
+        image = TiledImage.of(image);
+      }
+      images.put(key, image);
+    }
+    return image;
+  }
+}
@@ -1,3 +1,4 @@
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -5,7 +6,9 @@ import java.nio.file.Paths;
 /**
  * Driver to run the image processing program. Run it by typing "java -jar ProgramName.jar -script
  * path-of-script-file" to execute batch-scrip file, or run it by typing "java -jar ProgramName.jar
- * -interactive" into the terminal to open the User Interface.
+ * -interactive" into the terminal to open the User Interface. Add "-profile" after the script file
+ * to print the time and memory spent by each command of the script, and "-cache directory" to keep
+ * the results of deterministic operations in that directory between runs.
  */
 public class DriverFinal {
   /**
@@ -15,12 +18,26 @@ public class DriverFinal {
    */
   public static void main(String[] arg) {
     Image model = new ImageImpl();
-    Controller c = new Controller(model);
+    boolean profile = false;
+    File cacheDirectory = null;
+    for (int i = arg[0].equals("-script") ? 2 : 1; i < arg.length; i++) {
+      if (arg[i].equals("-profile")) {
+        profile = true;
+      } else if (arg[i].equals("-cache") && i + 1 < arg.length) {
+        cacheDirectory = new File(arg[++i]);
+      }
+      //any other argument is ignored, as it always was.
+    }
+    Controller c = new Controller(model,
+            new ResultCache(ResultCache.DEFAULT_MEMORY_BUDGET, cacheDirectory));
     if (arg[0].equals("-script")) {
       String content;
       try {
         content = new String(Files.readAllBytes(Paths.get(arg[1])));
         c.processFile(content);
+        if (profile) {
+          System.out.print(c.getScriptReport());
+        }
       } catch (IOException e) {
         e.printStackTrace();
       }
@@ -0,0 +1,384 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * This class contains the convolution of an image with a large filter matrix through the fast
+ * Fourier transform. The direct convolution costs (filter size)^2 operations per pixel, this one
+ * about log(image size), so it is used instead for filters of at least threshold() rows.
+ *
+ * <p>The image is convolved block by block (overlap-save): every block of the result is the part
+ * without wrap-around of the cyclic convolution of a window of the image, a power of two of about
+ * BLOCK_SIZE pixels wide which overlaps its neighbours by the filter size, with the filter. The
+ * memory used is therefore a few windows whatever the size of the image, and the transform of the
+ * filter is computed once for all the blocks. Pixels outside of the image count as 0, which gives
+ * the same result as the direct path up to floating point rounding. The red and green channels are
+ * transformed together as the real and imaginary parts of one complex window, since the filter is
+ * real.
+ */
+final class FftConvolver {
+
+  /**
+   * Default smallest filter size using the FFT. Measured with calibrate on one core: the FFT is
+   * faster from 27x27 filters on 512x512 images and from 25x25 filters on 1024x1024 images.
+   */
+  static final int DEFAULT_THRESHOLD = 25;
+
+  private static final int THRESHOLD = Integer.getInteger("imager.fft.threshold",
+          DEFAULT_THRESHOLD);
+
+  /**
+   * Side of the windows transformed, unless the filter or the image is smaller: a window of 512 *
+   * 512 pixels takes 4 MB per complex array.
+   */
+  private static final int BLOCK_SIZE = 512;
+
+  /**
+   * This class only contains static methods.
+   */
+  private FftConvolver() {
+  }
+
+  /**
+   * Return the smallest filter size from which the FFT is used, DEFAULT_THRESHOLD unless the
+   * system property "imager.fft.threshold" says otherwise.
+   *
+   * @return the smallest filter size from which the FFT is used.
+   */
+  static int threshold() {
+    return THRESHOLD;
+  }
+
+  /**
+   * Write into dst the image convolved with the filter matrix, computed with the FFT block by
+   * block. Pixels outside of the image count as 0, then every result is rounded and clamped
+   * between 0 and 255. Blocks are computed in parallel, each by one task.
+   *
+   * @param data   the image as a 3D array of [r, g, b].
+   * @param filter a square filter matrix with odd dimension.
+   * @param dst    the destination, an array of the same size as data.
+   * @throws IllegalArgumentException if dst does not have the size of data.
+   */
+  static void convolve(int[][][] data, double[][] filter, int[][][] dst)
+          throws IllegalArgumentException {
+    PlanarKernels.checkSize(data, dst);
+    int height = data.length;
+    int width = data[0].length;
+    int size = filter.length;
+    int half = size / 2;
+    int rows = windowSize(height, size);
+    int columns = windowSize(width, size);
+    //the rows and columns of the result given by one window.
+    int blockHeight = rows - size + 1;
+    int blockWidth = columns - size + 1;
+    int blocksDown = (height + blockHeight - 1) / blockHeight;
+    int blocksAcross = (width + blockWidth - 1) / blockWidth;
+    int blocks = blocksDown * blocksAcross;
+    //a single window is transformed in parallel, otherwise every window by one task.
+    Transform transform = new Transform(rows, columns, blocks == 1);
+
+    //the direct path correlates, which is a convolution with the filter flipped both ways.
+    double[] kernelRe = new double[rows * columns];
+    double[] kernelIm = new double[rows * columns];
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        kernelRe[i * columns + j] = filter[size - 1 - i][size - 1 - j];
+      }
+    }
+    transform.forward(kernelRe, kernelIm, size);
+
+    double scale = 1.0 / ((double) rows * columns);
+    IntStream.range(0, blocks).parallel().forEach(block -> {
+      int top = block / blocksAcross * blockHeight;
+      int left = block % blocksAcross * blockWidth;
+      int outputRows = Math.min(blockHeight, height - top);
+      int outputColumns = Math.min(blockWidth, width - left);
+      //window row i holds image row top - half + i, or zeros outside of the image.
+      int firstRow = Math.max(0, top - half);
+      int lastRow = Math.min(height, top - half + rows);
+      int firstColumn = Math.max(0, left - half);
+      int lastColumn = Math.min(width, left - half + columns);
+      double[] re = new double[rows * columns];
+      double[] im = new double[rows * columns];
+      for (int pass = 0; pass < 2; pass++) {
+        if (pass == 1) {
+          Arrays.fill(re, 0);
+          Arrays.fill(im, 0);
+        }
+        for (int r = firstRow; r < lastRow; r++) {
+          int rowStart = (r - top + half) * columns - left + half;
+          for (int c = firstColumn; c < lastColumn; c++) {
+            re[rowStart + c] = data[r][c][pass == 0 ? 0 : 2];
+            if (pass == 0) {
+              im[rowStart + c] = data[r][c][1];
+            }
+          }
+        }
+        transform.forward(re, im, lastRow - top + half);
+        for (int p = 0; p < re.length; p++) {
+          double a = re[p];
+          double b = im[p];
+          re[p] = a * kernelRe[p] - b * kernelIm[p];
+          im[p] = a * kernelIm[p] + b * kernelRe[p];
+        }
+        //result row top + i is window row size - 1 + i, which did not wrap around.
+        transform.inverse(re, im, size - 1, outputRows);
+        for (int i = 0; i < outputRows; i++) {
+          int rowStart = (size - 1 + i) * columns + size - 1;
+          int[][] target = dst[top + i];
+          for (int j = 0; j < outputColumns; j++) {
+            if (pass == 0) {
+              target[left + j][0] = clamp(re[rowStart + j] * scale);
+              target[left + j][1] = clamp(im[rowStart + j] * scale);
+            } else {
+              target[left + j][2] = clamp(re[rowStart + j] * scale);
+            }
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Return the side of the windows along one dimension of the image: BLOCK_SIZE, or the power of
+   * two holding the filter twice if it is larger, but no more than the power of two holding the
+   * whole image and the filter.
+   *
+   * @param length number of rows or columns of the image.
+   * @param size   size of the filter.
+   * @return the number of rows or columns of a window, a power of two.
+   */
+  private static int windowSize(int length, int size) {
+    int block = Math.max(BLOCK_SIZE, Integer.highestOneBit(2 * size - 1) << 1);
+    int whole = Math.max(1, Integer.highestOneBit(length + size - 2) << 1);
+    return Math.min(block, whole);
+  }
+
+  /**
+   * Measure the direct and the FFT convolution on a random image of the given size, and return
+   * the smallest odd filter size, up to 63, for which the FFT is faster. Used to choose
+   * DEFAULT_THRESHOLD; the result depends on the machine and on the image size.
+   *
+   * @param height height of the test image.
+   * @param width  width of the test image.
+   * @return the smallest odd filter size for which the FFT is faster, or 65 if it never is.
+   */
+  static int calibrate(int height, int width) {
+    Random random = new Random(0);
+    int[][][] data = new int[height][width][3];
+    for (int[][] row : data) {
+      for (int[] pixel : row) {
+        for (int i = 0; i < 3; i++) {
+          pixel[i] = random.nextInt(256);
+        }
+      }
+    }
+    int[][][] result = new int[height][width][3];
+    for (int size = 3; size <= 63; size += 2) {
+      double[][] filter = new double[size][size];
+      for (double[] row : filter) {
+        Arrays.fill(row, 1.0 / (size * size));
+      }
+      long direct = Long.MAX_VALUE;
+      long fft = Long.MAX_VALUE;
+      //best of three runs of each, after a first run to warm up the JIT.
+      for (int run = 0; run < 4; run++) {
+        long start = System.nanoTime();
+        PlanarKernels.convolve(data, filter, false, result);
+        long middle = System.nanoTime();
+        convolve(data, filter, result);
+        long end = System.nanoTime();
+        if (run > 0) {
+          direct = Math.min(direct, middle - start);
+          fft = Math.min(fft, end - middle);
+        }
+      }
+      if (fft < direct) {
+        return size;
+      }
+    }
+    return 65;
+  }
+
+  /**
+   * This class represents the 2D fast Fourier transform of a fixed size, with its precomputed
+   * tables. Rows are transformed, then bands of columns, each of them in parallel if asked for.
+   */
+  private static final class Transform {
+    private static final int COLUMN_BAND = 16;
+
+    private final int rows;
+    private final int columns;
+    private final boolean parallel;
+    private final Table rowTable;
+    private final Table columnTable;
+
+    /**
+     * Constructor of a Transform of the given size.
+     *
+     * @param rows     number of rows, a power of two.
+     * @param columns  number of columns, a power of two.
+     * @param parallel true to transform rows and bands of columns in parallel.
+     */
+    Transform(int rows, int columns, boolean parallel) {
+      this.rows = rows;
+      this.columns = columns;
+      this.parallel = parallel;
+      this.rowTable = new Table(columns);
+      this.columnTable = rows == columns ? rowTable : new Table(rows);
+    }
+
+    /**
+     * Return the stream of the given range, parallel if this transform is.
+     *
+     * @param from first value.
+     * @param to   value after the last one.
+     * @return the stream of the values from from to to.
+     */
+    private IntStream range(int from, int to) {
+      IntStream range = IntStream.range(from, to);
+      return parallel ? range.parallel() : range;
+    }
+
+    /**
+     * Transform the row-major complex array in place. Rows from usedRows on must be zero, their
+     * transform is skipped.
+     *
+     * @param re       real parts.
+     * @param im       imaginary parts.
+     * @param usedRows number of rows which may not be zero.
+     */
+    void forward(double[] re, double[] im, int usedRows) {
+      range(0, usedRows).forEach(r -> rowTable.fft(re, im, r * columns, false));
+      transformColumns(re, im, false);
+    }
+
+    /**
+     * Inverse transform the row-major complex array in place, without the 1 / (rows * columns)
+     * scaling. Only the rows from firstRow to firstRow + rowCount are completed.
+     *
+     * @param re       real parts.
+     * @param im       imaginary parts.
+     * @param firstRow first row needed.
+     * @param rowCount number of rows needed.
+     */
+    void inverse(double[] re, double[] im, int firstRow, int rowCount) {
+      transformColumns(re, im, true);
+      range(firstRow, firstRow + rowCount).forEach(r -> rowTable.fft(re, im, r * columns, true));
+    }
+
+    /**
+     * Transform every column of the row-major complex array in place. Each task copies a band of
+     * columns into contiguous arrays, transforms them and copies them back.
+     *
+     * @param re      real parts.
+     * @param im      imaginary parts.
+     * @param inverse true for the inverse transform.
+     */
+    private void transformColumns(double[] re, double[] im, boolean inverse) {
+      int bands = (columns + COLUMN_BAND - 1) / COLUMN_BAND;
+      range(0, bands).forEach(band -> {
+        int left = band * COLUMN_BAND;
+        int count = Math.min(COLUMN_BAND, columns - left);
+        double[] columnRe = new double[count * rows];
+        double[] columnIm = new double[count * rows];
+        for (int r = 0; r < rows; r++) {
+          for (int i = 0; i < count; i++) {
+            columnRe[i * rows + r] = re[r * columns + left + i];
+            columnIm[i * rows + r] = im[r * columns + left + i];
+          }
+        }
+        for (int i = 0; i < count; i++) {
+          columnTable.fft(columnRe, columnIm, i * rows, inverse);
+        }
+        for (int r = 0; r < rows; r++) {
+          for (int i = 0; i < count; i++) {
+            re[r * columns + left + i] = columnRe[i * rows + r];
+            im[r * columns + left + i] = columnIm[i * rows + r];
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * This class represents the precomputed twiddle factors and bit reversal of a 1D radix-2 FFT.
+   */
+  private static final class Table {
+    private final int length;
+    private final double[] cos;
+    private final double[] sin;
+    private final int[] reversed;
+
+    /**
+     * Constructor of a Table for transforms of the given length.
+     *
+     * @param length length of the transforms, a power of two.
+     */
+    Table(int length) {
+      this.length = length;
+      this.cos = new double[length / 2];
+      this.sin = new double[length / 2];
+      for (int k = 0; k < length / 2; k++) {
+        cos[k] = Math.cos(2 * Math.PI * k / length);
+        sin[k] = Math.sin(2 * Math.PI * k / length);
+      }
+      this.reversed = new int[length];
+      int bits = Integer.numberOfTrailingZeros(length);
+      for (int i = 0; i < length; i++) {
+        reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+      }
+    }
+
+    /**
+     * Transform in place the length complex values starting at offset.
+     *
+     * @param re      real parts.
+     * @param im      imaginary parts.
+     * @param offset  index of the first value.
+     * @param inverse true for the inverse transform (without scaling).
+     */
+    void fft(double[] re, double[] im, int offset, boolean inverse) {
+      for (int i = 0; i < length; i++) {
+        int j = reversed[i];
+        if (j > i) {
+          double t = re[offset + i];
+          re[offset + i] = re[offset + j];
+          re[offset + j] = t;
+          t = im[offset + i];
+          im[offset + i] = im[offset + j];
+          im[offset + j] = t;
+        }
+      }
+      double sign = inverse ? 1 : -1;
+      for (int span = 2; span <= length; span <<= 1) {
+        int half = span / 2;
+        int step = length / span;
+        for (int start = offset; start < offset + length; start += span) {
+          for (int k = 0; k < half; k++) {
+            double wr = cos[k * step];
+            double wi = sign * sin[k * step];
+            int a = start + k;
+            int b = a + half;
+            double tr = wr * re[b] - wi * im[b];
+            double ti = wr * im[b] + wi * re[b];
+            re[b] = re[a] - tr;
+            im[b] = im[a] - ti;
+            re[a] += tr;
+            im[a] += ti;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Round the value and clamp it between 0 and 255.
+   *
+   * @param value the value.
+   * @return the value rounded and clamped between 0 and 255.
+   */
+  private static int clamp(double value) {
+    return Math.min(Math.max((int) Math.round(value), 0), 255);
+  }
+}
@@ -1,3 +1,5 @@
+import java.util.Arrays;
+
 /**
  * This class represent Filter of image. Filter is a matrix which can blur and sharpen the image.
  */
@@ -66,4 +68,15 @@ public class Filter {
     }
     return true;
   }
+
+  /**
+   * Return a canonical description of this Filter: its size followed by every value of its
+   * matrix. Two Filters with the same description give the same result on the same image.
+   *
+   * @return a canonical description of this Filter.
+   */
+  @Override
+  public String toString() {
+    return "Filter " + matrix.length + "x" + matrix[0].length + " " + Arrays.deepToString(matrix);
+  }
 }
@@ -0,0 +1,465 @@
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * This class represents an Image compressed without loss, for images which are kept but not worked
+ * on: the entries of the undo and redo history which are not the current image, and the results
+ * kept by a ResultCache. The image is cut into tiles of TILE_SIZE * TILE_SIZE pixels and every
+ * tile is stored with the smallest of these encodings:
+ *
+ * <ul>
+ *   <li>a palette of its colors with an index of 0, 1, 2, 4 or 8 bits per pixel, when it has at
+ *   most 256 colors. A tile of one color (a flag stripe) only stores that color, and the black and
+ *   white tiles of a dithered image use 1 bit per pixel;</li>
+ *   <li>runs of pixels of the same color, row after row, for large areas of a few colors such as
+ *   a checkerboard or a flag;</li>
+ *   <li>the colors packed into one int per pixel, for photographs.</li>
+ * </ul>
+ *
+ * <p>Synthetic images shrink 50 to 100 times and more, and a photograph still takes 4 bytes per
+ * pixel instead of the 36 of an ImageImpl. Single pixels are decoded in place, whole images tile by
+ * tile in parallel.
+ */
+public final class FrozenImage extends AbstractImage {
+  /**
+   * Width and height of a tile in pixels.
+   */
+  static final int TILE_SIZE = 64;
+
+  private final int height;
+  private final int width;
+  private final int tilesAcross;
+  private final Tile[] tiles;
+
+  /**
+   * Constructor of a FrozenImage from its encoded tiles.
+   *
+   * @param height height of the image.
+   * @param width  width of the image.
+   * @param tiles  the tiles, row by row.
+   */
+  private FrozenImage(int height, int width, Tile[] tiles) {
+    this.height = height;
+    this.width = width;
+    this.tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+    this.tiles = tiles;
+  }
+
+  /**
+   * Return the image compressed, the image itself if it already is. Tiles are encoded in
+   * parallel.
+   *
+   * @param image an image with at least one pixel.
+   * @return a FrozenImage holding the same pixels.
+   * @throws IllegalArgumentException if the image has no pixel.
+   */
+  public static FrozenImage of(Image image) throws IllegalArgumentException {
+    if (image instanceof FrozenImage) {
+      return (FrozenImage) image;
+    }
+    int height = image.getHeight();
+    int width = image.getWidth();
+    if (height < 1 || width < 1) {
+      throw new IllegalArgumentException("A frozen image needs at least one pixel.");
+    }
+    int[][][] data = image instanceof ImageImpl ? ((ImageImpl) image).pixels() : null;
+    int tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+    int tilesDown = (height + TILE_SIZE - 1) / TILE_SIZE;
+    Tile[] tiles = new Tile[tilesAcross * tilesDown];
+    IntStream.range(0, tiles.length).parallel().forEach(index -> {
+      int top = index / tilesAcross * TILE_SIZE;
+      int left = index % tilesAcross * TILE_SIZE;
+      int rows = Math.min(TILE_SIZE, height - top);
+      int columns = Math.min(TILE_SIZE, width - left);
+      int[] colors = new int[rows * columns];
+      for (int r = 0; r < rows; r++) {
+        for (int c = 0; c < columns; c++) {
+          int[] pixel = data == null ? null : data[top + r][left + c];
+          colors[r * columns + c] = pixel == null ? image.getRGB(top + r, left + c)
+                  : (pixel[0] << 16) | (pixel[1] << 8) | pixel[2];
+        }
+      }
+      tiles[index] = encode(colors);
+    });
+    return new FrozenImage(height, width, tiles);
+  }
+
+  /**
+   * Return the form in which an image is kept while it is not worked on: compressed as a
+   * FrozenImage, except for images without pixels, BilevelImage and IndexedImage, which are
+   * already compact, TiledImage, whose tiles are already shared with the images they were made
+   * from, and RgbaImage and PreciseImage, whose alpha or precision a FrozenImage does not hold.
+   *
+   * @param image the image.
+   * @return the image to keep in its place.
+   */
+  static Image freeze(Image image) {
+    return isKeptAsIs(image) ? image : of(image);
+  }
+
+  /**
+   * Return true if an image is kept as it is by freeze.
+   *
+   * @param image the image.
+   * @return true if freeze returns the image itself.
+   */
+  static boolean isKeptAsIs(Image image) {
+    return image instanceof FrozenImage || image instanceof TiledImage
+            || image instanceof BilevelImage || image instanceof IndexedImage
+            || image instanceof RgbaImage || image instanceof PreciseImage
+            || image.getWidth() == 0 || image.getHeight() == 0;
+  }
+
+  /**
+   * Return the form in which an image is worked on: a FrozenImage is decompressed into a new
+   * ImageImpl, any other image is returned as it is.
+   *
+   * @param image the image.
+   * @return the image to work on in its place.
+   */
+  static Image thaw(Image image) {
+    if (image instanceof FrozenImage) {
+      return ((FrozenImage) image).thaw();
+    }
+    return image;
+  }
+
+  /**
+   * Return the pixels decompressed into a new ImageImpl, whose buffer comes from the
+   * PixelBufferPool. Tiles are decoded in parallel.
+   *
+   * @return a new ImageImpl holding the same pixels.
+   */
+  public ImageImpl thaw() {
+    int[][][] data = PixelBufferPool.shared().acquire(height, width);
+    decodeInto(data);
+    return new ImageImpl(data);
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getRGB(int row, int column) {
+    int top = row - row % TILE_SIZE;
+    int left = column - column % TILE_SIZE;
+    int columns = Math.min(TILE_SIZE, width - left);
+    return tiles[top / TILE_SIZE * tilesAcross + left / TILE_SIZE]
+            .get((row - top) * columns + column - left);
+  }
+
+  @Override
+  public int[][][] getData() {
+    int[][][] result = new int[height][width][3];
+    decodeInto(result);
+    return result;
+  }
+
+  @Override
+  public BufferedImage getBufferImage() {
+    int[] packed = new int[height * width];
+    IntStream.range(0, tiles.length).parallel().forEach(index -> {
+      int top = index / tilesAcross * TILE_SIZE;
+      int left = index % tilesAcross * TILE_SIZE;
+      int rows = Math.min(TILE_SIZE, height - top);
+      int columns = Math.min(TILE_SIZE, width - left);
+      int[] colors = new int[rows * columns];
+      tiles[index].decode(colors);
+      for (int r = 0; r < rows; r++) {
+        System.arraycopy(colors, r * columns, packed, (top + r) * width + left, columns);
+      }
+    });
+    BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    output.setRGB(0, 0, width, height, packed, 0, width);
+    return output;
+  }
+
+  /**
+   * Return an estimate of the memory used by this image, in bytes.
+   *
+   * @return an estimate of the memory used by this image, in bytes.
+   */
+  long estimateBytes() {
+    long bytes = 64;
+    for (Tile tile : tiles) {
+      bytes += tile.estimateBytes();
+    }
+    return bytes;
+  }
+
+  /**
+   * Write the pixels into data, tile by tile in parallel.
+   *
+   * @param data a 3D array of [r, g, b] of the size of the image.
+   */
+  private void decodeInto(int[][][] data) {
+    IntStream.range(0, tiles.length).parallel().forEach(index -> {
+      int top = index / tilesAcross * TILE_SIZE;
+      int left = index % tilesAcross * TILE_SIZE;
+      int rows = Math.min(TILE_SIZE, height - top);
+      int columns = Math.min(TILE_SIZE, width - left);
+      int[] colors = new int[rows * columns];
+      tiles[index].decode(colors);
+      for (int r = 0; r < rows; r++) {
+        int[][] row = data[top + r];
+        for (int c = 0; c < columns; c++) {
+          int color = colors[r * columns + c];
+          int[] pixel = row[left + c];
+          pixel[0] = (color >> 16) & 0xFF;
+          pixel[1] = (color >> 8) & 0xFF;
+          pixel[2] = color & 0xFF;
+        }
+      }
+    });
+  }
+
+  /**
+   * Return the smallest encoding of the colors of a tile.
+   *
+   * @param colors the colors of the tile packed as 0xRRGGBB, row by row.
+   * @return the encoded tile.
+   */
+  private static Tile encode(int[] colors) {
+    Tile best = new RawTile(colors);
+    int runs = 1;
+    for (int i = 1; i < colors.length; i++) {
+      if (colors[i] != colors[i - 1]) {
+        runs++;
+      }
+    }
+    if (RunTile.estimateBytes(runs) < best.estimateBytes()) {
+      best = new RunTile(colors, runs);
+    }
+    PaletteTile palette = PaletteTile.encode(colors);
+    if (palette != null && palette.estimateBytes() < best.estimateBytes()) {
+      best = palette;
+    }
+    return best;
+  }
+
+  /**
+   * This interface represents the encoded colors of a tile.
+   */
+  private interface Tile {
+    /**
+     * Return the color of a pixel of the tile.
+     *
+     * @param index index of the pixel in the tile, row by row.
+     * @return the color packed as 0xRRGGBB.
+     */
+    int get(int index);
+
+    /**
+     * Write the colors of every pixel of the tile.
+     *
+     * @param target the array receiving the colors packed as 0xRRGGBB, row by row.
+     */
+    void decode(int[] target);
+
+    /**
+     * Return an estimate of the memory used by the tile, in bytes.
+     *
+     * @return an estimate of the memory used by the tile, in bytes.
+     */
+    long estimateBytes();
+  }
+
+  /**
+   * This class represents a tile stored as one int per pixel.
+   */
+  private static final class RawTile implements Tile {
+    private final int[] colors;
+
+    /**
+     * Constructor of a RawTile.
+     *
+     * @param colors the colors of the tile, row by row, which must not be modified afterwards.
+     */
+    RawTile(int[] colors) {
+      this.colors = colors;
+    }
+
+    @Override
+    public int get(int index) {
+      return colors[index];
+    }
+
+    @Override
+    public void decode(int[] target) {
+      System.arraycopy(colors, 0, target, 0, colors.length);
+    }
+
+    @Override
+    public long estimateBytes() {
+      return 32 + 4L * colors.length;
+    }
+  }
+
+  /**
+   * This class represents a tile stored as runs of pixels of the same color: the color of every
+   * run and the index after its last pixel.
+   */
+  private static final class RunTile implements Tile {
+    private final int[] colors;
+    private final char[] ends;
+
+    /**
+     * Constructor of the RunTile of the colors of a tile.
+     *
+     * @param colors the colors of the tile, row by row, at most 65536 of them.
+     * @param runs   the number of runs of the same color.
+     */
+    RunTile(int[] colors, int runs) {
+      this.colors = new int[runs];
+      this.ends = new char[runs];
+      int run = 0;
+      for (int i = 1; i <= colors.length; i++) {
+        if (i == colors.length || colors[i] != colors[i - 1]) {
+          this.colors[run] = colors[i - 1];
+          this.ends[run] = (char) i;
+          run++;
+        }
+      }
+    }
+
+    /**
+     * Return an estimate of the memory used by a RunTile of the given number of runs, in bytes.
+     *
+     * @param runs the number of runs.
+     * @return an estimate of the memory used, in bytes.
+     */
+    static long estimateBytes(int runs) {
+      return 48 + 6L * runs;
+    }
+
+    @Override
+    public int get(int index) {
+      int low = 0;
+      int high = ends.length - 1;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (ends[middle] > index) {
+          high = middle;
+        } else {
+          low = middle + 1;
+        }
+      }
+      return colors[low];
+    }
+
+    @Override
+    public void decode(int[] target) {
+      int start = 0;
+      for (int run = 0; run < ends.length; run++) {
+        Arrays.fill(target, start, ends[run], colors[run]);
+        start = ends[run];
+      }
+    }
+
+    @Override
+    public long estimateBytes() {
+      return estimateBytes(ends.length);
+    }
+  }
+
+  /**
+   * This class represents a tile of at most 256 colors stored as its palette and the index of the
+   * color of every pixel, packed on 0, 1, 2, 4 or 8 bits into longs.
+   */
+  private static final class PaletteTile implements Tile {
+    private final int[] palette;
+    private final int bits;
+    private final long[] indices;
+
+    /**
+     * Constructor of a PaletteTile.
+     *
+     * @param palette the colors of the tile.
+     * @param bits    number of bits of an index.
+     * @param indices the indices of the colors of every pixel, 64 / bits per long.
+     */
+    private PaletteTile(int[] palette, int bits, long[] indices) {
+      this.palette = palette;
+      this.bits = bits;
+      this.indices = indices;
+    }
+
+    /**
+     * Return the PaletteTile of the colors of a tile, or null if it has more than 256 colors. The
+     * colors are found with a small open addressing hash table, and the search stops at the 257th
+     * color, so a photograph is rejected early.
+     *
+     * @param colors the colors of the tile, row by row.
+     * @return the PaletteTile of the colors, or null if there are more than 256 colors.
+     */
+    static PaletteTile encode(int[] colors) {
+      int[] keys = new int[512];
+      int[] slots = new int[512];
+      Arrays.fill(keys, -1);
+      int[] palette = new int[256];
+      int[] index = new int[colors.length];
+      int count = 0;
+      for (int i = 0; i < colors.length; i++) {
+        int color = colors[i];
+        int slot = (color * 0x9E3779B1) >>> 23;
+        while (keys[slot] != -1 && keys[slot] != color) {
+          slot = (slot + 1) & 511;
+        }
+        if (keys[slot] == -1) {
+          if (count == 256) {
+            return null;
+          }
+          keys[slot] = color;
+          slots[slot] = count;
+          palette[count++] = color;
+        }
+        index[i] = slots[slot];
+      }
+      int bits = count == 1 ? 0 : count <= 2 ? 1 : count <= 4 ? 2 : count <= 16 ? 4 : 8;
+      long[] indices = new long[bits == 0 ? 0 : (colors.length * bits + 63) / 64];
+      if (bits > 0) {
+        int perLong = 64 / bits;
+        for (int i = 0; i < colors.length; i++) {
+          indices[i / perLong] |= (long) index[i] << (i % perLong * bits);
+        }
+      }
+      return new PaletteTile(Arrays.copyOf(palette, count), bits, indices);
+    }
+
+    @Override
+    public int get(int index) {
+      if (bits == 0) {
+        return palette[0];
+      }
+      int perLong = 64 / bits;
+      int mask = (1 << bits) - 1;
+      return palette[(int) (indices[index / perLong] >>> (index % perLong * bits)) & mask];
+    }
+
+    @Override
+    public void decode(int[] target) {
+      if (bits == 0) {
+        Arrays.fill(target, palette[0]);
+        return;
+      }
+      int perLong = 64 / bits;
+      int mask = (1 << bits) - 1;
+      for (int i = 0; i < target.length; i++) {
+        target[i] = palette[(int) (indices[i / perLong] >>> (i % perLong * bits)) & mask];
+      }
+    }
+
+    @Override
+    public long estimateBytes() {
+      return 64 + 4L * palette.length + 8L * indices.length;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * This enum represents the pairs of 3*3 filters estimating the gradient of an image: one filter
+ * for the horizontal derivative, and the same filter transposed for the vertical one. Each filter
+ * is the difference of the two columns (or rows) around the pixel, smoothed across with the given
+ * weights.
+ */
+public enum GradientOperator {
+  /**
+   * Prewitt operator, whose three rows have the same weight.
+   */
+  PREWITT(1, 1),
+  /**
+   * Sobel operator, smoothed by the weights 1 2 1.
+   */
+  SOBEL(1, 2),
+  /**
+   * Scharr operator, smoothed by the weights 3 10 3, whose gradient direction is the most
+   * accurate of the three.
+   */
+  SCHARR(3, 10);
+
+  private final int side;
+  private final int center;
+
+  /**
+   * Constructor of a GradientOperator.
+   *
+   * @param side   weight of the two outer rows of the horizontal derivative.
+   * @param center weight of the center row of the horizontal derivative.
+   */
+  GradientOperator(int side, int center) {
+    this.side = side;
+    this.center = center;
+  }
+
+  /**
+   * Return the horizontal and the vertical derivative filters.
+   *
+   * @return the two 3*3 filters, horizontal first.
+   */
+  int[][][] getKernels() {
+    int[][] horizontal = {{-side, 0, side}, {-center, 0, center}, {-side, 0, side}};
+    int[][] vertical = new int[3][3];
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 3; j++) {
+        vertical[i][j] = horizontal[j][i];
+      }
+    }
+    return new int[][][]{horizontal, vertical};
+  }
+
+  /**
+   * Return the number of pixels on each side of a pixel which its derivatives read.
+   *
+   * @return the half size of the filters.
+   */
+  int getReach() {
+    return getKernels()[0].length / 2;
+  }
+
+  /**
+   * Return the sum of the positive weights of a filter, which is the largest derivative of an
+   * image of values between 0 and 1.
+   *
+   * @return the sum of the positive weights of a filter.
+   */
+  int getScale() {
+    return 2 * side + center;
+  }
+
+  /**
+   * Return the operator of the given name, as written in a batch-scrip ("prewitt", "sobel" or
+   * "scharr").
+   *
+   * @param name the name of the operator, in any case.
+   * @return the operator of the given name.
+   * @throws IllegalArgumentException if no operator has this name.
+   */
+  static GradientOperator fromName(String name) throws IllegalArgumentException {
+    for (GradientOperator operator : values()) {
+      if (operator.name().equalsIgnoreCase(name)) {
+        return operator;
+      }
+    }
+    throw new IllegalArgumentException("Gradient operator must be prewitt, sobel or scharr.");
+  }
+
+  @Override
+  public String toString() {
+    return name().toLowerCase();
+  }
+}
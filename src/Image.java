@@ -1,4 +1,5 @@
 import java.awt.image.BufferedImage;
+import java.util.function.UnaryOperator;
 
 /**
  * This interface represents a image. It contains a 3d Array of int represents the [r, g, b] data of
@@ -40,9 +41,30 @@ public interface Image {
    */
   Image greyscale();
 
+  /**
+   * Method to apply any Filter on an Image. Pixels outside of the image count as 0, then every
+   * result is rounded and clamped between 0 and 255. The filter matrix is analyzed once and
+   * computed by the fastest matching engine.
+   *
+   * @param filter the Filter to apply.
+   * @return a new Image object represents the filtered version of the original object. Return this
+   *          if current data is null.
+   */
+  Image applyFilter(Filter filter);
+
+  /**
+   * Method to apply any ColorConverter on an Image. Every result is rounded and clamped between 0
+   * and 255. The color matrix is analyzed once and computed by the fastest matching engine.
+   *
+   * @param converter the ColorConverter to apply.
+   * @return a new Image object represents the converted version of the original object. Return
+   *          this if current data is null.
+   */
+  Image applyColorConvert(ColorConverter converter);
+
   /**
    * Return a Image object which represents the mosaiced version(stained glass window effect) of the
-   * original Image object.
+   * original Image object, stored as an IndexedImage of one color per cell.
    *
    * @param seed number of seeds, Will be set to the total pixel number of this Image if the input
    *             number is higher than the total pixel number.
@@ -52,15 +74,247 @@ public interface Image {
    */
   Image mosaicing(int seed) throws IllegalArgumentException;
 
+  /**
+   * Return the mosaiced version of this Image with its seeds placed as given. The same random seed
+   * always gives the same mosaic, so that a mosaic can be made again and its result cached.
+   *
+   * @param seed       number of seeds, set to the total pixel number of this Image if it is
+   *                   higher.
+   * @param placement  how the seeds are placed: at random, or spread evenly.
+   * @param randomSeed seed of the random numbers placing the seeds.
+   * @return a Image object which represents the mosaiced version of the original Image object.
+   *          Return this if current data is null.
+   * @throws IllegalArgumentException if the input seed is not positive number.
+   */
+  Image mosaicing(int seed, SeedPlacement placement, long randomSeed)
+          throws IllegalArgumentException;
+
   /**
    * Return a Image object which represents the dithered version(black and white version) of the
-   * original Image object.
+   * original Image object, stored as a BilevelImage of one bit per pixel.
    *
    * @return a Image object which represents the dithered version of the image. Return this if
    *          current data is null.
    */
   Image applyDithering();
 
+  /**
+   * Return a Image object which represents the black and white version of the original Image
+   * object: the pixels whose greyscale level is at least level become white and the others black.
+   * The result is stored as a BilevelImage of one bit per pixel.
+   *
+   * @param level the smallest greyscale level of a white pixel, between 0 and 255.
+   * @return a Image object which represents the threshold of the image. Return this if current
+   *          data is null.
+   * @throws IllegalArgumentException if level is not between 0 and 255.
+   */
+  Image threshold(int level) throws IllegalArgumentException;
+
+  /**
+   * Return a Image object which represents the original Image object reduced to at most the given
+   * number of colors, chosen by median cut and k-means. Every pixel gets the closest of these
+   * colors or, with dithering, the error of every pixel is spread over its neighbours as in
+   * applyDithering. The result is stored as an IndexedImage, written to PNG, GIF and BMP files with
+   * a palette.
+   *
+   * @param colors largest number of colors, between 1 and 256.
+   * @param dither true to spread the error of every pixel over its neighbours.
+   * @return a Image object which represents the quantized image. Return this if current data is
+   *          null.
+   * @throws IllegalArgumentException if colors is not between 1 and 256.
+   */
+  Image quantize(int colors, boolean dither) throws IllegalArgumentException;
+
+  /**
+   * Return the statistics of the colors of the Image object: the histogram and the smallest,
+   * largest and mean value of its red, green and blue channels, counted in parallel.
+   *
+   * @return the statistics of the image, of no pixel if current data is null.
+   */
+  ImageStatistics statistics();
+
+  /**
+   * Return a Image object which represents the original Image object with every channel stretched
+   * linearly so that its smallest value becomes 0 and its largest 255. The values are looked up in
+   * one table per channel built from the statistics of the image.
+   *
+   * @return a Image object which represents the auto-leveled image. Return this if current data
+   *          is null.
+   */
+  Image autoLevels();
+
+  /**
+   * Return a Image object which represents the original Image object with the histogram of every
+   * channel equalized: a value becomes the share of the pixels whose channel is at most that value,
+   * scaled between 0 and 255, which spreads the values evenly. The values are looked up in one
+   * table per channel built from the statistics of the image.
+   *
+   * @return a Image object which represents the equalized image. Return this if current data is
+   *          null.
+   */
+  Image equalize();
+
+  /**
+   * Return a Image object which represents the box blurred version of the original Image object.
+   * Every pixel is replaced by the mean of the square of 2 * radius + 1 pixels centered on it
+   * (only the pixels inside the image are counted near the border). The cost per pixel does not
+   * depend on the radius.
+   *
+   * @param radius radius of the square, 0 leaves the image unchanged.
+   * @return a Image object which represents the box blurred version of the image. Return this if
+   *          current data is null.
+   * @throws IllegalArgumentException if radius is negative.
+   */
+  Image boxBlur(int radius) throws IllegalArgumentException;
+
+  /**
+   * Return a Image object which represents the median filtered version of the original Image
+   * object, which removes noise while keeping edges. Every value of every channel is replaced by
+   * the median of the values of the square of 2 * radius + 1 pixels centered on it (only the
+   * pixels inside the image are counted near the border). The cost per pixel does not depend on
+   * the radius.
+   *
+   * @param radius radius of the square, 0 leaves the image unchanged.
+   * @return a Image object which represents the median filtered version of the image. Return this
+   *          if current data is null.
+   * @throws IllegalArgumentException if radius is negative.
+   */
+  Image median(int radius) throws IllegalArgumentException;
+
+  /**
+   * Return a Image object which represents the eroded version of the original Image object: every
+   * value of every channel is replaced by the smallest value of the square of 2 * radius + 1
+   * pixels centered on it (only the pixels inside the image are counted near the border). The
+   * cost per pixel does not depend on the radius.
+   *
+   * @param radius radius of the square, 0 leaves the image unchanged.
+   * @return a Image object which represents the eroded version of the image. Return this if
+   *          current data is null.
+   * @throws IllegalArgumentException if radius is negative.
+   */
+  Image erode(int radius) throws IllegalArgumentException;
+
+  /**
+   * Return a Image object which represents the dilated version of the original Image object: every
+   * value of every channel is replaced by the largest value of the square of 2 * radius + 1 pixels
+   * centered on it (only the pixels inside the image are counted near the border). The cost per
+   * pixel does not depend on the radius.
+   *
+   * @param radius radius of the square, 0 leaves the image unchanged.
+   * @return a Image object which represents the dilated version of the image. Return this if
+   *          current data is null.
+   * @throws IllegalArgumentException if radius is negative.
+   */
+  Image dilate(int radius) throws IllegalArgumentException;
+
+  /**
+   * Return a Image object which represents the edges of the original Image object: every value of
+   * every channel is replaced by the magnitude of the gradient of the channel at the pixel,
+   * estimated by the horizontal and vertical filters of the operator in one pass, and scaled so
+   * that the largest possible derivative is 255. Pixels outside of the image take the value of the
+   * closest pixel of the border.
+   *
+   * @param operator the pair of derivative filters.
+   * @return a Image object which represents the edges of the image. Return this if current data
+   *          is null.
+   */
+  Image edges(GradientOperator operator);
+
+  /**
+   * Return a Image object which represents the gradient of the greyscale version of the original
+   * Image object, shown as a color: the hue of a pixel gives the direction of the gradient and its
+   * brightness the magnitude, scaled as in edges. Both derivatives are computed in one pass.
+   *
+   * @param operator the pair of derivative filters.
+   * @return a Image object which represents the gradient of the image. Return this if current
+   *          data is null.
+   */
+  Image gradient(GradientOperator operator);
+
+  /**
+   * Return the Image object drawn over a background image with its top left corner at the given
+   * position, each pixel blended with the background according to its alpha. An image without
+   * alpha channel is opaque and hides the background under it. The result is an RgbaImage of the
+   * size of the background, and the part of this image outside of the background is left out.
+   *
+   * @param background the image drawn under this one.
+   * @param x          column of the background where the first column of this image goes.
+   * @param y          row of the background where the first row of this image goes.
+   * @return a Image object which represents the composited image. Return the background if
+   *          current data is null.
+   */
+  Image over(Image background, int x, int y);
+
+  /**
+   * Return a Image object which represents the original Image object made translucent: the alpha
+   * of every pixel is multiplied by the given opacity. The result is an RgbaImage.
+   *
+   * @param opacity the opacity, between 0 (transparent) and 1 (unchanged).
+   * @return a Image object which represents the translucent image. Return this if current data is
+   *          null.
+   * @throws IllegalArgumentException if opacity is not between 0 and 1.
+   */
+  Image opacity(double opacity) throws IllegalArgumentException;
+
+  /**
+   * Return a Image object which represents the Gaussian blurred version of the original Image
+   * object, approximated by three box blurs in a row. The cost per pixel does not depend on sigma.
+   * A blur of 16 pixels or more is computed on a coarser level of the ImagePyramid of the image,
+   * where it costs 4 times less per level, and expanded back.
+   *
+   * @param sigma standard deviation of the Gaussian, in pixels.
+   * @return a Image object which represents the Gaussian blurred version of the image. Return this
+   *          if current data is null.
+   * @throws IllegalArgumentException if sigma is not positive.
+   */
+  Image gaussianBlur(double sigma) throws IllegalArgumentException;
+
+  /**
+   * Return a Image object which represents the original Image object resized to the given width
+   * and height with the filter. Large reductions are mostly computed by averaging blocks of
+   * pixels before the filter is applied.
+   *
+   * @param width  width of the resized image, in pixels.
+   * @param height height of the resized image, in pixels.
+   * @param filter the resampling filter.
+   * @return a Image object which represents the resized image. Return this if current data is
+   *          null.
+   * @throws IllegalArgumentException if width or height is not positive, or if filter is null.
+   */
+  Image resize(int width, int height, ResampleFilter filter) throws IllegalArgumentException;
+
+  /**
+   * Return a Image object which represents the original Image object with its width and height
+   * multiplied by the factor (rounded, and at least 1 pixel) with the filter.
+   *
+   * @param factor the scale factor, below 1 to shrink the image and above 1 to enlarge it.
+   * @param filter the resampling filter.
+   * @return a Image object which represents the scaled image. Return this if current data is
+   *          null.
+   * @throws IllegalArgumentException if factor is not positive, or if filter is null.
+   */
+  Image scale(double factor, ResampleFilter filter) throws IllegalArgumentException;
+
+  /**
+   * Return a Image object which represents the original Image object with the operation applied
+   * to a rectangle only. The operation runs on the rectangle surrounded by halo pixels on every
+   * side (fewer at the border of the image), and only the rectangle of its result is kept, so an
+   * operation whose result at a pixel only depends on the pixels within halo of it gives the same
+   * rectangle as on the whole image. The pixels outside the rectangle are shared with this image
+   * rather than copied.
+   *
+   * @param region    the rectangle, which must be inside the image.
+   * @param halo      number of pixels around the rectangle the operation reads, 0 for a color
+   *                  operation.
+   * @param operation the operation, which must keep the size of the image it is given.
+   * @return a Image object which represents the image with the rectangle processed. Return this if
+   *          current data is null.
+   * @throws IllegalArgumentException if the region is not inside the image, if halo is negative or
+   *                                  if the operation changes the size of the image.
+   */
+  Image applyToRegion(Region region, int halo, UnaryOperator<Image> operation)
+          throws IllegalArgumentException;
+
   /**
    * Return a deep copy (copy with different reference) of the image data.
    *
@@ -77,6 +331,16 @@ public interface Image {
   BufferedImage getBufferImage();
 
 
+  /**
+   * Return the color of a single pixel packed into one int as 0xRRGGBB, without copying the rest
+   * of the image data.
+   *
+   * @param row    row number of the pixel, must be inside the image.
+   * @param column column number of the pixel, must be inside the image.
+   * @return the [r, g, b] of the pixel packed into one int.
+   */
+  int getRGB(int row, int column);
+
   /**
    * Return the height of the image.
    *
@@ -1,10 +1,8 @@
 import java.awt.Color;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.function.UnaryOperator;
 
 /**
  * This class represents an Image which constructs the Object with 3D array representing the [r, g,
@@ -12,6 +10,7 @@ import java.util.Random;
  */
 public class ImageImpl implements Image {
   private int[][][] data;
+  private ImagePyramid pyramid;
 
 
   /**
@@ -73,6 +72,35 @@ public class ImageImpl implements Image {
     return output;
   }
 
+  /**
+   * Return the pixels of this image without copying them. Used by the PixelBufferPool to recognize
+   * the buffers it handed out.
+   *
+   * @return the 3D array of this image, or null if the image has no data.
+   */
+  int[][][] pixels() {
+    return data;
+  }
+
+  /**
+   * Return the pyramid of this image, created on the first call and kept with the image so that
+   * its levels are only built once.
+   *
+   * @return the pyramid of this image.
+   * @throws IllegalArgumentException if this image has no pixel.
+   */
+  synchronized ImagePyramid pyramid() throws IllegalArgumentException {
+    if (pyramid == null) {
+      pyramid = new ImagePyramid(this);
+    }
+    return pyramid;
+  }
+
+  @Override
+  public int getRGB(int row, int column) {
+    return (data[row][column][0] << 16) + (data[row][column][1] << 8) + data[row][column][2];
+  }
+
   @Override
   public int getHeight() {
     if (data == null) {
@@ -119,45 +147,252 @@ public class ImageImpl implements Image {
       return this;
     }
 
-    int height = this.getHeight();
-    int width = this.getWidth();
+    //the three values of a greyscale pixel are equal, so one channel is dithered for all three.
+    Image grey = this.applyColorConvert(ColorConverter.GREYSCALE);
+    BilevelImage result = BilevelImage.dither(((ImageImpl) grey).data);
+    PixelBufferPool.shared().release(grey);
+    return result;
+  }
 
+  @Override
+  public Image threshold(int level) throws IllegalArgumentException {
+    if (level < 0 || level > 255) {
+      throw new IllegalArgumentException("Threshold level must be between 0 and 255.");
+    }
+    if (data == null) {
+      return this;
+    }
+    Image grey = this.applyColorConvert(ColorConverter.GREYSCALE);
+    BilevelImage result = BilevelImage.threshold(((ImageImpl) grey).data, level);
+    PixelBufferPool.shared().release(grey);
+    return result;
+  }
 
-    Image newResult = this.applyColorConvert(ColorConverter.GREYSCALE);
-    int[][][] result = ((ImageImpl) newResult).data;
+  @Override
+  public Image quantize(int colors, boolean dither) throws IllegalArgumentException {
+    if (colors < 1 || colors > 256) {
+      throw new IllegalArgumentException("Number of colors must be between 1 and 256.");
+    }
+    if (data == null) {
+      return this;
+    }
+    return ColorQuantizer.quantize(data, colors, dither);
+  }
 
-    int oldColor;
-    int newColor;
-    int error;
+  @Override
+  public ImageStatistics statistics() {
+    if (data == null) {
+      return ImageStatistics.count(0, (part, counts) -> { });
+    }
+    return ImageStatistics.of(data);
+  }
 
-    for (int r = 0; r < height; r++) {
-      for (int c = 0; c < width; c++) {
-        for (int color = 0; color < 3; color++) {
-          oldColor = result[r][c][color];
-          newColor = getNewColor(oldColor);
-          error = oldColor - newColor;
-          result[r][c][color] = newColor;
-
-          if (c + 1 < width) {
-            result[r][c + 1][color] += Math.round(error * 7 / 16.0);
-          }
-          if (r + 1 < height && c - 1 >= 0) {
-            result[r + 1][c - 1][color] += Math.round(error * 3 / 16.0);
-          }
-          if (r + 1 < height) {
-            result[r + 1][c][color] += Math.round(error * 5 / 16.0);
-          }
-          if (r + 1 < height && c + 1 < width) {
-            result[r + 1][c + 1][color] += Math.round(error / 16.0);
-          }
-        }
+  @Override
+  public Image autoLevels() {
+    if (data == null) {
+      return this;
+    }
+    return applyTables(ImageStatistics.of(data).levelsTables());
+  }
+
+  @Override
+  public Image equalize() {
+    if (data == null) {
+      return this;
+    }
+    return applyTables(ImageStatistics.of(data).equalizeTables());
+  }
+
+  /**
+   * Return the image with every value of every channel replaced by its entry in the lookup table
+   * of the channel, computed by the lookup engine of the diagonal color matrices.
+   *
+   * @param tables one table of 256 values between 0 and 255 per channel.
+   * @return a new Image holding the result.
+   */
+  Image applyTables(int[][] tables) {
+    int[][][] result = PixelBufferPool.shared().acquire(getHeight(), getWidth());
+    PlanarKernels.colorTables(data, tables, result);
+    return new ImageImpl(result);
+  }
+
+  @Override
+  public Image boxBlur(int radius) throws IllegalArgumentException {
+    if (radius < 0) {
+      throw new IllegalArgumentException("Radius can not be negative.");
+    }
+    if (data == null) {
+      return this;
+    }
+    return new ImageImpl(BoxBlur.blur(data, new int[]{radius}));
+  }
+
+  @Override
+  public Image median(int radius) throws IllegalArgumentException {
+    return rankFilter(radius, RankFilter.Rank.MEDIAN);
+  }
+
+  @Override
+  public Image erode(int radius) throws IllegalArgumentException {
+    return rankFilter(radius, RankFilter.Rank.MIN);
+  }
+
+  @Override
+  public Image dilate(int radius) throws IllegalArgumentException {
+    return rankFilter(radius, RankFilter.Rank.MAX);
+  }
+
+  @Override
+  public Image over(Image background, int x, int y) {
+    if (data == null) {
+      return background;
+    }
+    return RgbaImage.of(this).over(background, x, y);
+  }
+
+  @Override
+  public Image opacity(double opacity) throws IllegalArgumentException {
+    if (!(opacity >= 0 && opacity <= 1)) {
+      throw new IllegalArgumentException("Opacity must be between 0 and 1.");
+    }
+    if (data == null) {
+      return this;
+    }
+    return RgbaImage.of(this).opacity(opacity);
+  }
+
+  @Override
+  public Image edges(GradientOperator operator) {
+    return convolveMany(operator.getKernels(), MultiKernel.magnitude(operator.getScale()));
+  }
+
+  @Override
+  public Image gradient(GradientOperator operator) {
+    return convolveMany(operator.getKernels(), MultiKernel.direction(operator.getScale()));
+  }
+
+  /**
+   * Return the image convolved with several filters in one pass, their responses combined at
+   * every pixel. Helper function of edges and gradient.
+   *
+   * @param kernels  square integer filters of the same odd size.
+   * @param combiner the combination of the responses at a pixel.
+   * @return the combined image, or this if current data is null.
+   */
+  private Image convolveMany(int[][][] kernels, MultiKernel.Combiner combiner) {
+    if (data == null) {
+      return this;
+    }
+    int[][][] result = PixelBufferPool.shared().acquire(getHeight(), getWidth());
+    MultiKernel.convolve(data, kernels, combiner, result);
+    return new ImageImpl(result);
+  }
+
+  /**
+   * Return the image filtered by a rank filter. Helper function of median, erode and dilate.
+   *
+   * @param radius radius of the square.
+   * @param rank   the rank of the value taken in the square.
+   * @return the filtered image, or this if current data is null.
+   * @throws IllegalArgumentException if radius is negative.
+   */
+  private Image rankFilter(int radius, RankFilter.Rank rank) throws IllegalArgumentException {
+    if (radius < 0) {
+      throw new IllegalArgumentException("Radius can not be negative.");
+    }
+    if (data == null) {
+      return this;
+    }
+    return new ImageImpl(RankFilter.filter(data, radius, rank));
+  }
+
+  @Override
+  public Image gaussianBlur(double sigma) throws IllegalArgumentException {
+    int[] radii = BoxBlur.gaussianRadii(sigma);
+    if (data == null) {
+      return this;
+    }
+    return new ImageImpl(BoxBlur.blur(data, radii));
+  }
+
+  @Override
+  public Image resize(int width, int height, ResampleFilter filter)
+          throws IllegalArgumentException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Width and height must be positive.");
+    }
+    if (filter == null) {
+      throw new IllegalArgumentException("Resize filter can not be null.");
+    }
+    if (data == null) {
+      return this;
+    }
+    return new ImageImpl(Resampler.resize(data, width, height, filter));
+  }
+
+  @Override
+  public Image scale(double factor, ResampleFilter filter) throws IllegalArgumentException {
+    if (!(factor > 0) || Double.isInfinite(factor)) {
+      throw new IllegalArgumentException("Scale factor must be positive.");
+    }
+    if (filter == null) {
+      throw new IllegalArgumentException("Resize filter can not be null.");
+    }
+    if (data == null) {
+      return this;
+    }
+    return resize(Resampler.scaledSize(getWidth(), factor),
+            Resampler.scaledSize(getHeight(), factor), filter);
+  }
+
+  @Override
+  public Image applyToRegion(Region region, int halo, UnaryOperator<Image> operation)
+          throws IllegalArgumentException {
+    if (halo < 0) {
+      throw new IllegalArgumentException("Halo can not be negative.");
+    }
+    if (data == null) {
+      return this;
+    }
+    region.checkInside(getWidth(), getHeight());
+    int top = Math.max(0, region.getY() - halo);
+    int left = Math.max(0, region.getX() - halo);
+    int bottom = Math.min(getHeight(), region.getY() + region.getHeight() + halo);
+    int right = Math.min(getWidth(), region.getX() + region.getWidth() + halo);
+    //the window and the result refer to the pixels of this image, which must stay out of the pool.
+    PixelBufferPool pool = PixelBufferPool.shared();
+    pool.share(this);
+    int[][][] window = new int[bottom - top][][];
+    for (int r = top; r < bottom; r++) {
+      window[r - top] = Arrays.copyOfRange(data[r], left, right);
+    }
+    Image computed = operation.apply(new ImageImpl(window));
+    if (computed.getHeight() != bottom - top || computed.getWidth() != right - left) {
+      throw new IllegalArgumentException("An operation on a region must keep its size.");
+    }
+    int[][][] computedData = computed instanceof ImageImpl ? ((ImageImpl) computed).data
+            : computed.getData();
+    int[][][] result = data.clone();
+    for (int r = region.getY(); r < region.getY() + region.getHeight(); r++) {
+      int[][] row = data[r].clone();
+      int[][] computedRow = computedData[r - top];
+      for (int c = region.getX(); c < region.getX() + region.getWidth(); c++) {
+        row[c] = computedRow[c - left].clone();
       }
+      result[r] = row;
     }
+    pool.release(computed);
     return new ImageImpl(result);
   }
 
   @Override
   public Image mosaicing(int seed) throws IllegalArgumentException {
+    return mosaicing(seed, SeedPlacement.RANDOM, new SplittableRandom().nextLong());
+  }
+
+  @Override
+  public Image mosaicing(int seed, SeedPlacement placement, long randomSeed)
+          throws IllegalArgumentException {
     if (data == null) {
       return this;
     }
@@ -173,41 +408,32 @@ public class ImageImpl implements Image {
       seed = totalPixel;
     }
 
-    //get different random pixels and place them into Hashmap seeds.
-    // key is position[row,column], value is [r,g,b]
-    Map<int[], int[]> seeds = new HashMap<>();
-    int count = 0;
-    int row;
-    int column;
-    Random random = new Random();
-    while (count < seed) {
-      row = random.nextInt(this.getHeight());
-      column = random.nextInt(this.getWidth());
-      int[] position = {row, column};
-      if (!seeds.containsKey(position)) {
-        int[] color = data[row][column];
-        seeds.put(position, color);
-        count++;
-      }
+    //distinct random pixels, in raster order, which decides between seeds at the same distance.
+    int[] seeds = placement.place(height, width, seed, randomSeed);
+    if (seeds.length == 0) {
+      return new IndexedImage(height, width, new int[]{0}, new int[totalPixel]);
     }
-
-    int[][][] result = new int[height][width][3];
-    //assign new color to each pixel
-    for (int r = 0; r < height; r++) {
-      for (int c = 0; c < width; c++) {
-        result[r][c] = getMosaicColor(r, c, seeds);
-      }
+    int[] seedRows = new int[seeds.length];
+    int[] seedColumns = new int[seeds.length];
+    //the color of every cell, packed: the result does not refer to the pixels of this image.
+    int[] colors = new int[seeds.length];
+    for (int index = 0; index < seeds.length; index++) {
+      seedRows[index] = seeds[index] / width;
+      seedColumns[index] = seeds[index] % width;
+      int[] color = data[seedRows[index]][seedColumns[index]];
+      colors[index] = (color[0] << 16) | (color[1] << 8) | color[2];
     }
-    return new ImageImpl(result);
+    return new IndexedImage(height, width, colors,
+            VoronoiCells.assign(height, width, seedRows, seedColumns));
   }
 
   @Override
   public Image rainbowFlag(int height, int width, String direction)
           throws IllegalArgumentException {
     if (direction.equals("h")) {
-      return new ImageImpl(generateRainbowFlagHorizontal(height, width));
+      return new ProceduralImage(height, width, rainbowFlagHorizontal(height, width));
     } else if (direction.equals("v")) {
-      return new ImageImpl(generateRainbowFlagvertical(height, width));
+      return new ProceduralImage(height, width, rainbowFlagVertical(height, width));
     } else {
       throw new IllegalArgumentException("Direction can only be 'v' or 'h'.");
     }
@@ -218,35 +444,11 @@ public class ImageImpl implements Image {
     if (squareSize < 1) {
       throw new IllegalArgumentException("Square size must be positive ");
     }
-    int[][][] result = new int[squareSize * 8][squareSize * 8][3];
-    java.util.List<Color> colorList = new ArrayList<>();
-    colorList.add(Color.WHITE);
-    colorList.add(Color.BLACK);
-
-    for (int j = 0; j < 8; j += 2) {
-      //white first rows:
-      for (int height = squareSize * j; height < squareSize * (j + 1); height++) {
-        for (int i = 0; i < 8; i++) {
-          for (int width = squareSize * i; width < squareSize * (i + 1); width++) {
-            int[] rgbArray = {colorList.get(i % 2).getRed(), colorList.get(i % 2).getGreen(),
-                    colorList.get(i % 2).getBlue()};
-            result[height][width] = rgbArray;
-          }
-        }
-      }
-      //black first rows:
-      for (int height = squareSize * (j + 1); height < squareSize * (j + 2); height++) {
-        for (int i = 0; i < 8; i++) {
-          for (int width = squareSize * i; width < squareSize * (i + 1); width++) {
-            int[] rgbArray = {colorList.get((i + 1) % 2).getRed(),
-                    colorList.get((i + 1) % 2).getGreen(),
-                    colorList.get((i + 1) % 2).getBlue()};
-            result[height][width] = rgbArray;
-          }
-        }
-      }
-    }
-    return new ImageImpl(result);
+    int white = packColor(Color.WHITE);
+    int black = packColor(Color.BLACK);
+    //white first rows start with a white square, black first rows with a black square.
+    return new ProceduralImage(squareSize * 8, squareSize * 8,
+            (h, w) -> (h / squareSize + w / squareSize) % 2 == 0 ? white : black);
   }
 
 
@@ -256,33 +458,13 @@ public class ImageImpl implements Image {
       throw new IllegalArgumentException("Too small for the french flag");
     }
 
-    //Creating a new empty 3D array to store the final result.
-    int[][][] result = new int[height][width][3];
-
-    //Creating a new Array List with the three colors of the french flag: Blue, White and Red.
-    java.util.List<Color> colorList = new ArrayList<>();
-    colorList.add(Color.BLUE);
-    colorList.add(Color.WHITE);
-    colorList.add(Color.RED);
-    int h;
-    int w;
-    int color;
+    //The three colors of the french flag: Blue, White and Red.
+    int[] colorList = {packColor(Color.BLUE), packColor(Color.WHITE), packColor(Color.RED)};
     int stripWidth = width / 3;
 
-    // First iteration over the height of the image.
-    for (h = 0; h < height; h++) {
-      // Second iteration over the number of colors (3).
-      for (color = 0; color < 3; color++) {
-        // Third iteration over the width of the image.
-        for (w = color * stripWidth; w < (color + 1) * stripWidth; w++) {
-          //Storing the current color into a new array and apply it to the result 2D array.
-          int[] rgbArray = {colorList.get(color).getRed(), colorList.get(color).getGreen(),
-                  colorList.get(color).getBlue()};
-          result[h][w] = rgbArray;
-        }
-      }
-    }
-    return new ImageImpl(result);
+    //The columns left over after the three strips stay black.
+    return new ProceduralImage(height, width,
+            (h, w) -> w / stripWidth < 3 ? colorList[w / stripWidth] : 0);
   }
 
 
@@ -293,42 +475,24 @@ public class ImageImpl implements Image {
       throw new IllegalArgumentException("Too small for the Switzerland flag");
     }
 
-    //Creating a new empty 3D array to store the final result.
-    int[][][] result = new int[height][width][3];
-
-    //Creating a new Array List with the three colors of the french flag: Blue, White and Red.
-    java.util.List<Color> colorList = new ArrayList<>();
-    colorList.add(Color.RED);
-    colorList.add(Color.WHITE);
-    int h;
-    int w;
-
-    //Storing the dimensions of the cross.
-    double crossCheck20 = 1.0 / 5.0;
-    double crossCheck40 = 2.0 / 5.0;
-    double crossCheck60 = 3.0 / 5.0;
-    double crossCheck80 = 4.0 / 5.0;
-
-    // First iteration over the height of the image.
-    for (h = 0; h < height; h++) {
-      // Second iteration over the width of the image.
-      for (w = 0; w < width; w++) {
-        //Checking if the current height and width are within the range of the cross.
-        if (h > (crossCheck40 * height) && h < (crossCheck60 * height)
-                && (w > (crossCheck20 * width) && w < (crossCheck80 * width))
-                || ((h > (crossCheck20 * height) && h < (crossCheck80 * height)
-                && (w > (crossCheck40 * width) && w < (crossCheck60 * width))))) {
-          //If true, the current point is colored is white.
-          int[] rgbArray = {Color.WHITE.getRed(), Color.WHITE.getGreen(), Color.WHITE.getBlue()};
-          result[h][w] = rgbArray;
-        } else {
-          //Otherwise, the current point is colored is red.
-          int[] rgbArray = {Color.RED.getRed(), Color.RED.getGreen(), Color.RED.getBlue()};
-          result[h][w] = rgbArray;
-        }
-      }
-    }
-    return new ImageImpl(result);
+    int white = packColor(Color.WHITE);
+    int red = packColor(Color.RED);
+
+    //Storing the dimensions of the cross, as the first and last row and column strictly inside
+    //each bound so that every pixel is classified with integer comparisons only.
+    int row20 = firstAbove(1.0 / 5.0 * height);
+    int row40 = firstAbove(2.0 / 5.0 * height);
+    int row60 = lastBelow(3.0 / 5.0 * height);
+    int row80 = lastBelow(4.0 / 5.0 * height);
+    int column20 = firstAbove(1.0 / 5.0 * width);
+    int column40 = firstAbove(2.0 / 5.0 * width);
+    int column60 = lastBelow(3.0 / 5.0 * width);
+    int column80 = lastBelow(4.0 / 5.0 * width);
+
+    //A pixel inside the horizontal or the vertical bar of the cross is white, otherwise red.
+    return new ProceduralImage(height, width,
+            (h, w) -> h >= row40 && h <= row60 && w >= column20 && w <= column80
+                || h >= row20 && h <= row80 && w >= column40 && w <= column60 ? white : red);
   }
 
   @Override
@@ -336,110 +500,80 @@ public class ImageImpl implements Image {
     if ((height < 9) || (width < 4)) {
       throw new IllegalArgumentException("Too small for the Greece flag");
     }
-    //Creating a new empty 3D array to store the final result.
-    int[][][] result = new int[height][width][3];
-
-    //Storing the color of the greece flag into a new list.
-    java.util.List<Color> colorList = createGreeceFlagColor();
-    int h;
-    int w;
-    int color;
+    int blue = packColor(Color.BLUE);
+    int white = packColor(Color.WHITE);
     int stripThickness = height / 9;
 
-
     //Storing the break point to exit the cross on the right top corner.
-    double cornerBreakHeight = 10.0 / 18.1;
-    double cornerBreakWidth = 10.0 / 27.0;
-
+    int cornerLastRow = (int) Math.floor(10.0 / 18.1 * height);
+    int cornerLastColumn = (int) Math.floor(10.0 / 27.0 * width);
 
     //Storing the dimensions of the little white cross on the right corner.
-    double crossVerticalLeft = 4.0 / 27.0;
-    double crossVerticalRight = 6.0 / 27.0;
-    double crossHorizontalLeft = 4.0 / 18.1;
-    double crossHorizontalRight = 6.0 / 18.1;
-
-
-    // Iterate over the 9 horizontal stripes of the greece flag.
-    for (color = 0; color < 9; color++) {
-      // Iterating over the flag height and switch color of we are reaching the stripThickness.
-      for (h = color * stripThickness; h < (color + 1) * stripThickness; h++) {
-        // Third iteration over the width of the flag.
-        for (w = 0; w < width; w++) {
-          int[] rgbArray = {colorList.get(color).getRed(), colorList.get(color).getGreen(),
-                  colorList.get(color).getBlue()};
-          result[h][w] = rgbArray;
-        }
+    int crossTop = firstAbove(height * (4.0 / 18.1));
+    int crossBottom = lastBelow(height * (6.0 / 18.1));
+    int crossLeft = firstAbove(width * (4.0 / 27.0));
+    int crossRight = lastBelow(width * (6.0 / 27.0));
+
+    return new ProceduralImage(height, width, (h, w) -> {
+      if (h <= cornerLastRow && w <= cornerLastColumn) {
+        //Inside the corner: the white cross over a blue background.
+        return h >= crossTop && h <= crossBottom || w >= crossLeft && w <= crossRight
+                ? white : blue;
       }
-    }
-
-    // Now we are going to draw the cross on the top left corner of
-    // the flag by overriding the current stripes on that specific location.
-    //First iteration over the height of the image.
-    for (h = 0; (h <= (cornerBreakHeight * height)); h++) {
-      // Second iteration over the width of the image.
-      for (w = 0; (w <= (cornerBreakWidth * width)); w++) {
-        //Checking if the current height and width are within the range of the cross.
-        if (h > (height * crossHorizontalLeft) && h < (height * crossHorizontalRight)
-                || (w > (width * crossVerticalLeft) && w < (width * crossVerticalRight))) {
-          int[] rgbArray = {Color.WHITE.getRed(), Color.WHITE.getGreen(), Color.WHITE.getBlue()};
-          result[h][w] = rgbArray;
-        } else {
-          // Drawing the blue background within the top right corner.
-          int[] rgbArray = {Color.BLUE.getRed(), Color.BLUE.getGreen(), Color.BLUE.getBlue()};
-          result[h][w] = rgbArray;
-        }
+      //Outside the corner: nine stripes of blue alternating with white, the rows left over after
+      //the nine stripes stay black.
+      int strip = h / stripThickness;
+      if (strip >= 9) {
+        return 0;
       }
-    }
-    return new ImageImpl(result);
+      return strip % 2 == 0 ? blue : white;
+    });
   }
 
-
-  /**
-   * Takes in a ColorConverter object and apply it to the image. Helper function of greyscale and
-   * sepia methods.
-   *
-   * @param converter a ColorConverter object.
-   * @return a new Image object represents the result of color transformation.
-   */
-  private Image applyColorConvert(ColorConverter converter) {
+  @Override
+  public Image applyColorConvert(ColorConverter converter) {
     if (data == null) {
       return this;
     }
     int height = this.getHeight();
     int width = this.getWidth();
-    int[][][] result = new int[height][width][3];
+    int[][][] result = PixelBufferPool.shared().acquire(height, width);
     double[][] converterData = converter.getData();
+    KernelAnalysis analysis = KernelAnalysis.of(converter);
+    if (analysis.getEngine() != KernelAnalysis.Engine.SCALAR) {
+      analysis.convert(data, converterData, result);
+      return new ImageImpl(result);
+    }
 
     int r;
     int c;
     for (r = 0; r < height; r++) {
       for (c = 0; c < width; c++) {
-        result[r][c] = multiplyMatrix(this.data[r][c], converterData);
+        multiplyMatrix(this.data[r][c], converterData, result[r][c]);
       }
     }
     return new ImageImpl(result);
   }
 
 
-  /**
-   * Takes in a Filter object and apply that filter to current image. Helper function of blur and
-   * sharpen methods.
-   *
-   * @param blur A filter Object represents a filtering matrix.
-   * @return a new Image object represents the filtered image.
-   */
-  private Image applyFilter(Filter blur) {
+  @Override
+  public Image applyFilter(Filter blur) {
     if (data == null) {
       return this;
     }
     int height = this.getHeight();
     int width = this.getWidth();
-    int[][][] newImage = new int[height][width][3];
+    int[][][] newImage = PixelBufferPool.shared().acquire(height, width);
     double[][] filter = blur.getMatrix();
+    KernelAnalysis analysis = KernelAnalysis.of(blur);
+    if (analysis.getEngine() != KernelAnalysis.Engine.SCALAR) {
+      analysis.convolve(data, filter, newImage);
+      return new ImageImpl(newImage);
+    }
     for (int r = 0; r < height; r++) {
       for (int c = 0; c < width; c++) {
         //apply the helper function for each pixel in this image.
-        newImage[r][c] = applyFilterHelper(r, c, filter);
+        applyFilterHelper(r, c, filter, newImage[r][c]);
       }
     }
     return new ImageImpl(newImage);
@@ -451,10 +585,10 @@ public class ImageImpl implements Image {
    *
    * @param rgbArray      3 element array of int represent r, g, b.
    * @param converterData a 3*3 array represent the color converting matrix.
-   * @return a 3D array represents the result of the multiplication of the two matrices.
+   * @param result        3 element array receiving the result of the multiplication of the two
+   *                      matrices.
    */
-  private int[] multiplyMatrix(int[] rgbArray, double[][] converterData) {
-    int[] result = new int[3];
+  private void multiplyMatrix(int[] rgbArray, double[][] converterData, int[] result) {
     int i;
     int newRGB;
     for (i = 0; i < 3; i++) {
@@ -462,22 +596,20 @@ public class ImageImpl implements Image {
               * rgbArray[1] + converterData[i][2] * rgbArray[2]);
       result[i] = Math.min(Math.max(newRGB, 0), 255);
     }
-    return result;
   }
 
 
   /**
-   * Return the new [r,g,b] of a single pixel in position (r, c) after apply the filter.
+   * Write the new [r,g,b] of a single pixel in position (r, c) after apply the filter into newRGB.
    *
-   * @param r the row number of the pixel in current image.
-   * @param c the column number of the pixel in currect image.
-   * @param f a 2D array of double represents a filter.
-   * @return the new [r,g,b] of a single pixel in position (r, c) after apply the filter.
+   * @param r      the row number of the pixel in current image.
+   * @param c      the column number of the pixel in currect image.
+   * @param f      a 2D array of double represents a filter.
+   * @param newRGB 3 element array collecting the new [r, g, b] of the pixel.
    */
-  private int[] applyFilterHelper(int r, int c, double[][] f) {
+  private void applyFilterHelper(int r, int c, double[][] f, int[] newRGB) {
     int filterSize = f.length;
     int half = filterSize / 2;
-    int[] newRGB = new int[3]; //collect new [r, g, b]
 
 
     //loop through 3 color:
@@ -499,7 +631,6 @@ public class ImageImpl implements Image {
       tempInt = (int) Math.round(temp); //round the temp from double to int.
       newRGB[colorIndex] = Math.min(Math.max(tempInt, 0), 255);
     }
-    return newRGB;
   }
 
 
@@ -516,157 +647,87 @@ public class ImageImpl implements Image {
 
 
   /**
-   * Return 0 or 255 whichever is closer to the int in the parameter.
-   *
-   * @param color int.
-   * @return 0 or 255 whichever is closer to the int in the parameter.
-   */
-  private int getNewColor(int color) {
-    if (Math.abs(color - 0) <= Math.abs(color - 255)) {
-      return 0;
-    }
-    return 255;
-  }
-
-
-  /**
-   * Return the [r,g,b] of the mosiced color for pixel in position (r, c). The mosiced color would
-   * be the same as the color of current pixel's closest seed.
-   *
-   * @param r     row number of current pixel.
-   * @param c     column number of current pixel.
-   * @param seeds Map of seeds whose keys are position of all the keys and values are the key's
-   *              corresponding color(represented as [r,g,b]).
-   * @return he [r,g,b] of the mosaiced color for pixel in position (r, c).
-   */
-  private int[] getMosaicColor(int r, int c, Map<int[], int[]> seeds) {
-    double distance = Double.POSITIVE_INFINITY;
-    int[] position = {r, c};
-    int[] result = new int[3];
-    for (int[] key : seeds.keySet()) {
-      double currentDistance = distanceBetweenPixels(position, key);
-      if (currentDistance < distance) {
-        distance = currentDistance;
-        result = seeds.get(key);
-      }
-    }
-    return result;
-  }
-
-
-  /**
-   * Return the distance between position1 and position2.
+   * Helper method for generateRainbowFlag. Return the seven colors, packed as 0xRRGGBB, which will
+   * shown in the generated rainbow flag.
    *
-   * @param position1 int array of [row, column] of first pixel.
-   * @param position2 int array of [row, column] of second pixel.
-   * @return he distance between position1 and position2.
+   * @return an array of the seven packed colors.
    */
-  private double distanceBetweenPixels(int[] position1, int[] position2) {
-    return Math.sqrt((position1[0] - position2[0]) * (position1[0] - position2[0])
-            + (position1[1] - position2[1]) * (position1[1] - position2[1]));
+  private static int[] createRainbowColor() {
+    return new int[]{packColor(Color.RED), packColor(Color.ORANGE), packColor(Color.YELLOW),
+            packColor(Color.GREEN), packColor(Color.CYAN), packColor(Color.BLUE),
+            (104 << 16) | (49 << 8) | 255}; //PURPLE
   }
 
 
   /**
-   * Helper method for generateRainbowFlag. Return a array of seven color's [r,g,b] which will shown
-   * in the generated rainbow flag.
-   *
-   * @return a 2D array of seven color's.
-   */
-  private int[][] createRainbowColor() {
-
-    int[][] result = new int[7][3];
-    result[0] = new int[]{Color.RED.getRed(), Color.RED.getGreen(),
-            Color.RED.getBlue()};
-    result[1] = new int[]{Color.ORANGE.getRed(), Color.ORANGE.getGreen(),
-            Color.ORANGE.getBlue()};
-    result[2] = new int[]{Color.YELLOW.getRed(), Color.YELLOW.getGreen(),
-            Color.YELLOW.getBlue()};
-    result[3] = new int[]{Color.GREEN.getRed(), Color.GREEN.getGreen(),
-            Color.GREEN.getBlue()};
-    result[4] = new int[]{Color.CYAN.getRed(), Color.CYAN.getGreen(),
-            Color.CYAN.getBlue()};
-    result[5] = new int[]{Color.BLUE.getRed(), Color.BLUE.getGreen(),
-            Color.BLUE.getBlue()};
-    result[6] = new int[]{104, 49, 255}; //PURPLE
-
-    return result;
-  }
-
-
-  /**
-   * Return an 3D array represents a rainbow flag with horizontal strips.
+   * Return the pixel function of a rainbow flag with horizontal strips.
    *
    * @param height height of the return image
    * @param width  width of the return image
-   * @return an Image object represent a rainbow flag with horizontal strips.
+   * @return the pixel function of a rainbow flag with horizontal strips.
+   * @throws IllegalArgumentException if input height is smaller than 7
    */
-  private int[][][] generateRainbowFlagHorizontal(int height, int width) {
+  private static PixelFunction rainbowFlagHorizontal(int height, int width) {
     if (height < 7 || width < 1) {
       throw new IllegalArgumentException("Inputs must be positive "
               + "and height should at least be 7.");
     }
-    int[][][] result = new int[height][width][3];
-    int[][] colorList = createRainbowColor();
+    int[] colorList = createRainbowColor();
     int stripThickness = height / 7;
-    for (int color = 0; color < 7; color++) {
-      for (int h = color * stripThickness; h < (color + 1) * stripThickness; h++) {
-        for (int w = 0; w < width; w++) {
-          result[h][w] = colorList[color];
-        }
-      }
-    }
-    return result;
+    //The rows left over after the seven strips stay black.
+    return (h, w) -> h / stripThickness < 7 ? colorList[h / stripThickness] : 0;
   }
 
 
   /**
-   * Return an Image object represents a rainbow flag with vertical strips.
+   * Return the pixel function of a rainbow flag with vertical strips.
    *
    * @param height height of the return image
    * @param width  width of the return image
-   * @return an Image object represent a rainbow flag with horizontal strips.
+   * @return the pixel function of a rainbow flag with vertical strips.
    * @throws IllegalArgumentException if input width is smaller than 7
    */
-  private int[][][] generateRainbowFlagvertical(int height, int width) {
+  private static PixelFunction rainbowFlagVertical(int height, int width) {
     if (width < 7 || height < 1) {
       throw new IllegalArgumentException("Inputs must be positive and width should at least be 7.");
     }
-    int[][][] result = new int[height][width][3];
-    int[][] colorList = createRainbowColor();
-    int h;
-    int w;
-    int color;
+    int[] colorList = createRainbowColor();
     int stripWidth = width / 7;
+    //The columns left over after the seven strips stay black.
+    return (h, w) -> w / stripWidth < 7 ? colorList[w / stripWidth] : 0;
+  }
 
-    for (h = 0; h < height; h++) {
-      for (color = 0; color < 7; color++) {
-        for (w = color * stripWidth; w < (color + 1) * stripWidth; w++) {
-          result[h][w] = colorList[color];
-        }
-      }
-    }
-    return result;
+
+  /**
+   * Return the [r,g,b] of a Color packed into one int as 0xRRGGBB.
+   *
+   * @param color a Color object.
+   * @return the [r,g,b] of the color packed into one int.
+   */
+  private static int packColor(Color color) {
+    return color.getRGB() & 0xFFFFFF;
+  }
+
+
+  /**
+   * Return the smallest integer strictly greater than the given bound.
+   *
+   * @param bound exclusive lower bound.
+   * @return the smallest integer strictly greater than bound.
+   */
+  private static int firstAbove(double bound) {
+    return (int) Math.floor(bound) + 1;
   }
 
 
   /**
-   * Method to store the nine horizontal stripes of the greece flag in a list.
+   * Return the largest integer strictly smaller than the given bound.
    *
-   * @return a new list with the color for each stripes of blue alternating with white.
+   * @param bound exclusive upper bound.
+   * @return the largest integer strictly smaller than bound.
    */
-  private static java.util.List<Color> createGreeceFlagColor() {
-    List<Color> color = new ArrayList<>();
-    color.add(Color.BLUE);
-    color.add(Color.WHITE);
-    color.add(Color.BLUE);
-    color.add(Color.WHITE);
-    color.add(Color.BLUE);
-    color.add(Color.WHITE);
-    color.add(Color.BLUE);
-    color.add(Color.WHITE);
-    color.add(Color.BLUE);
-    return color;
+  private static int lastBelow(double bound) {
+    return (int) Math.ceil(bound) - 1;
   }
 
 }
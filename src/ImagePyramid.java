@@ -0,0 +1,255 @@
+import java.util.stream.IntStream;
+
+/**
+ * This class represents the pyramid of an image: level 0 is the image itself, and every level is
+ * the previous one with each block of 2*2 pixels replaced by its mean (the blocks of an odd last
+ * row or column hold fewer pixels). Levels are built on first access, each of them in parallel
+ * over its rows, and kept for as long as the pyramid, so an image only pays once for the levels
+ * used by its previews and large blurs.
+ *
+ * <p>Pixel (r, c) of level k covers the pixels of rows r * 2^k to (r + 1) * 2^k - 1 and columns
+ * c * 2^k to (c + 1) * 2^k - 1 of the image. The last level is 1*1.
+ */
+public final class ImagePyramid {
+
+  /**
+   * Smallest standard deviation of a Gaussian blur on a coarser level, in pixels of that level. A
+   * blur is only computed on a coarser level if it is at least twice as wide.
+   */
+  private static final double COARSE_BLUR_SIGMA = 8;
+
+  private final Image[] levels;
+
+  /**
+   * Constructor of the ImagePyramid of an image with data.
+   *
+   * @param image the image, level 0 of the pyramid.
+   * @throws IllegalArgumentException if the image has no pixel.
+   */
+  ImagePyramid(Image image) throws IllegalArgumentException {
+    if (image.getWidth() == 0 || image.getHeight() == 0) {
+      throw new IllegalArgumentException("An image pyramid needs at least one pixel.");
+    }
+    int size = Math.max(image.getWidth(), image.getHeight());
+    //levels until the largest side is 1, which halving (rounded up) reaches in ceil(log2) steps.
+    int count = 1;
+    while (size > 1) {
+      size = (size + 1) / 2;
+      count++;
+    }
+    this.levels = new Image[count];
+    this.levels[0] = image;
+  }
+
+  /**
+   * Return the pyramid of an image. The pyramid of an ImageImpl is kept with the image, so its
+   * levels are only built once; other images get a new pyramid.
+   *
+   * @param image the image, with at least one pixel.
+   * @return the pyramid of the image.
+   * @throws IllegalArgumentException if the image has no pixel.
+   */
+  public static ImagePyramid of(Image image) throws IllegalArgumentException {
+    if (image instanceof ImageImpl) {
+      return ((ImageImpl) image).pyramid();
+    }
+    return new ImagePyramid(image);
+  }
+
+  /**
+   * Return the number of levels, from the image itself to the 1*1 level.
+   *
+   * @return the number of levels.
+   */
+  public int getLevelCount() {
+    return levels.length;
+  }
+
+  /**
+   * Return a level of the pyramid, building it and the levels above it if they were not yet.
+   *
+   * @param level the level, 0 for the image itself.
+   * @return the level.
+   * @throws IllegalArgumentException if level is negative or not below getLevelCount().
+   */
+  public synchronized Image getLevel(int level) throws IllegalArgumentException {
+    if (level < 0 || level >= levels.length) {
+      throw new IllegalArgumentException("Level must be between 0 and " + (levels.length - 1)
+              + ".");
+    }
+    int built = level;
+    while (levels[built] == null) {
+      built--;
+    }
+    for (int k = built + 1; k <= level; k++) {
+      levels[k] = new ImageImpl(halve(levels[k - 1]));
+    }
+    return levels[level];
+  }
+
+  /**
+   * Return a preview of the image fitting in maxWidth * maxHeight, with the proportions of the
+   * image. It is resized from the smallest level at least as large as the preview, so the cost
+   * depends on the size of the preview rather than on the size of the image.
+   *
+   * @param maxWidth  largest width of the preview.
+   * @param maxHeight largest height of the preview.
+   * @return the preview, or the image itself if it already fits.
+   * @throws IllegalArgumentException if maxWidth or maxHeight is not positive.
+   */
+  public Image preview(int maxWidth, int maxHeight) throws IllegalArgumentException {
+    if (maxWidth <= 0 || maxHeight <= 0) {
+      throw new IllegalArgumentException("Width and height of a preview must be positive.");
+    }
+    Image image = levels[0];
+    int width = image.getWidth();
+    int height = image.getHeight();
+    if (width <= maxWidth && height <= maxHeight) {
+      return image;
+    }
+    double factor = Math.min((double) maxWidth / width, (double) maxHeight / height);
+    int previewWidth = Math.min(maxWidth, Resampler.scaledSize(width, factor));
+    int previewHeight = Math.min(maxHeight, Resampler.scaledSize(height, factor));
+    int level = 0;
+    while (level + 1 < levels.length && (width >> (level + 1)) >= previewWidth
+            && (height >> (level + 1)) >= previewHeight) {
+      level++;
+    }
+    return getLevel(level).resize(previewWidth, previewHeight, ResampleFilter.BILINEAR);
+  }
+
+  /**
+   * Return the level on which a Gaussian blur of the given standard deviation is computed: the
+   * coarsest level on which the standard deviation is still at least COARSE_BLUR_SIGMA, and 0 (the
+   * image itself) for a standard deviation below 2 * COARSE_BLUR_SIGMA.
+   *
+   * @param sigma standard deviation of the Gaussian, in pixels of the image.
+   * @return the level on which the blur is computed.
+   */
+  private int blurLevel(double sigma) {
+    int level = 0;
+    while (level + 1 < levels.length && sigma / (1 << (level + 1)) >= COARSE_BLUR_SIGMA) {
+      level++;
+    }
+    return level;
+  }
+
+  /**
+   * Return the image blurred by a Gaussian of the given standard deviation, computed on the level
+   * chosen by blurLevel and expanded back to the size of the image by bilinear interpolation. A
+   * blur this wide keeps little detail finer than that level, but the result still differs from
+   * blurring the image itself by a few levels (up to 4 on the sample images), so Image.gaussianBlur
+   * never uses it: it is only computed when asked for, by the coarse option of the gaussian
+   * command. The standard deviation used on the level is reduced by the blur the averaging and the
+   * interpolation add.
+   *
+   * @param sigma standard deviation of the Gaussian, in pixels of the image.
+   * @return the blurred image.
+   * @throws IllegalArgumentException if sigma is not positive.
+   */
+  Image gaussianBlur(double sigma) throws IllegalArgumentException {
+    if (!(sigma > 0)) {
+      throw new IllegalArgumentException("Standard deviation must be positive.");
+    }
+    int level = blurLevel(sigma);
+    if (level == 0) {
+      return new ImageImpl(BoxBlur.blur(pixels(levels[0]), BoxBlur.gaussianRadii(sigma)));
+    }
+    double scale = 1 << level;
+    //variance of the 2*2 means of every level, and of the bilinear interpolation back.
+    double added = (scale * scale - 1) / 12 + scale * scale / 6;
+    double coarseSigma = Math.sqrt(Math.max(sigma * sigma - added, 1)) / scale;
+    int[][][] coarse = BoxBlur.blur(pixels(getLevel(level)), BoxBlur.gaussianRadii(coarseSigma));
+    return new ImageImpl(expand(coarse, level, levels[0].getWidth(), levels[0].getHeight()));
+  }
+
+  /**
+   * Return a level expanded back to the size of the image by bilinear interpolation. Pixel (r, c)
+   * of the image is at ((r + 0.5) / 2^level - 0.5, (c + 0.5) / 2^level - 0.5) on the level.
+   *
+   * @param coarse the level as a 3D array of [r, g, b].
+   * @param level  the level.
+   * @param width  width of the image.
+   * @param height height of the image.
+   * @return a new 3D array of the size of the image.
+   */
+  private static int[][][] expand(int[][][] coarse, int level, int width, int height) {
+    int coarseHeight = coarse.length;
+    int coarseWidth = coarse[0].length;
+    double scale = 1 << level;
+    int[] left = new int[width];
+    double[] fraction = new double[width];
+    for (int c = 0; c < width; c++) {
+      double u = Math.min(Math.max((c + 0.5) / scale - 0.5, 0), coarseWidth - 1);
+      left[c] = Math.min((int) u, Math.max(coarseWidth - 2, 0));
+      fraction[c] = u - left[c];
+    }
+    int[][][] result = PixelBufferPool.shared().acquire(height, width);
+    IntStream.range(0, height).parallel().forEach(r -> {
+      double v = Math.min(Math.max((r + 0.5) / scale - 0.5, 0), coarseHeight - 1);
+      int top = Math.min((int) v, Math.max(coarseHeight - 2, 0));
+      double dy = v - top;
+      int[][] upper = coarse[top];
+      int[][] lower = coarse[Math.min(top + 1, coarseHeight - 1)];
+      for (int c = 0; c < width; c++) {
+        int l = left[c];
+        int rt = Math.min(l + 1, coarseWidth - 1);
+        double dx = fraction[c];
+        for (int i = 0; i < 3; i++) {
+          double above = upper[l][i] + dx * (upper[rt][i] - upper[l][i]);
+          double below = lower[l][i] + dx * (lower[rt][i] - lower[l][i]);
+          result[r][c][i] = Math.min(Math.max((int) Math.round(above + dy * (below - above)), 0),
+                  255);
+        }
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Return the image with every block of 2*2 pixels replaced by its rounded mean. Rows are
+   * computed in parallel.
+   *
+   * @param image the image.
+   * @return a new 3D array of half the height and width, rounded up.
+   */
+  private static int[][][] halve(Image image) {
+    int[][][] data = pixels(image);
+    int height = data.length;
+    int width = data[0].length;
+    int halfHeight = (height + 1) / 2;
+    int halfWidth = (width + 1) / 2;
+    int[][][] result = new int[halfHeight][halfWidth][3];
+    IntStream.range(0, halfHeight).parallel().forEach(r -> {
+      int[][] upper = data[2 * r];
+      int[][] lower = data[Math.min(2 * r + 1, height - 1)];
+      int rows = 2 * r + 1 < height ? 2 : 1;
+      for (int c = 0; c < halfWidth; c++) {
+        int left = 2 * c;
+        int right = Math.min(left + 1, width - 1);
+        int count = rows * (left + 1 < width ? 2 : 1);
+        for (int i = 0; i < 3; i++) {
+          int sum = upper[left][i] + (rows == 2 ? lower[left][i] : 0);
+          if (right != left) {
+            sum += upper[right][i] + (rows == 2 ? lower[right][i] : 0);
+          }
+          result[r][c][i] = (sum + count / 2) / count;
+        }
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Return the pixels of an image, without copy for an ImageImpl.
+   *
+   * @param image the image.
+   * @return the image as a 3D array of [r, g, b], which must not be modified.
+   */
+  private static int[][][] pixels(Image image) {
+    if (image instanceof ImageImpl) {
+      return ((ImageImpl) image).pixels();
+    }
+    return image.getData();
+  }
+}
@@ -0,0 +1,242 @@
+import java.util.stream.IntStream;
+
+/**
+ * This class represents the statistics of the colors of an image: the histogram of each of its
+ * red, green and blue channels, and the smallest, largest and mean value of each channel.
+ *
+ * <p>The histograms are counted in parallel: every worker thread counts the part of the image it
+ * is given in a histogram of its own, a long array of 3 * 256 counts, and the histograms of the
+ * threads are then added, so no count is shared between threads or boxed. The lookup tables of
+ * autoLevels and equalize are built from these histograms, which makes both operations one pass to
+ * count and one pass to look every value up.
+ */
+public final class ImageStatistics {
+
+  /**
+   * Number of rows counted by one task.
+   */
+  private static final int ROW_BAND = 64;
+
+  private final long[] counts;
+  private final long pixels;
+
+  /**
+   * This interface represents the counting of one part of an image.
+   */
+  interface PartCounter {
+
+    /**
+     * Add the values of the pixels of one part of the image to the histogram.
+     *
+     * @param part   index of the part.
+     * @param counts the histogram of the thread, the count of value v of channel k at 256 * k + v.
+     */
+    void count(int part, long[] counts);
+  }
+
+  /**
+   * Constructor of an ImageStatistics from its histograms.
+   *
+   * @param counts the count of value v of channel k at 256 * k + v.
+   */
+  private ImageStatistics(long[] counts) {
+    this.counts = counts;
+    long total = 0;
+    for (int v = 0; v < 256; v++) {
+      total += counts[v];
+    }
+    this.pixels = total;
+  }
+
+  /**
+   * Return the statistics of an image. Bands of rows are counted in parallel.
+   *
+   * @param data the image as a 3D array of [r, g, b].
+   * @return the statistics of the image.
+   */
+  static ImageStatistics of(int[][][] data) {
+    int height = data.length;
+    return count((height + ROW_BAND - 1) / ROW_BAND, (band, counts) -> {
+      for (int r = band * ROW_BAND; r < Math.min((band + 1) * ROW_BAND, height); r++) {
+        for (int[] pixel : data[r]) {
+          counts[pixel[0]]++;
+          counts[256 + pixel[1]]++;
+          counts[512 + pixel[2]]++;
+        }
+      }
+    });
+  }
+
+  /**
+   * Return the statistics of an image split into parts, counted in parallel by the given counter.
+   * Each thread counts its parts into a histogram of its own, and the histograms are then added.
+   *
+   * @param parts   number of parts of the image.
+   * @param counter the counting of one part.
+   * @return the statistics of the image.
+   */
+  static ImageStatistics count(int parts, PartCounter counter) {
+    long[] counts = IntStream.range(0, parts).parallel().collect(() -> new long[3 * 256],
+        (histogram, part) -> counter.count(part, histogram), (a, b) -> {
+          for (int i = 0; i < a.length; i++) {
+            a[i] += b[i];
+          }
+        });
+    return new ImageStatistics(counts);
+  }
+
+  /**
+   * Return the number of pixels of the image.
+   *
+   * @return the number of pixels of the image.
+   */
+  public long getPixelCount() {
+    return pixels;
+  }
+
+  /**
+   * Return the number of pixels with the given value in one channel.
+   *
+   * @param channel 0 for red, 1 for green, 2 for blue.
+   * @param value   the value, between 0 and 255.
+   * @return the number of pixels whose channel has that value.
+   * @throws IllegalArgumentException if channel is not 0, 1 or 2 or value not between 0 and 255.
+   */
+  public long getCount(int channel, int value) throws IllegalArgumentException {
+    checkChannel(channel);
+    if (value < 0 || value > 255) {
+      throw new IllegalArgumentException("Value must be between 0 and 255.");
+    }
+    return counts[256 * channel + value];
+  }
+
+  /**
+   * Return the histogram of one channel.
+   *
+   * @param channel 0 for red, 1 for green, 2 for blue.
+   * @return a new array of 256 counts, the number of pixels of every value of the channel.
+   * @throws IllegalArgumentException if channel is not 0, 1 or 2.
+   */
+  public long[] getHistogram(int channel) throws IllegalArgumentException {
+    checkChannel(channel);
+    long[] histogram = new long[256];
+    System.arraycopy(counts, 256 * channel, histogram, 0, 256);
+    return histogram;
+  }
+
+  /**
+   * Return the smallest value of one channel.
+   *
+   * @param channel 0 for red, 1 for green, 2 for blue.
+   * @return the smallest value of the channel, or 0 if the image has no pixel.
+   * @throws IllegalArgumentException if channel is not 0, 1 or 2.
+   */
+  public int getMin(int channel) throws IllegalArgumentException {
+    checkChannel(channel);
+    for (int v = 0; v < 256; v++) {
+      if (counts[256 * channel + v] > 0) {
+        return v;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Return the largest value of one channel.
+   *
+   * @param channel 0 for red, 1 for green, 2 for blue.
+   * @return the largest value of the channel, or 0 if the image has no pixel.
+   * @throws IllegalArgumentException if channel is not 0, 1 or 2.
+   */
+  public int getMax(int channel) throws IllegalArgumentException {
+    checkChannel(channel);
+    for (int v = 255; v >= 0; v--) {
+      if (counts[256 * channel + v] > 0) {
+        return v;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Return the mean value of one channel.
+   *
+   * @param channel 0 for red, 1 for green, 2 for blue.
+   * @return the mean value of the channel, or 0 if the image has no pixel.
+   * @throws IllegalArgumentException if channel is not 0, 1 or 2.
+   */
+  public double getMean(int channel) throws IllegalArgumentException {
+    checkChannel(channel);
+    if (pixels == 0) {
+      return 0;
+    }
+    long sum = 0;
+    for (int v = 0; v < 256; v++) {
+      sum += v * counts[256 * channel + v];
+    }
+    return (double) sum / pixels;
+  }
+
+  /**
+   * Return the lookup tables stretching every channel linearly so that its smallest value becomes
+   * 0 and its largest 255. A channel with a single value is kept as it is.
+   *
+   * @return one table of 256 values per channel.
+   */
+  int[][] levelsTables() {
+    int[][] tables = new int[3][256];
+    for (int channel = 0; channel < 3; channel++) {
+      int min = getMin(channel);
+      int max = getMax(channel);
+      for (int v = 0; v < 256; v++) {
+        tables[channel][v] = max == min ? v
+                : Math.max(0, Math.min(255, (int) Math.round((v - min) * 255.0 / (max - min))));
+      }
+    }
+    return tables;
+  }
+
+  /**
+   * Return the lookup tables equalizing the histogram of every channel: a value becomes the share
+   * of the pixels whose channel is at most that value, scaled so that the smallest value of the
+   * channel becomes 0 and the largest 255. A channel with a single value is kept as it is.
+   *
+   * @return one table of 256 values per channel.
+   */
+  int[][] equalizeTables() {
+    int[][] tables = new int[3][256];
+    for (int channel = 0; channel < 3; channel++) {
+      long first = counts[256 * channel + getMin(channel)];
+      long cumulative = 0;
+      for (int v = 0; v < 256; v++) {
+        cumulative += counts[256 * channel + v];
+        tables[channel][v] = pixels == first ? v
+                : (int) Math.round(Math.max(0, cumulative - first) * 255.0 / (pixels - first));
+      }
+    }
+    return tables;
+  }
+
+  /**
+   * Check that a channel is 0, 1 or 2.
+   *
+   * @param channel the channel.
+   * @throws IllegalArgumentException if channel is not 0, 1 or 2.
+   */
+  private static void checkChannel(int channel) throws IllegalArgumentException {
+    if (channel < 0 || channel > 2) {
+      throw new IllegalArgumentException("Channel must be 0 (red), 1 (green) or 2 (blue).");
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    String[] names = {"red", "green", "blue"};
+    for (int channel = 0; channel < 3; channel++) {
+      builder.append(String.format("%s: min %d, max %d, mean %.2f%n", names[channel],
+              getMin(channel), getMax(channel), getMean(channel)));
+    }
+    return builder.toString();
+  }
+}
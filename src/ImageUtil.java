@@ -1,5 +1,6 @@
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -19,6 +20,7 @@ public class ImageUtil {
    * @return the image as a 3D array of integer values
    */
   public static int[][][] readImage(String filename) throws IOException {
+    ScriptMetrics.Span span = ScriptMetrics.startActive("decode", 0);
     BufferedImage input;
 
     input = ImageIO.read(new FileInputStream(filename));
@@ -34,6 +36,37 @@ public class ImageUtil {
         result[i][j][2] = c.getBlue();
       }
     }
+    if (span != null) {
+      span.end((double) input.getWidth() * input.getHeight() / 1e6);
+    }
+    return result;
+  }
+
+  /**
+   * Read an image file and return it as an Image, keeping its alpha channel and its precision: an
+   * RgbaImage if at least one pixel of the file is not opaque, such as in a PNG file with
+   * transparency, a PreciseImage if the file has more than 8 bits per channel and no alpha, such
+   * as a 16-bit PNG or TIFF file, otherwise an ImageImpl holding the same pixels as readImage.
+   *
+   * @param filename the path of the file. Look at the ImageIO documentation to see which file
+   *                 formats are supported.
+   * @return the decoded image.
+   * @throws IOException if the file can not be read or decoded.
+   */
+  public static Image readImageWithAlpha(String filename) throws IOException {
+    ScriptMetrics.Span span = ScriptMetrics.startActive("decode", 0);
+    BufferedImage input;
+    try (FileInputStream in = new FileInputStream(filename)) {
+      input = ImageIO.read(in);
+    }
+    if (input == null) {
+      throw new IOException("Unsupported image format: " + filename);
+    }
+    Image result = PreciseImage.isHighPrecision(input) ? PreciseImage.fromBufferedImage(input)
+            : RgbaImage.fromBufferedImage(input);
+    if (span != null) {
+      span.end((double) input.getWidth() * input.getHeight() / 1e6);
+    }
     return result;
   }
 
@@ -83,6 +116,7 @@ public class ImageUtil {
   public static void writeImage(int[][][] rgb, int width, int height, String
           filename)
           throws IOException {
+    ScriptMetrics.Span span = ScriptMetrics.startActive("encode", (double) width * height / 1e6);
 
     BufferedImage output = new BufferedImage(
             width,
@@ -104,5 +138,55 @@ public class ImageUtil {
     }
     String extension = filename.substring(filename.indexOf(".") + 1);
     ImageIO.write(output, extension, new FileOutputStream(filename));
+    if (span != null) {
+      span.end(0);
+    }
+  }
+
+  /**
+   * Write an image to a file in the format given by its extension, from its BufferedImage. The
+   * palette images of a BilevelImage or an IndexedImage are written as they are, 1 to 8 bits per
+   * pixel, to PNG, BMP and GIF files, and expanded to colors only for the other formats. The alpha
+   * of an RgbaImage is written to PNG files and dropped for the other formats. A PreciseImage is
+   * written with 16 bits per channel to PNG and TIFF files, and rounded to 8 bits for the other
+   * formats.
+   *
+   * @param image    the image to write.
+   * @param filename the full path of where the image must be stored. This should include the name
+   *                 and extension of the file
+   * @throws IOException if the file cannot be written to the provided path
+   */
+  public static void writeImage(Image image, String filename) throws IOException {
+    ScriptMetrics.Span span = ScriptMetrics.startActive("encode",
+            (double) image.getWidth() * image.getHeight() / 1e6);
+    String extension = filename.substring(filename.indexOf(".") + 1);
+    BufferedImage output = image instanceof PreciseImage && extension.matches("(?i)png|tiff?")
+            ? ((PreciseImage) image).getBufferImage16() : image.getBufferImage();
+    if (output.getColorModel() instanceof IndexColorModel
+            && !extension.matches("(?i)png|bmp|gif")) {
+      BufferedImage colors = new BufferedImage(output.getWidth(), output.getHeight(),
+              BufferedImage.TYPE_INT_RGB);
+      colors.getGraphics().drawImage(output, 0, 0, null);
+      output = colors;
+    }
+    if (output.getColorModel().hasAlpha() && !extension.matches("(?i)png")) {
+      int width = output.getWidth();
+      int[] row = new int[width];
+      BufferedImage colors = new BufferedImage(width, output.getHeight(),
+              BufferedImage.TYPE_INT_RGB);
+      for (int r = 0; r < output.getHeight(); r++) {
+        for (int c = 0; c < width; c++) {
+          row[c] = image.getRGB(r, c);
+        }
+        colors.setRGB(0, r, width, 1, row, 0, width);
+      }
+      output = colors;
+    }
+    try (FileOutputStream out = new FileOutputStream(filename)) {
+      ImageIO.write(output, extension, out);
+    }
+    if (span != null) {
+      span.end(0);
+    }
   }
 }
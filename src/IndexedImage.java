@@ -0,0 +1,341 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.util.stream.IntStream;
+
+/**
+ * This class represents an Image of a few colors, such as a mosaic, stored as a color table and
+ * the index of the color of every pixel in that table. Indices take 1 byte per pixel for up to 256
+ * colors, 2 bytes for up to 65536 and 4 above, instead of the 36 bytes of an ImageImpl pixel.
+ *
+ * <p>The pixels only refer to the table, so changing the colors costs one operation per color
+ * rather than per pixel: recolor and withPalette share the indices with this image, and the color
+ * conversions (greyscale, sepia, color matrices) are applied to the table only. With 256 colors
+ * or fewer, the BufferedImage of the image uses an IndexColorModel, so PNG, GIF and BMP files are
+ * written with a palette.
+ */
+public final class IndexedImage extends AbstractImage {
+  private final int height;
+  private final int width;
+  private final int[] palette;
+  private final byte[] byteLabels;
+  private final short[] shortLabels;
+  private final int[] intLabels;
+
+  /**
+   * Constructor of an IndexedImage from its color table and indices, stored in the smallest type
+   * that holds every index.
+   *
+   * @param height  height of the image.
+   * @param width   width of the image.
+   * @param palette the colors packed as 0xRRGGBB, which must not be modified afterwards.
+   * @param labels  the index in the palette of every pixel, row by row.
+   * @throws IllegalArgumentException if the palette is empty or if there is not one index per
+   *                                  pixel.
+   */
+  IndexedImage(int height, int width, int[] palette, int[] labels)
+          throws IllegalArgumentException {
+    if (palette.length == 0 || labels.length != height * width) {
+      throw new IllegalArgumentException("An indexed image needs colors and one index per pixel.");
+    }
+    this.height = height;
+    this.width = width;
+    this.palette = palette;
+    if (palette.length <= 256) {
+      byte[] bytes = new byte[labels.length];
+      IntStream.range(0, height).parallel().forEach(r -> {
+        for (int i = r * width; i < (r + 1) * width; i++) {
+          bytes[i] = (byte) labels[i];
+        }
+      });
+      this.byteLabels = bytes;
+      this.shortLabels = null;
+      this.intLabels = null;
+    } else if (palette.length <= 65536) {
+      short[] shorts = new short[labels.length];
+      IntStream.range(0, height).parallel().forEach(r -> {
+        for (int i = r * width; i < (r + 1) * width; i++) {
+          shorts[i] = (short) labels[i];
+        }
+      });
+      this.byteLabels = null;
+      this.shortLabels = shorts;
+      this.intLabels = null;
+    } else {
+      this.byteLabels = null;
+      this.shortLabels = null;
+      this.intLabels = labels;
+    }
+  }
+
+  /**
+   * Constructor of an IndexedImage sharing the indices of another one with a new color table.
+   *
+   * @param other   the image whose indices are shared.
+   * @param palette the new colors, as many as in the table of other.
+   */
+  private IndexedImage(IndexedImage other, int[] palette) {
+    this.height = other.height;
+    this.width = other.width;
+    this.palette = palette;
+    this.byteLabels = other.byteLabels;
+    this.shortLabels = other.shortLabels;
+    this.intLabels = other.intLabels;
+  }
+
+  /**
+   * Return the number of colors of the color table.
+   *
+   * @return the number of colors of the color table.
+   */
+  public int getColorCount() {
+    return palette.length;
+  }
+
+  /**
+   * Return a color of the color table.
+   *
+   * @param index index of the color in the table.
+   * @return the color packed as 0xRRGGBB.
+   * @throws IllegalArgumentException if index is not in the table.
+   */
+  public int getColor(int index) throws IllegalArgumentException {
+    if (index < 0 || index >= palette.length) {
+      throw new IllegalArgumentException("Color index must be between 0 and "
+              + (palette.length - 1) + ".");
+    }
+    return palette[index];
+  }
+
+  /**
+   * Return the index in the color table of the color of a pixel, for a mosaic the cell of the
+   * pixel.
+   *
+   * @param row    row number of the pixel, must be inside the image.
+   * @param column column number of the pixel, must be inside the image.
+   * @return the index of the color of the pixel.
+   */
+  public int getIndex(int row, int column) {
+    return label(row * width + column);
+  }
+
+  /**
+   * Return a new image where every pixel of one color of the table has another color, for a
+   * mosaic every pixel of one cell. Only the table is copied.
+   *
+   * @param index index of the color in the table.
+   * @param color the new color packed as 0xRRGGBB.
+   * @return a new image sharing the indices of this one.
+   * @throws IllegalArgumentException if index is not in the table.
+   */
+  public IndexedImage recolor(int index, int color) throws IllegalArgumentException {
+    getColor(index);
+    int[] colors = palette.clone();
+    colors[index] = color & 0xFFFFFF;
+    return new IndexedImage(this, colors);
+  }
+
+  /**
+   * Return a new image with the same indices and another color table.
+   *
+   * @param colors the new colors packed as 0xRRGGBB, as many as in the table of this image.
+   * @return a new image sharing the indices of this one.
+   * @throws IllegalArgumentException if colors does not have as many colors as the table.
+   */
+  public IndexedImage withPalette(int[] colors) throws IllegalArgumentException {
+    if (colors.length != palette.length) {
+      throw new IllegalArgumentException("The new color table must have " + palette.length
+              + " colors.");
+    }
+    int[] copy = new int[colors.length];
+    for (int i = 0; i < colors.length; i++) {
+      copy[i] = colors[i] & 0xFFFFFF;
+    }
+    return new IndexedImage(this, copy);
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getRGB(int row, int column) {
+    return palette[label(row * width + column)];
+  }
+
+  @Override
+  public int[][][] getData() {
+    int[][][] result = new int[height][width][3];
+    IntStream.range(0, height).parallel().forEach(r -> {
+      int[][] row = result[r];
+      for (int c = 0; c < width; c++) {
+        int color = palette[label(r * width + c)];
+        row[c][0] = (color >> 16) & 0xFF;
+        row[c][1] = (color >> 8) & 0xFF;
+        row[c][2] = color & 0xFF;
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Return the image as a BufferedImage. With 256 colors or fewer it uses an IndexColorModel of
+   * 1, 4 or 8 bits per pixel holding the color table, otherwise it is a TYPE_INT_RGB image.
+   * Rows are converted in parallel.
+   *
+   * @return the image as a BufferedImage.
+   */
+  @Override
+  public BufferedImage getBufferImage() {
+    if (byteLabels == null) {
+      int[] packed = new int[height * width];
+      IntStream.range(0, height).parallel().forEach(r -> {
+        for (int i = r * width; i < (r + 1) * width; i++) {
+          packed[i] = palette[label(i)];
+        }
+      });
+      BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      output.setRGB(0, 0, width, height, packed, 0, width);
+      return output;
+    }
+    //BMP files have no 2 bits per pixel. A binary image takes its bits per pixel from the size of
+    //its table, which is filled up to 2 or 16 colors.
+    int bits = palette.length <= 2 ? 1 : palette.length <= 16 ? 4 : 8;
+    int count = bits == 8 ? palette.length : 1 << bits;
+    byte[] reds = new byte[count];
+    byte[] greens = new byte[count];
+    byte[] blues = new byte[count];
+    for (int i = 0; i < palette.length; i++) {
+      reds[i] = (byte) (palette[i] >> 16);
+      greens[i] = (byte) (palette[i] >> 8);
+      blues[i] = (byte) palette[i];
+    }
+    IndexColorModel model = new IndexColorModel(bits, count, reds, greens, blues);
+    BufferedImage output = new BufferedImage(width, height,
+            bits == 8 ? BufferedImage.TYPE_BYTE_INDEXED : BufferedImage.TYPE_BYTE_BINARY, model);
+    byte[] target = ((DataBufferByte) output.getRaster().getDataBuffer()).getData();
+    int bytesPerRow = (width * bits + 7) / 8;
+    int perByte = 8 / bits;
+    IntStream.range(0, height).parallel().forEach(r -> {
+      if (bits == 8) {
+        System.arraycopy(byteLabels, r * width, target, r * bytesPerRow, width);
+        return;
+      }
+      //the first pixel of a byte is in its highest bits.
+      for (int c = 0; c < width; c++) {
+        int shift = 8 - bits * (c % perByte + 1);
+        target[r * bytesPerRow + c / perByte] |= (byte) (byteLabels[r * width + c] << shift);
+      }
+    });
+    return output;
+  }
+
+  /**
+   * Return an estimate of the memory used by this image, in bytes.
+   *
+   * @return an estimate of the memory used by this image, in bytes.
+   */
+  long estimateBytes() {
+    long perPixel = byteLabels != null ? 1 : shortLabels != null ? 2 : 4;
+    return perPixel * height * width + 4L * palette.length + 64;
+  }
+
+  @Override
+  public Image sepia() {
+    return applyColorConvert(ColorConverter.SEPIA);
+  }
+
+  @Override
+  public Image greyscale() {
+    return applyColorConvert(ColorConverter.GREYSCALE);
+  }
+
+  /**
+   * Return the image with the color conversion applied to the color table only. A color
+   * conversion only depends on the color of a pixel, so it gives the same pixels as on the whole
+   * image in one operation per color.
+   *
+   * @param converter the color conversion.
+   * @return a new image sharing the indices of this one.
+   */
+  @Override
+  public Image applyColorConvert(ColorConverter converter) {
+    int[][][] colors = new int[1][palette.length][3];
+    for (int i = 0; i < palette.length; i++) {
+      colors[0][i][0] = (palette[i] >> 16) & 0xFF;
+      colors[0][i][1] = (palette[i] >> 8) & 0xFF;
+      colors[0][i][2] = palette[i] & 0xFF;
+    }
+    Image converted = new ImageImpl(colors).applyColorConvert(converter);
+    int[] table = new int[palette.length];
+    for (int i = 0; i < table.length; i++) {
+      table[i] = converted.getRGB(0, i);
+    }
+    PixelBufferPool.shared().release(converted);
+    return new IndexedImage(this, table);
+  }
+
+  /**
+   * Return the statistics of the colors of the image. Rows are counted in parallel.
+   *
+   * @return the statistics of the image.
+   */
+  @Override
+  public ImageStatistics statistics() {
+    return ImageStatistics.count(height, (r, counts) -> {
+      for (int i = r * width; i < (r + 1) * width; i++) {
+        int color = palette[label(i)];
+        counts[(color >> 16) & 0xFF]++;
+        counts[256 + ((color >> 8) & 0xFF)]++;
+        counts[512 + (color & 0xFF)]++;
+      }
+    });
+  }
+
+  @Override
+  public Image autoLevels() {
+    return lookUp(statistics().levelsTables());
+  }
+
+  @Override
+  public Image equalize() {
+    return lookUp(statistics().equalizeTables());
+  }
+
+  /**
+   * Return the image with the lookup tables applied to the color table only.
+   *
+   * @param tables one table of 256 values between 0 and 255 per channel.
+   * @return a new image sharing the indices of this one.
+   */
+  private IndexedImage lookUp(int[][] tables) {
+    int[] table = new int[palette.length];
+    for (int i = 0; i < table.length; i++) {
+      table[i] = (tables[0][(palette[i] >> 16) & 0xFF] << 16)
+              | (tables[1][(palette[i] >> 8) & 0xFF] << 8) | tables[2][palette[i] & 0xFF];
+    }
+    return new IndexedImage(this, table);
+  }
+
+  /**
+   * Return the index of the color of a pixel.
+   *
+   * @param index index of the pixel, row by row.
+   * @return the index of its color in the table.
+   */
+  private int label(int index) {
+    if (byteLabels != null) {
+      return byteLabels[index] & 0xFF;
+    }
+    if (shortLabels != null) {
+      return shortLabels[index] & 0xFFFF;
+    }
+    return intLabels[index];
+  }
+}
@@ -0,0 +1,334 @@
+/**
+ * This class represents what is known about the matrix of a Filter or of a ColorConverter, and
+ * which engine computes it the fastest. The analyses of the matrices used most recently are cached
+ * by the canonical description of the Filter or ColorConverter, so applying the same matrix again
+ * in a batch costs nothing.
+ *
+ * <p>A filter is checked for separability (the matrix is the product of a column and a row, so
+ * it can be applied as two 1D passes), for integer weights (exact int arithmetic) and for
+ * symmetry (the pixels sharing a weight are added before being multiplied). A color matrix is
+ * checked for being diagonal (a lookup table per channel) and for having identical rows (one
+ * result shared by the three channels).
+ */
+final class KernelAnalysis {
+
+  /**
+   * This enum represents the engines a matrix can be dispatched to.
+   */
+  enum Engine {
+    /**
+     * Scalar convolution loops of ImageImpl, used when the planar engine is turned off.
+     */
+    SCALAR,
+    /**
+     * Planar double convolution.
+     */
+    PLANAR,
+    /**
+     * Planar int convolution, for filters with integer weights.
+     */
+    INTEGER,
+    /**
+     * One horizontal and one vertical 1D pass, for separable filters.
+     */
+    SEPARABLE,
+    /**
+     * Convolution through the FFT, for large filters.
+     */
+    FFT,
+    /**
+     * General 3*3 color matrix.
+     */
+    MATRIX,
+    /**
+     * Diagonal color matrix, applied as one lookup table per channel.
+     */
+    LOOKUP,
+    /**
+     * Color matrix whose three rows are identical, computed once per pixel.
+     */
+    SHARED_ROW
+  }
+
+  /**
+   * Number of analyses kept, the least recently used being dropped first: an interactive session
+   * may apply any number of different matrices.
+   */
+  private static final int CACHE_ENTRIES = 256;
+
+  private static final LruCache<String, KernelAnalysis> CACHE = new LruCache<>(CACHE_ENTRIES,
+      analysis -> 1);
+
+  /**
+   * Relative tolerance used when checking that a filter is the product of a column and a row.
+   */
+  private static final double SEPARABLE_TOLERANCE = 1e-12;
+
+  private final Engine engine;
+  private final double[] column;
+  private final double[] row;
+  private final int[][] integerWeights;
+  private final boolean symmetric;
+  private final boolean palindromicRow;
+
+  /**
+   * Constructor of a KernelAnalysis.
+   *
+   * @param engine         the engine to use.
+   * @param column         column factor of a separable filter, null otherwise.
+   * @param row            row factor of a separable filter, null otherwise.
+   * @param integerWeights weights of an integer filter, null otherwise.
+   * @param symmetric      true if the matrix is a filter unchanged when flipped horizontally and
+   *                       vertically.
+   */
+  private KernelAnalysis(Engine engine, double[] column, double[] row, int[][] integerWeights,
+                         boolean symmetric) {
+    this.engine = engine;
+    this.column = column;
+    this.row = row;
+    this.integerWeights = integerWeights;
+    this.symmetric = symmetric;
+    this.palindromicRow = row != null && isPalindrome(row);
+  }
+
+  /**
+   * Return the analysis of the filter, from the cache if the same matrix was already analyzed.
+   *
+   * @param filter the filter.
+   * @return the analysis of the filter.
+   */
+  static KernelAnalysis of(Filter filter) {
+    String key = filter.toString();
+    KernelAnalysis analysis = CACHE.get(key);
+    if (analysis == null) {
+      //two threads may both analyze the same matrix, into equal analyses.
+      analysis = analyzeFilter(filter.getMatrix());
+      CACHE.put(key, analysis);
+    }
+    return analysis;
+  }
+
+  /**
+   * Return the analysis of the color converter, from the cache if the same matrix was already
+   * analyzed.
+   *
+   * @param converter the color converter.
+   * @return the analysis of the color converter.
+   */
+  static KernelAnalysis of(ColorConverter converter) {
+    String key = converter.toString();
+    KernelAnalysis analysis = CACHE.get(key);
+    if (analysis == null) {
+      analysis = analyzeConverter(converter.getData());
+      CACHE.put(key, analysis);
+    }
+    return analysis;
+  }
+
+  /**
+   * Return the engine to use for the matrix.
+   *
+   * @return the engine to use for the matrix.
+   */
+  Engine getEngine() {
+    return engine;
+  }
+
+  /**
+   * Write into dst the image convolved with the analyzed filter, with the engine chosen for it.
+   *
+   * @param data   the image as a 3D array of [r, g, b].
+   * @param filter the analyzed filter matrix.
+   * @param dst    the destination, an array of the same size as data which is not data.
+   * @throws IllegalStateException    if this is the analysis of a color matrix, or if the engine
+   *                                  is SCALAR which only ImageImpl runs.
+   * @throws IllegalArgumentException if dst is data or does not have the size of data.
+   */
+  void convolve(int[][][] data, double[][] filter, int[][][] dst)
+          throws IllegalStateException, IllegalArgumentException {
+    switch (engine) {
+      case SEPARABLE:
+        PlanarKernels.convolveSeparable(data, column, row, palindromicRow, dst);
+        break;
+      case INTEGER:
+        PlanarKernels.convolveInteger(data, integerWeights, symmetric, dst);
+        break;
+      case FFT:
+        FftConvolver.convolve(data, filter, dst);
+        break;
+      case PLANAR:
+        PlanarKernels.convolve(data, filter, symmetric, dst);
+        break;
+      default:
+        throw new IllegalStateException("Engine " + engine + " does not convolve.");
+    }
+  }
+
+  /**
+   * Write into dst the image multiplied by the analyzed color matrix, with the engine chosen for
+   * it. Since a pixel only depends on itself, dst may be data.
+   *
+   * @param data   the image as a 3D array of [r, g, b].
+   * @param matrix the analyzed 3*3 color converting matrix.
+   * @param dst    the destination, an array of the same size as data.
+   * @throws IllegalStateException    if this is the analysis of a filter, or if the engine is
+   *                                  SCALAR which only ImageImpl runs.
+   * @throws IllegalArgumentException if dst does not have the size of data.
+   */
+  void convert(int[][][] data, double[][] matrix, int[][][] dst)
+          throws IllegalStateException, IllegalArgumentException {
+    switch (engine) {
+      case LOOKUP:
+        PlanarKernels.colorLookup(data, matrix, dst);
+        break;
+      case SHARED_ROW:
+        PlanarKernels.colorSharedRow(data, matrix, dst);
+        break;
+      case MATRIX:
+        PlanarKernels.colorMatrix(data, matrix, dst);
+        break;
+      default:
+        throw new IllegalStateException("Engine " + engine + " does not convert colors.");
+    }
+  }
+
+  /**
+   * Analyze a filter matrix. Helper function of of(Filter).
+   *
+   * @param matrix a square filter matrix with odd dimension.
+   * @return the analysis of the matrix.
+   */
+  private static KernelAnalysis analyzeFilter(double[][] matrix) {
+    int size = matrix.length;
+    boolean symmetric = true;
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        symmetric &= matrix[i][j] == matrix[size - 1 - i][j]
+                && matrix[i][j] == matrix[i][size - 1 - j];
+      }
+    }
+    if (!PlanarKernels.isEnabled()) {
+      return new KernelAnalysis(Engine.SCALAR, null, null, null, symmetric);
+    }
+    if (size > 1) {
+      double[][] factors = separate(matrix);
+      if (factors != null) {
+        return new KernelAnalysis(Engine.SEPARABLE, factors[0], factors[1], null, symmetric);
+      }
+    }
+    int[][] weights = integerWeights(matrix);
+    if (weights != null) {
+      return new KernelAnalysis(Engine.INTEGER, null, null, weights, symmetric);
+    }
+    if (size >= FftConvolver.threshold()) {
+      return new KernelAnalysis(Engine.FFT, null, null, null, symmetric);
+    }
+    return new KernelAnalysis(Engine.PLANAR, null, null, null, symmetric);
+  }
+
+  /**
+   * Analyze a color converting matrix. Helper function of of(ColorConverter).
+   *
+   * @param matrix a 3*3 color converting matrix.
+   * @return the analysis of the matrix.
+   */
+  private static KernelAnalysis analyzeConverter(double[][] matrix) {
+    boolean diagonal = true;
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 3; j++) {
+        diagonal &= i == j || matrix[i][j] == 0;
+      }
+    }
+    boolean sharedRow = true;
+    for (int i = 1; i < 3; i++) {
+      for (int j = 0; j < 3; j++) {
+        sharedRow &= matrix[i][j] == matrix[0][j];
+      }
+    }
+    Engine engine = diagonal ? Engine.LOOKUP : sharedRow ? Engine.SHARED_ROW : Engine.MATRIX;
+    if (!PlanarKernels.isEnabled()) {
+      engine = Engine.SCALAR;
+    }
+    return new KernelAnalysis(engine, null, null, null, false);
+  }
+
+  /**
+   * Return the column and the row whose product is the matrix, or null if there are none.
+   *
+   * @param matrix a square matrix.
+   * @return an array of the column and the row, or null if the matrix is not separable.
+   */
+  private static double[][] separate(double[][] matrix) {
+    int size = matrix.length;
+    int pivotRow = 0;
+    int pivotColumn = 0;
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        if (Math.abs(matrix[i][j]) > Math.abs(matrix[pivotRow][pivotColumn])) {
+          pivotRow = i;
+          pivotColumn = j;
+        }
+      }
+    }
+    double pivot = matrix[pivotRow][pivotColumn];
+    if (pivot == 0) {
+      return null;
+    }
+    double[] column = new double[size];
+    double[] row = new double[size];
+    for (int i = 0; i < size; i++) {
+      column[i] = matrix[i][pivotColumn];
+      row[i] = matrix[pivotRow][i] / pivot;
+    }
+    double tolerance = SEPARABLE_TOLERANCE * Math.abs(pivot);
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        if (Math.abs(column[i] * row[j] - matrix[i][j]) > tolerance) {
+          return null;
+        }
+      }
+    }
+    return new double[][]{column, row};
+  }
+
+  /**
+   * Return the weights of the matrix as ints if they are all integers and if no sum of 255 times
+   * their absolute value can overflow an int, otherwise null.
+   *
+   * @param matrix a square matrix.
+   * @return the weights as ints, or null.
+   */
+  private static int[][] integerWeights(double[][] matrix) {
+    int size = matrix.length;
+    int[][] weights = new int[size][size];
+    double total = 0;
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        if (matrix[i][j] != Math.rint(matrix[i][j])) {
+          return null;
+        }
+        total += Math.abs(matrix[i][j]);
+        weights[i][j] = (int) matrix[i][j];
+      }
+    }
+    if (total * 255 >= Integer.MAX_VALUE) {
+      return null;
+    }
+    return weights;
+  }
+
+  /**
+   * Return true if the values read the same in both directions.
+   *
+   * @param values the values.
+   * @return true if the values read the same in both directions.
+   */
+  private static boolean isPalindrome(double[] values) {
+    for (int i = 0; i < values.length / 2; i++) {
+      if (values[i] != values[values.length - 1 - i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,97 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * This class represents a least-recently-used cache bounded by the total size of its values. The
+ * size of every value is given by a weigher, and the least recently used entries are evicted as
+ * soon as the total goes over the budget. All the methods are thread safe.
+ *
+ * @param <K> type of the keys.
+ * @param <V> type of the values.
+ */
+class LruCache<K, V> {
+  private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final ToLongFunction<V> weigher;
+  private final long budget;
+  private long size;
+
+  /**
+   * Constructor of a LruCache with the given budget.
+   *
+   * @param budget  maximum total size of the values, in the unit of the weigher.
+   * @param weigher function giving the size of a value.
+   * @throws IllegalArgumentException if budget is negative.
+   */
+  LruCache(long budget, ToLongFunction<V> weigher) throws IllegalArgumentException {
+    if (budget < 0) {
+      throw new IllegalArgumentException("Cache budget can not be negative.");
+    }
+    this.budget = budget;
+    this.weigher = weigher;
+  }
+
+  /**
+   * Return the value stored for the key and mark it as the most recently used.
+   *
+   * @param key the key.
+   * @return the value stored for the key, or null if there is none.
+   */
+  synchronized V get(K key) {
+    return entries.get(key);
+  }
+
+  /**
+   * Store a value for the key, then evict the least recently used entries until the total size is
+   * within the budget. A value larger than the whole budget is not stored.
+   *
+   * @param key   the key.
+   * @param value the value.
+   * @return true if the value was stored, false if it is larger than the whole budget.
+   */
+  synchronized boolean put(K key, V value) {
+    long weight = weigher.applyAsLong(value);
+    if (weight > budget) {
+      return false;
+    }
+    V old = entries.put(key, value);
+    if (old != null) {
+      size -= weigher.applyAsLong(old);
+    }
+    size += weight;
+    Iterator<Map.Entry<K, V>> eldest = entries.entrySet().iterator();
+    while (size > budget && eldest.hasNext()) {
+      V evicted = eldest.next().getValue();
+      eldest.remove();
+      size -= weigher.applyAsLong(evicted);
+    }
+    return true;
+  }
+
+  /**
+   * Replace the value stored for the key by another one, if the key still holds the given value.
+   * The entry becomes the most recently used, and the total size is updated.
+   *
+   * @param key      the key.
+   * @param oldValue the value expected for the key.
+   * @param newValue the value to store instead.
+   * @return true if the value was replaced, false if the key holds another value or none.
+   */
+  synchronized boolean replace(K key, V oldValue, V newValue) {
+    if (!entries.replace(key, oldValue, newValue)) {
+      return false;
+    }
+    size += weigher.applyAsLong(newValue) - weigher.applyAsLong(oldValue);
+    return true;
+  }
+
+  /**
+   * Return the total size of the values stored, in the unit of the weigher.
+   *
+   * @return the total size of the values stored.
+   */
+  synchronized long size() {
+    return size;
+  }
+}
@@ -0,0 +1,164 @@
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * This class contains the convolution of an image with several filters of the same size in one
+ * pass, such as the two derivative filters of a gradient. Every neighbourhood is read once: each
+ * pixel around the center is loaded once and multiplied by the weight of every filter, and the
+ * responses of the filters are then combined into the resulting pixel, for example into the
+ * magnitude of the gradient. No intermediate image is allocated for the responses.
+ *
+ * <p>The image is split into square tiles of TILE_SIZE pixels, which are computed in parallel.
+ * Pixels outside of the image take the value of the closest pixel of the border, so that the
+ * border of the image is not seen as an edge.
+ */
+final class MultiKernel {
+
+  /**
+   * Width and height of a tile computed by one task.
+   */
+  private static final int TILE_SIZE = 64;
+
+  /**
+   * This interface represents the combination of the responses of the filters at one pixel.
+   */
+  interface Combiner {
+
+    /**
+     * Write the resulting pixel from the responses of the filters.
+     *
+     * @param responses the response of filter k to channel c at index 3 * k + c.
+     * @param target    the resulting [r, g, b] pixel.
+     */
+    void combine(int[] responses, int[] target);
+  }
+
+  /**
+   * This class only contains static methods.
+   */
+  private MultiKernel() {
+  }
+
+  /**
+   * Write into dst the responses of the filters at every pixel, combined by the combiner.
+   *
+   * @param data     the image as a 3D array of [r, g, b].
+   * @param kernels  square integer filters of the same odd size.
+   * @param combiner the combination of the responses at a pixel.
+   * @param dst      the destination, an array of the same size as data, different from it.
+   * @throws IllegalArgumentException if the filters are not square of the same odd size, or if
+   *                                  dst does not have the size of data.
+   */
+  static void convolve(int[][][] data, int[][][] kernels, Combiner combiner, int[][][] dst)
+          throws IllegalArgumentException {
+    PlanarKernels.checkSize(data, dst);
+    int size = kernels[0].length;
+    for (int[][] kernel : kernels) {
+      if (kernel.length != size || size % 2 == 0) {
+        throw new IllegalArgumentException("Filters must be square of the same odd size.");
+      }
+      for (int[] row : kernel) {
+        if (row.length != size) {
+          throw new IllegalArgumentException("Filters must be square of the same odd size.");
+        }
+      }
+    }
+    //the positions where at least one filter has a weight, with the weight of every filter.
+    int half = size / 2;
+    int count = 0;
+    int[] rowOffsets = new int[size * size];
+    int[] columnOffsets = new int[size * size];
+    int[][] weights = new int[size * size][];
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        int[] tap = new int[kernels.length];
+        boolean used = false;
+        for (int k = 0; k < kernels.length; k++) {
+          tap[k] = kernels[k][i][j];
+          used |= tap[k] != 0;
+        }
+        if (used) {
+          rowOffsets[count] = i - half;
+          columnOffsets[count] = j - half;
+          weights[count] = tap;
+          count++;
+        }
+      }
+    }
+    int taps = count;
+    int height = data.length;
+    int width = data[0].length;
+    int tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+    int tilesDown = (height + TILE_SIZE - 1) / TILE_SIZE;
+    IntStream.range(0, tilesAcross * tilesDown).parallel().forEach(index -> {
+      int top = index / tilesAcross * TILE_SIZE;
+      int left = index % tilesAcross * TILE_SIZE;
+      int[] responses = new int[3 * kernels.length];
+      int[][][] rows = new int[taps][][];
+      for (int r = top; r < Math.min(top + TILE_SIZE, height); r++) {
+        for (int t = 0; t < taps; t++) {
+          rows[t] = data[Math.min(Math.max(r + rowOffsets[t], 0), height - 1)];
+        }
+        for (int c = left; c < Math.min(left + TILE_SIZE, width); c++) {
+          Arrays.fill(responses, 0);
+          boolean inside = c >= half && c < width - half;
+          for (int t = 0; t < taps; t++) {
+            int column = c + columnOffsets[t];
+            if (!inside) {
+              column = Math.min(Math.max(column, 0), width - 1);
+            }
+            int[] pixel = rows[t][column];
+            int[] tap = weights[t];
+            for (int k = 0; k < tap.length; k++) {
+              responses[3 * k] += tap[k] * pixel[0];
+              responses[3 * k + 1] += tap[k] * pixel[1];
+              responses[3 * k + 2] += tap[k] * pixel[2];
+            }
+          }
+          combiner.combine(responses, dst[r][c]);
+        }
+      }
+    });
+  }
+
+  /**
+   * Return the combination of two derivative filters into the magnitude of the gradient of every
+   * channel, divided by scale, rounded and clamped between 0 and 255.
+   *
+   * @param scale the largest derivative of an image of values between 0 and 1.
+   * @return the combination of the responses of the horizontal and the vertical filter.
+   */
+  static Combiner magnitude(int scale) {
+    return (responses, target) -> {
+      for (int channel = 0; channel < 3; channel++) {
+        double dx = responses[channel];
+        double dy = responses[3 + channel];
+        target[channel] = Math.min(255, (int) Math.round(Math.sqrt(dx * dx + dy * dy) / scale));
+      }
+    };
+  }
+
+  /**
+   * Return the combination of two derivative filters into the gradient of the greyscale image,
+   * shown as a color: the direction of the gradient gives the hue, and its magnitude, divided by
+   * scale, the brightness. The greyscale derivatives are the derivatives of the channels weighted
+   * as in ColorConverter.GREYSCALE.
+   *
+   * @param scale the largest derivative of an image of values between 0 and 1.
+   * @return the combination of the responses of the horizontal and the vertical filter.
+   */
+  static Combiner direction(int scale) {
+    double[] luma = ColorConverter.GREYSCALE.getData()[0];
+    return (responses, target) -> {
+      double dx = luma[0] * responses[0] + luma[1] * responses[1] + luma[2] * responses[2];
+      double dy = luma[0] * responses[3] + luma[1] * responses[4] + luma[2] * responses[5];
+      float hue = (float) ((Math.atan2(dy, dx) + Math.PI) / (2 * Math.PI));
+      float brightness = (float) Math.min(1, Math.sqrt(dx * dx + dy * dy) / scale / 255);
+      int color = Color.HSBtoRGB(hue, 1, brightness);
+      target[0] = (color >> 16) & 0xFF;
+      target[1] = (color >> 8) & 0xFF;
+      target[2] = color & 0xFF;
+    };
+  }
+}
@@ -0,0 +1,34 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * This class represents the Java Flight Recorder event emitted for every operation measured by
+ * ScriptMetrics. The duration of the event is the wall time of the operation.
+ */
+@Name("imager.Operation")
+@Label("Image Operation")
+@Category("Image Processing")
+@Description("One command of a batch script, or the decode or encode of an image file.")
+class OperationEvent extends Event {
+  @Label("Operation")
+  String operation;
+
+  @Label("CPU Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long cpuTime;
+
+  @Label("Allocated")
+  @DataAmount
+  long allocated;
+
+  @Label("Input Megapixels")
+  double inputMegapixels;
+
+  @Label("Output Megapixels")
+  double outputMegapixels;
+}
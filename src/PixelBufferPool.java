@@ -0,0 +1,250 @@
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * This class represents a pool of pixel buffers, the int[height][width][3] arrays of ImageImpl.
+ * Buffers are kept in one free list per size, so an operation whose result has the size of an
+ * intermediate image given back earlier reuses its buffer, with all of its pixel arrays, instead of
+ * allocating a new one. A batch-scrip chaining operations on images of the same size then reaches
+ * a steady state where no buffer is allocated any more.
+ *
+ * <p>The pool only takes back the buffers it handed out, and only once. A buffer which is shared,
+ * for example by a cache which may hand its image to several callers, is never taken back. A
+ * buffer lent to a cache for a while is taken back once both the cache and its owner are done with
+ * it, whichever comes last. The free buffers are bounded by a budget in bytes,
+ * "imager.pool.budget" (256 MB by default); buffers given back over the budget are left to the
+ * garbage collector. All the methods are thread safe.
+ */
+final class PixelBufferPool {
+  /**
+   * Default budget of the free buffers, in bytes.
+   */
+  static final long DEFAULT_BUDGET = 256L * 1024 * 1024;
+
+  private static final PixelBufferPool SHARED = new PixelBufferPool(
+          Long.getLong("imager.pool.budget", DEFAULT_BUDGET));
+
+  private final Map<Long, Deque<int[][][]>> free = new HashMap<>();
+  //arrays are compared by identity, so this is a set of the very buffers handed out. It does not
+  //keep them alive: a buffer which is never given back is simply collected.
+  private final Set<int[][][]> handedOut = Collections.newSetFromMap(new WeakHashMap<>());
+  //the buffers lent to a cache, mapped to true once their owner released them.
+  private final Map<int[][][], Boolean> lent = new WeakHashMap<>();
+  private final long budget;
+  private long freeBytes;
+  private long allocations;
+  private long reuses;
+
+  /**
+   * Constructor of a PixelBufferPool with the given budget.
+   *
+   * @param budget maximum estimated size in bytes of the free buffers kept.
+   * @throws IllegalArgumentException if budget is negative.
+   */
+  PixelBufferPool(long budget) throws IllegalArgumentException {
+    if (budget < 0) {
+      throw new IllegalArgumentException("Pool budget can not be negative.");
+    }
+    this.budget = budget;
+  }
+
+  /**
+   * Return the pool used by every image operation.
+   *
+   * @return the shared pool.
+   */
+  static PixelBufferPool shared() {
+    return SHARED;
+  }
+
+  /**
+   * Return a buffer of the given size, reused if one is free. A reused buffer still holds the
+   * pixels of its previous image, so the caller must write every value of it.
+   *
+   * @param height number of rows.
+   * @param width  number of columns.
+   * @return a buffer of height * width pixels of [r, g, b].
+   * @throws IllegalArgumentException if height or width is negative.
+   */
+  int[][][] acquire(int height, int width) throws IllegalArgumentException {
+    if (height < 0 || width < 0) {
+      throw new IllegalArgumentException("Height and width can not be negative.");
+    }
+    int[][][] buffer = null;
+    synchronized (this) {
+      Deque<int[][][]> buffers = free.get(sizeClass(height, width));
+      if (buffers != null && !buffers.isEmpty()) {
+        buffer = buffers.pop();
+        freeBytes -= estimateBytes(height, width);
+        reuses++;
+      } else {
+        allocations++;
+      }
+    }
+    if (buffer == null) {
+      buffer = new int[height][width][3];
+    }
+    synchronized (this) {
+      handedOut.add(buffer);
+    }
+    return buffer;
+  }
+
+  /**
+   * Give back the buffer of an image which is no longer used by anyone. The pool only takes back a
+   * buffer it handed out and which was not shared; other images are ignored. A buffer lent to a
+   * cache is only taken back when the cache gives it back.
+   *
+   * @param image the image, which must not be used any more if its buffer is taken back.
+   * @return true if the buffer was taken back.
+   */
+  boolean release(Image image) {
+    int[][][] buffer = bufferOf(image);
+    if (buffer == null) {
+      return false;
+    }
+    synchronized (this) {
+      if (lent.containsKey(buffer)) {
+        lent.put(buffer, true);
+        return false;
+      }
+      if (!handedOut.remove(buffer)) {
+        return false;
+      }
+      takeBack(buffer);
+      return true;
+    }
+  }
+
+  /**
+   * Mark the buffer of an image as shared, so that it is never taken back. Used when the image is
+   * kept by a cache.
+   *
+   * @param image the image.
+   */
+  void share(Image image) {
+    int[][][] buffer = bufferOf(image);
+    if (buffer == null) {
+      return;
+    }
+    synchronized (this) {
+      handedOut.remove(buffer);
+      lent.remove(buffer);
+    }
+  }
+
+  /**
+   * Lend the buffer of an image to a cache which keeps the image until it has a copy of its own.
+   * Until the cache gives it back, a release by its owner is only remembered. Images whose buffer
+   * was not handed out, or is already shared, are ignored.
+   *
+   * @param image the image.
+   */
+  void lend(Image image) {
+    int[][][] buffer = bufferOf(image);
+    if (buffer == null) {
+      return;
+    }
+    synchronized (this) {
+      if (handedOut.remove(buffer)) {
+        lent.put(buffer, false);
+      }
+    }
+  }
+
+  /**
+   * End the loan of the buffer of an image: the buffer is taken back if its owner released it in
+   * the meantime, otherwise its owner may release it as usual. A loan which ended because the
+   * buffer was shared meanwhile is not ended again.
+   *
+   * @param image the image.
+   */
+  void giveBack(Image image) {
+    int[][][] buffer = bufferOf(image);
+    if (buffer == null) {
+      return;
+    }
+    synchronized (this) {
+      Boolean released = lent.remove(buffer);
+      if (released == null) {
+        return;
+      }
+      if (released) {
+        takeBack(buffer);
+      } else {
+        handedOut.add(buffer);
+      }
+    }
+  }
+
+  /**
+   * Return the number of buffers allocated by acquire.
+   *
+   * @return the number of buffers allocated.
+   */
+  synchronized long getAllocations() {
+    return allocations;
+  }
+
+  /**
+   * Return the number of buffers reused by acquire.
+   *
+   * @return the number of buffers reused.
+   */
+  synchronized long getReuses() {
+    return reuses;
+  }
+
+  /**
+   * Put a buffer no longer used by anyone in its free list, unless the free buffers would exceed
+   * the budget. Must be called while holding the lock of this pool.
+   *
+   * @param buffer the buffer.
+   */
+  private void takeBack(int[][][] buffer) {
+    int height = buffer.length;
+    int width = height == 0 ? 0 : buffer[0].length;
+    long bytes = estimateBytes(height, width);
+    if (freeBytes + bytes <= budget) {
+      free.computeIfAbsent(sizeClass(height, width), k -> new ArrayDeque<>()).push(buffer);
+      freeBytes += bytes;
+    }
+  }
+
+  /**
+   * Return the buffer of an image, or null if the image is not backed by a buffer.
+   *
+   * @param image the image.
+   * @return the buffer of the image, or null.
+   */
+  private static int[][][] bufferOf(Image image) {
+    return image instanceof ImageImpl ? ((ImageImpl) image).pixels() : null;
+  }
+
+  /**
+   * Return the key of the free list of the buffers of the given size.
+   *
+   * @param height number of rows.
+   * @param width  number of columns.
+   * @return the key of the size.
+   */
+  private static long sizeClass(int height, int width) {
+    return ((long) height << 32) | width;
+  }
+
+  /**
+   * Return an estimate of the memory used by a buffer, in bytes, as ResultCache.estimateBytes.
+   *
+   * @param height number of rows.
+   * @param width  number of columns.
+   * @return an estimate of the memory used by the buffer, in bytes.
+   */
+  private static long estimateBytes(int height, int width) {
+    return (long) height * width * 36 + 64;
+  }
+}
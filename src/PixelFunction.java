@@ -0,0 +1,15 @@
+/**
+ * This interface represents a pure function from a pixel position to its color. It is used to
+ * describe generated images (flags, checkerboards...) without storing their pixels.
+ */
+public interface PixelFunction {
+  /**
+   * Return the color of the pixel in position (row, column), packed into one int as 0xRRGGBB.
+   * The same position must always give the same color.
+   *
+   * @param row    row number of the pixel.
+   * @param column column number of the pixel.
+   * @return the [r, g, b] of the pixel packed into one int.
+   */
+  int rgb(int row, int column);
+}
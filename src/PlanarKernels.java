@@ -0,0 +1,719 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * This class contains the planar engine of the Filter convolution and the ColorConverter matrix.
+ * The pixels are first split into one contiguous double array per channel, so that every inner
+ * loop is a branch-free multiply-add over consecutive elements which the JIT compiles to SIMD
+ * instructions (8 doubles per instruction with AVX-512).
+ *
+ * <p>The engines dispatched to by KernelAnalysis do not add up the products in the same order as
+ * the scalar code of ImageImpl: symmetric filters add the pixels sharing a weight first,
+ * separable filters are two 1D passes and large filters go through the FFT. The sums only
+ * differ in their last bits, which rounding to 0..255 discards, so the images are the same but
+ * for a sum lying exactly halfway between two integers, which may round either way and differ by
+ * 1. The engine can be turned off with the system property "imager.engine=scalar", in which case
+ * ImageImpl uses its scalar loops.
+ *
+ * <p>The loops are left to the JIT to vectorize rather than written with the jdk.incubator.vector
+ * API. That module is not resolved by default: every javac and java command would need
+ * --add-modules jdk.incubator.vector, which the manifest of the jar can not provide, and the
+ * incubating API changes from one JDK release to the next.
+ *
+ * <p>Nothing is allocated while pixels are computed: results are written into a destination array
+ * supplied by the caller, and a convolution only keeps in its scratch rows the window of rows the
+ * filter covers, which slides down the image one row at a time. The scratch rows belong to the
+ * thread and are reused from one call to the next. Bands of rows are processed in parallel.
+ */
+final class PlanarKernels {
+
+  private static final boolean ENABLED = !"scalar".equals(System.getProperty("imager.engine"));
+
+  /**
+   * Smallest number of rows processed by one task. A band of a convolution is at least twice as
+   * high as the filter, so that filling the window of its first row costs less than the band.
+   */
+  private static final int ROW_BAND = 64;
+
+  private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+  /**
+   * This class only contains static methods.
+   */
+  private PlanarKernels() {
+  }
+
+  /**
+   * Return true if the planar engine is to be used instead of the scalar code.
+   *
+   * @return true if the planar engine is enabled.
+   */
+  static boolean isEnabled() {
+    return ENABLED;
+  }
+
+  /**
+   * Write into dst the image convolved with the filter matrix. Pixels outside of the image count as
+   * 0, then every result is rounded and clamped between 0 and 255.
+   *
+   * @param data   the image as a 3D array of [r, g, b].
+   * @param filter a square filter matrix with odd dimension.
+   * @param fold   true if the filter is unchanged when flipped horizontally and vertically, in
+   *               which case the rows, then the pixels, sharing a weight are added before being
+   *               multiplied.
+   * @param dst    the destination, an array of the same size as data which is not data.
+   * @throws IllegalArgumentException if dst is data or does not have the size of data.
+   */
+  static void convolve(int[][][] data, double[][] filter, boolean fold, int[][][] dst)
+          throws IllegalArgumentException {
+    checkDestination(data, dst);
+    int height = data.length;
+    int width = data[0].length;
+    int size = filter.length;
+    int half = size / 2;
+    //every row of the window is surrounded by zeros as wide as half the filter, so that no tap has
+    //to check the boundary of the image.
+    int paddedWidth = width + 2 * half;
+
+    forEachBand(height, size, (top, bottom) -> {
+      Scratch scratch = SCRATCH.get();
+      double[] window = scratch.window(size * paddedWidth);
+      double[] line = scratch.line(paddedWidth);
+      double[] accumulator = scratch.accumulator(width);
+      for (int channel = 0; channel < 3; channel++) {
+        for (int r = top - half; r < top + half; r++) {
+          loadRow(data, r, channel, window, slot(r, size) * paddedWidth, half);
+        }
+        for (int r = top; r < bottom; r++) {
+          loadRow(data, r + half, channel, window, slot(r + half, size) * paddedWidth, half);
+          Arrays.fill(accumulator, 0, width, 0);
+          if (fold) {
+            for (int i = 0; i < half; i++) {
+              int upper = slot(r - half + i, size) * paddedWidth;
+              int lower = slot(r + half - i, size) * paddedWidth;
+              for (int c = 0; c < paddedWidth; c++) {
+                line[c] = window[upper + c] + window[lower + c];
+              }
+              foldedRow(accumulator, line, 0, filter[i], width);
+            }
+            foldedRow(accumulator, window, slot(r, size) * paddedWidth, filter[half], width);
+          } else {
+            for (int i = 0; i < size; i++) {
+              int rowStart = slot(r - half + i, size) * paddedWidth;
+              for (int j = 0; j < size; j++) {
+                multiplyAdd(accumulator, 0, window, rowStart + j, filter[i][j], width);
+              }
+            }
+          }
+          int[][] dstRow = dst[r];
+          for (int c = 0; c < width; c++) {
+            dstRow[c][channel] = clamp(accumulator[c]);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Write into dst the image convolved with the separable filter column * row, as a horizontal pass
+   * with the row followed by a vertical pass with the column. Pixels outside of the image count as
+   * 0, then every result is rounded and clamped between 0 and 255.
+   *
+   * @param data    the image as a 3D array of [r, g, b].
+   * @param column  the column factor of the filter, of odd length.
+   * @param row     the row factor of the filter, as long as column.
+   * @param foldRow true if row reads the same in both directions, in which case the pixels
+   *                sharing a weight are added before being multiplied.
+   * @param dst     the destination, an array of the same size as data which is not data.
+   * @throws IllegalArgumentException if dst is data or does not have the size of data.
+   */
+  static void convolveSeparable(int[][][] data, double[] column, double[] row, boolean foldRow,
+                                int[][][] dst) throws IllegalArgumentException {
+    checkDestination(data, dst);
+    int height = data.length;
+    int width = data[0].length;
+    int size = row.length;
+    int half = size / 2;
+    int paddedWidth = width + 2 * half;
+
+    forEachBand(height, size, (top, bottom) -> {
+      Scratch scratch = SCRATCH.get();
+      //the window holds the result of the horizontal pass for the rows the column covers.
+      double[] window = scratch.window(size * width);
+      double[] line = scratch.line(paddedWidth);
+      double[] accumulator = scratch.accumulator(width);
+      for (int channel = 0; channel < 3; channel++) {
+        for (int r = top - half; r < top + half; r++) {
+          filterRow(data, r, channel, row, foldRow, line, window, slot(r, size) * width);
+        }
+        for (int r = top; r < bottom; r++) {
+          filterRow(data, r + half, channel, row, foldRow, line, window,
+                  slot(r + half, size) * width);
+          Arrays.fill(accumulator, 0, width, 0);
+          for (int i = 0; i < size; i++) {
+            multiplyAdd(accumulator, 0, window, slot(r - half + i, size) * width, column[i],
+                    width);
+          }
+          int[][] dstRow = dst[r];
+          for (int c = 0; c < width; c++) {
+            dstRow[c][channel] = clamp(accumulator[c]);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Write into dst the image convolved with a filter of integer weights, computed with exact int
+   * arithmetic. Pixels outside of the image count as 0, then every result is clamped between 0
+   * and 255. The weights must be small enough for no sum to overflow an int.
+   *
+   * @param data    the image as a 3D array of [r, g, b].
+   * @param weights a square filter matrix of integers with odd dimension.
+   * @param fold    true if the filter is unchanged when flipped horizontally and vertically, in
+   *                which case the rows, then the pixels, sharing a weight are added before being
+   *                multiplied.
+   * @param dst     the destination, an array of the same size as data which is not data.
+   * @throws IllegalArgumentException if dst is data or does not have the size of data.
+   */
+  static void convolveInteger(int[][][] data, int[][] weights, boolean fold, int[][][] dst)
+          throws IllegalArgumentException {
+    checkDestination(data, dst);
+    int height = data.length;
+    int width = data[0].length;
+    int size = weights.length;
+    int half = size / 2;
+    int paddedWidth = width + 2 * half;
+
+    forEachBand(height, size, (top, bottom) -> {
+      Scratch scratch = SCRATCH.get();
+      int[] window = scratch.intWindow(size * paddedWidth);
+      int[] line = scratch.intLine(paddedWidth);
+      int[] accumulator = scratch.intAccumulator(width);
+      for (int channel = 0; channel < 3; channel++) {
+        for (int r = top - half; r < top + half; r++) {
+          loadRow(data, r, channel, window, slot(r, size) * paddedWidth, half);
+        }
+        for (int r = top; r < bottom; r++) {
+          loadRow(data, r + half, channel, window, slot(r + half, size) * paddedWidth, half);
+          Arrays.fill(accumulator, 0, width, 0);
+          if (fold) {
+            for (int i = 0; i < half; i++) {
+              int upper = slot(r - half + i, size) * paddedWidth;
+              int lower = slot(r + half - i, size) * paddedWidth;
+              for (int c = 0; c < paddedWidth; c++) {
+                line[c] = window[upper + c] + window[lower + c];
+              }
+              foldedRow(accumulator, line, 0, weights[i], width);
+            }
+            foldedRow(accumulator, window, slot(r, size) * paddedWidth, weights[half], width);
+          } else {
+            for (int i = 0; i < size; i++) {
+              int rowStart = slot(r - half + i, size) * paddedWidth;
+              for (int j = 0; j < size; j++) {
+                int weight = weights[i][j];
+                int offset = rowStart + j;
+                for (int c = 0; c < width; c++) {
+                  accumulator[c] += weight * window[offset + c];
+                }
+              }
+            }
+          }
+          int[][] dstRow = dst[r];
+          for (int c = 0; c < width; c++) {
+            dstRow[c][channel] = Math.min(Math.max(accumulator[c], 0), 255);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Write into dst the image with every pixel multiplied by the color converting matrix. Every
+   * result is rounded and clamped between 0 and 255. Since a pixel only depends on itself, dst may
+   * be data.
+   *
+   * @param data   the image as a 3D array of [r, g, b].
+   * @param matrix a 3*3 color converting matrix.
+   * @param dst    the destination, an array of the same size as data.
+   * @throws IllegalArgumentException if dst does not have the size of data.
+   */
+  static void colorMatrix(int[][][] data, double[][] matrix, int[][][] dst)
+          throws IllegalArgumentException {
+    checkSize(data, dst);
+    int height = data.length;
+    int width = data[0].length;
+
+    forEachBand(height, 1, (top, bottom) -> {
+      Scratch scratch = SCRATCH.get();
+      double[] line = scratch.line(3 * width);
+      double[] converted = scratch.accumulator(width);
+      for (int r = top; r < bottom; r++) {
+        loadChannels(data[r], line, width);
+        int[][] dstRow = dst[r];
+        for (int channel = 0; channel < 3; channel++) {
+          convertRow(line, width, matrix[channel], converted);
+          for (int c = 0; c < width; c++) {
+            dstRow[c][channel] = clamp(converted[c]);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Write into dst the image with every pixel converted by a diagonal color converting matrix,
+   * through one lookup table of the 256 possible values per channel. Gives the same result as
+   * colorMatrix, and dst may be data as well.
+   *
+   * @param data   the image as a 3D array of [r, g, b].
+   * @param matrix a 3*3 color converting matrix which is 0 outside of its diagonal.
+   * @param dst    the destination, an array of the same size as data.
+   * @throws IllegalArgumentException if dst does not have the size of data.
+   */
+  static void colorLookup(int[][][] data, double[][] matrix, int[][][] dst)
+          throws IllegalArgumentException {
+    int[][] tables = new int[3][256];
+    for (int channel = 0; channel < 3; channel++) {
+      for (int v = 0; v < 256; v++) {
+        tables[channel][v] = clamp(matrix[channel][channel] * v);
+      }
+    }
+    colorTables(data, tables, dst);
+  }
+
+  /**
+   * Write into dst the image with every value of every channel replaced by its entry in the
+   * lookup table of the channel, such as the tables of a diagonal color matrix or of
+   * ImageStatistics. dst may be data as well.
+   *
+   * @param data   the image as a 3D array of [r, g, b].
+   * @param tables one table of 256 values between 0 and 255 per channel.
+   * @param dst    the destination, an array of the same size as data.
+   * @throws IllegalArgumentException if dst does not have the size of data.
+   */
+  static void colorTables(int[][][] data, int[][] tables, int[][][] dst)
+          throws IllegalArgumentException {
+    checkSize(data, dst);
+    int height = data.length;
+    int width = data[0].length;
+    forEachBand(height, 1, (top, bottom) -> {
+      for (int r = top; r < bottom; r++) {
+        for (int c = 0; c < width; c++) {
+          int[] pixel = data[r][c];
+          int[] target = dst[r][c];
+          for (int channel = 0; channel < 3; channel++) {
+            target[channel] = tables[channel][pixel[channel]];
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Write into dst the image with every pixel converted by a color converting matrix whose three
+   * rows are identical, such as the greyscale matrix. The value is computed once and copied to the
+   * three channels. Gives the same result as colorMatrix, and dst may be data as well.
+   *
+   * @param data   the image as a 3D array of [r, g, b].
+   * @param matrix a 3*3 color converting matrix with three identical rows.
+   * @param dst    the destination, an array of the same size as data.
+   * @throws IllegalArgumentException if dst does not have the size of data.
+   */
+  static void colorSharedRow(int[][][] data, double[][] matrix, int[][][] dst)
+          throws IllegalArgumentException {
+    checkSize(data, dst);
+    int height = data.length;
+    int width = data[0].length;
+
+    forEachBand(height, 1, (top, bottom) -> {
+      Scratch scratch = SCRATCH.get();
+      double[] line = scratch.line(3 * width);
+      double[] converted = scratch.accumulator(width);
+      for (int r = top; r < bottom; r++) {
+        loadChannels(data[r], line, width);
+        convertRow(line, width, matrix[0], converted);
+        int[][] dstRow = dst[r];
+        for (int c = 0; c < width; c++) {
+          int value = clamp(converted[c]);
+          dstRow[c][0] = value;
+          dstRow[c][1] = value;
+          dstRow[c][2] = value;
+        }
+      }
+    });
+  }
+
+  /**
+   * This interface represents the work done on one band of rows.
+   */
+  private interface BandTask {
+
+    /**
+     * Process the rows from top to bottom.
+     *
+     * @param top    first row of the band.
+     * @param bottom row after the last row of the band.
+     */
+    void run(int top, int bottom);
+  }
+
+  /**
+   * Split the rows of the image into bands and process them in parallel.
+   *
+   * @param height number of rows of the image.
+   * @param size   number of rows the filter covers, 1 for a color matrix.
+   * @param task   the work done on every band.
+   */
+  private static void forEachBand(int height, int size, BandTask task) {
+    int band = Math.max(ROW_BAND, 2 * size);
+    int bands = (height + band - 1) / band;
+    IntStream.range(0, bands).parallel()
+            .forEach(b -> task.run(b * band, Math.min(height, (b + 1) * band)));
+  }
+
+  /**
+   * Return the index of the window slot holding the given row, for a window of size rows.
+   *
+   * @param row  the row, which may be outside of the image.
+   * @param size number of rows of the window.
+   * @return the index of the slot holding the row.
+   */
+  private static int slot(int row, int size) {
+    return Math.floorMod(row, size);
+  }
+
+  /**
+   * Copy one channel of a row of the image into target, between two borders of zeros. A row
+   * outside of the image is all zeros.
+   *
+   * @param data    the image as a 3D array of [r, g, b].
+   * @param row     the row, which may be outside of the image.
+   * @param channel index of the channel (0 for r, 1 for g, 2 for b).
+   * @param target  the array to copy to.
+   * @param offset  index in target of the left border.
+   * @param border  width of the border of zeros on each side.
+   */
+  private static void loadRow(int[][][] data, int row, int channel, double[] target, int offset,
+                              int border) {
+    int width = data[0].length;
+    if (row < 0 || row >= data.length) {
+      Arrays.fill(target, offset, offset + width + 2 * border, 0);
+      return;
+    }
+    int[][] pixels = data[row];
+    Arrays.fill(target, offset, offset + border, 0);
+    for (int c = 0; c < width; c++) {
+      target[offset + border + c] = pixels[c][channel];
+    }
+    Arrays.fill(target, offset + border + width, offset + width + 2 * border, 0);
+  }
+
+  /**
+   * Copy one channel of a row of the image into target, between two borders of zeros. A row
+   * outside of the image is all zeros.
+   *
+   * @param data    the image as a 3D array of [r, g, b].
+   * @param row     the row, which may be outside of the image.
+   * @param channel index of the channel (0 for r, 1 for g, 2 for b).
+   * @param target  the array to copy to.
+   * @param offset  index in target of the left border.
+   * @param border  width of the border of zeros on each side.
+   */
+  private static void loadRow(int[][][] data, int row, int channel, int[] target, int offset,
+                              int border) {
+    int width = data[0].length;
+    if (row < 0 || row >= data.length) {
+      Arrays.fill(target, offset, offset + width + 2 * border, 0);
+      return;
+    }
+    int[][] pixels = data[row];
+    Arrays.fill(target, offset, offset + border, 0);
+    for (int c = 0; c < width; c++) {
+      target[offset + border + c] = pixels[c][channel];
+    }
+    Arrays.fill(target, offset + border + width, offset + width + 2 * border, 0);
+  }
+
+  /**
+   * Write into window, from offset, one channel of a row of the image filtered with the row factor
+   * of a separable filter. A row outside of the image gives zeros.
+   *
+   * @param data    the image as a 3D array of [r, g, b].
+   * @param r       the row, which may be outside of the image.
+   * @param channel index of the channel (0 for r, 1 for g, 2 for b).
+   * @param row     the row factor of the filter.
+   * @param foldRow true if row reads the same in both directions.
+   * @param line    scratch row of at least width + row.length - 1 values.
+   * @param window  the array to write to.
+   * @param offset  index in window of the first value written.
+   */
+  private static void filterRow(int[][][] data, int r, int channel, double[] row, boolean foldRow,
+                                double[] line, double[] window, int offset) {
+    int width = data[0].length;
+    int half = row.length / 2;
+    if (r < 0 || r >= data.length) {
+      Arrays.fill(window, offset, offset + width, 0);
+      return;
+    }
+    loadRow(data, r, channel, line, 0, half);
+    if (foldRow) {
+      double center = row[half];
+      for (int c = 0; c < width; c++) {
+        window[offset + c] = center * line[half + c];
+      }
+      for (int k = 1; k <= half; k++) {
+        double weight = row[half - k];
+        int left = half - k;
+        int right = half + k;
+        for (int c = 0; c < width; c++) {
+          window[offset + c] += weight * (line[left + c] + line[right + c]);
+        }
+      }
+    } else {
+      Arrays.fill(window, offset, offset + width, 0);
+      for (int j = 0; j < row.length; j++) {
+        multiplyAdd(window, offset, line, j, row[j], width);
+      }
+    }
+  }
+
+  /**
+   * Copy the three channels of a row of pixels into line, as three consecutive planes of width
+   * values: r, then g, then b.
+   *
+   * @param pixels the row of pixels.
+   * @param line   the array to copy to, of at least 3 * width values.
+   * @param width  number of pixels.
+   */
+  private static void loadChannels(int[][] pixels, double[] line, int width) {
+    for (int c = 0; c < width; c++) {
+      int[] pixel = pixels[c];
+      line[c] = pixel[0];
+      line[width + c] = pixel[1];
+      line[2 * width + c] = pixel[2];
+    }
+  }
+
+  /**
+   * Write into converted the product of one row of a color matrix with every pixel of line.
+   *
+   * @param line      three consecutive planes of width values, as filled by loadChannels.
+   * @param width     number of pixels.
+   * @param weights   one row of a color converting matrix.
+   * @param converted the array to write to.
+   */
+  private static void convertRow(double[] line, int width, double[] weights,
+                                 double[] converted) {
+    double m0 = weights[0];
+    double m1 = weights[1];
+    double m2 = weights[2];
+    for (int c = 0; c < width; c++) {
+      converted[c] = m0 * line[c] + m1 * line[width + c] + m2 * line[2 * width + c];
+    }
+  }
+
+  /**
+   * Add weight * source[sourceOffset + c] to accumulator[accumulatorOffset + c] for every c below
+   * length.
+   *
+   * @param accumulator       the values to add to.
+   * @param accumulatorOffset index in accumulator of the first value added to.
+   * @param source            the values to multiply.
+   * @param sourceOffset      index in source of the first value multiplied.
+   * @param weight            the weight.
+   * @param length            number of values.
+   */
+  private static void multiplyAdd(double[] accumulator, int accumulatorOffset, double[] source,
+                                  int sourceOffset, double weight, int length) {
+    for (int c = 0; c < length; c++) {
+      accumulator[accumulatorOffset + c] += weight * source[sourceOffset + c];
+    }
+  }
+
+  /**
+   * Add to accumulator a padded row multiplied by a row of weights which reads the same in both
+   * directions: the two values sharing a weight are added before being multiplied.
+   *
+   * @param accumulator the width values to add to.
+   * @param source      the values of the row, padded by half the weights on both sides.
+   * @param offset      index in source of the first padding value.
+   * @param weights     the row of weights, of odd length, which reads the same in both directions.
+   * @param width       number of values.
+   */
+  private static void foldedRow(double[] accumulator, double[] source, int offset,
+                                double[] weights, int width) {
+    int half = weights.length / 2;
+    multiplyAdd(accumulator, 0, source, offset + half, weights[half], width);
+    for (int k = 1; k <= half; k++) {
+      double weight = weights[half - k];
+      if (weight == 0) {
+        continue;
+      }
+      int left = offset + half - k;
+      int right = offset + half + k;
+      for (int c = 0; c < width; c++) {
+        accumulator[c] += weight * (source[left + c] + source[right + c]);
+      }
+    }
+  }
+
+  /**
+   * Add to accumulator a padded row multiplied by a row of integer weights which reads the same in
+   * both directions: the two values sharing a weight are added before being multiplied.
+   *
+   * @param accumulator the width values to add to.
+   * @param source      the values of the row, padded by half the weights on both sides.
+   * @param offset      index in source of the first padding value.
+   * @param weights     the row of weights, of odd length, which reads the same in both directions.
+   * @param width       number of values.
+   */
+  private static void foldedRow(int[] accumulator, int[] source, int offset, int[] weights,
+                                int width) {
+    int half = weights.length / 2;
+    int center = weights[half];
+    for (int c = 0; c < width; c++) {
+      accumulator[c] += center * source[offset + half + c];
+    }
+    for (int k = 1; k <= half; k++) {
+      int weight = weights[half - k];
+      if (weight == 0) {
+        continue;
+      }
+      int left = offset + half - k;
+      int right = offset + half + k;
+      for (int c = 0; c < width; c++) {
+        accumulator[c] += weight * (source[left + c] + source[right + c]);
+      }
+    }
+  }
+
+  /**
+   * Check that dst can receive the result of a convolution of data.
+   *
+   * @param data the image as a 3D array of [r, g, b].
+   * @param dst  the destination.
+   * @throws IllegalArgumentException if dst is data or does not have the size of data.
+   */
+  private static void checkDestination(int[][][] data, int[][][] dst)
+          throws IllegalArgumentException {
+    if (dst == data) {
+      throw new IllegalArgumentException("A convolution can not be written over its source.");
+    }
+    checkSize(data, dst);
+  }
+
+  /**
+   * Check that dst has the size of data.
+   *
+   * @param data the image as a 3D array of [r, g, b].
+   * @param dst  the destination.
+   * @throws IllegalArgumentException if dst does not have the size of data.
+   */
+  static void checkSize(int[][][] data, int[][][] dst) throws IllegalArgumentException {
+    if (dst.length != data.length || dst[0].length != data[0].length) {
+      throw new IllegalArgumentException("Destination must have the size of the image.");
+    }
+  }
+
+  /**
+   * Round the value and clamp it between 0 and 255.
+   *
+   * @param value the value.
+   * @return the value rounded and clamped between 0 and 255.
+   */
+  private static int clamp(double value) {
+    return Math.min(Math.max((int) Math.round(value), 0), 255);
+  }
+
+  /**
+   * This class represents the scratch rows of one thread. Each array only grows, so that once the
+   * largest image of a batch went through, no call allocates any more.
+   */
+  private static final class Scratch {
+    private double[] window = new double[0];
+    private double[] line = new double[0];
+    private double[] accumulator = new double[0];
+    private int[] intWindow = new int[0];
+    private int[] intLine = new int[0];
+    private int[] intAccumulator = new int[0];
+
+    /**
+     * Return the window of rows, of at least length values.
+     *
+     * @param length number of values needed.
+     * @return the window of rows.
+     */
+    double[] window(int length) {
+      if (window.length < length) {
+        window = new double[length];
+      }
+      return window;
+    }
+
+    /**
+     * Return the single scratch row, of at least length values.
+     *
+     * @param length number of values needed.
+     * @return the scratch row.
+     */
+    double[] line(int length) {
+      if (line.length < length) {
+        line = new double[length];
+      }
+      return line;
+    }
+
+    /**
+     * Return the accumulator row, of at least length values.
+     *
+     * @param length number of values needed.
+     * @return the accumulator row.
+     */
+    double[] accumulator(int length) {
+      if (accumulator.length < length) {
+        accumulator = new double[length];
+      }
+      return accumulator;
+    }
+
+    /**
+     * Return the window of int rows, of at least length values.
+     *
+     * @param length number of values needed.
+     * @return the window of int rows.
+     */
+    int[] intWindow(int length) {
+      if (intWindow.length < length) {
+        intWindow = new int[length];
+      }
+      return intWindow;
+    }
+
+    /**
+     * Return the single int scratch row, of at least length values.
+     *
+     * @param length number of values needed.
+     * @return the int scratch row.
+     */
+    int[] intLine(int length) {
+      if (intLine.length < length) {
+        intLine = new int[length];
+      }
+      return intLine;
+    }
+
+    /**
+     * Return the int accumulator row, of at least length values.
+     *
+     * @param length number of values needed.
+     * @return the int accumulator row.
+     */
+    int[] intAccumulator(int length) {
+      if (intAccumulator.length < length) {
+        intAccumulator = new int[length];
+      }
+      return intAccumulator;
+    }
+  }
+}
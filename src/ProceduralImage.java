@@ -0,0 +1,165 @@
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * This class represents an Image defined by a PixelFunction instead of stored pixels. Pixels are
+ * evaluated on demand one square tile at a time, and the evaluated tiles are kept in a bounded
+ * least-recently-used cache. Reading the whole image (getData, getBufferImage, or any operation)
+ * evaluates all the tiles in parallel.
+ */
+public class ProceduralImage extends AbstractImage {
+  /**
+   * Width and height of a tile in pixels.
+   */
+  static final int TILE_SIZE = 64;
+
+  /**
+   * Maximum number of evaluated tiles kept in the cache of one image.
+   */
+  private static final int MAX_CACHED_TILES = 256;
+
+  private final int height;
+  private final int width;
+  private final int tilesAcross;
+  private final PixelFunction function;
+  private final Map<Integer, int[]> tiles;
+
+  /**
+   * Constructor that takes in the size of the image and the function giving the color of each
+   * pixel. Nothing is evaluated until a pixel is read.
+   *
+   * @param height   height of the image.
+   * @param width    width of the image.
+   * @param function function giving the color of each pixel.
+   * @throws IllegalArgumentException if height or width is not positive.
+   */
+  public ProceduralImage(int height, int width, PixelFunction function)
+          throws IllegalArgumentException {
+    if (height < 1 || width < 1) {
+      throw new IllegalArgumentException("Height and width must be positive.");
+    }
+    this.height = height;
+    this.width = width;
+    this.tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+    this.function = function;
+    this.tiles = new LinkedHashMap<Integer, int[]>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, int[]> eldest) {
+        return size() > MAX_CACHED_TILES;
+      }
+    };
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getRGB(int row, int column) {
+    int tileRow = row / TILE_SIZE;
+    int tileColumn = column / TILE_SIZE;
+    int[] tile = getTile(tileRow * tilesAcross + tileColumn);
+    return tile[(row - tileRow * TILE_SIZE) * TILE_SIZE + column - tileColumn * TILE_SIZE];
+  }
+
+  @Override
+  public int[][][] getData() {
+    int[][][] result = new int[height][width][3];
+    forEachTile((r, c, color) -> {
+      result[r][c][0] = (color >> 16) & 0xFF;
+      result[r][c][1] = (color >> 8) & 0xFF;
+      result[r][c][2] = color & 0xFF;
+    });
+    return result;
+  }
+
+  @Override
+  public BufferedImage getBufferImage() {
+    int[] packed = new int[height * width];
+    forEachTile((r, c, color) -> packed[r * width + c] = color);
+    BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    output.setRGB(0, 0, width, height, packed, 0, width);
+    return output;
+  }
+
+  /**
+   * This interface represents the consumer of the pixels visited by forEachTile.
+   */
+  private interface PixelConsumer {
+    /**
+     * Accept the color of the pixel in position (r, c).
+     *
+     * @param r     row number of the pixel.
+     * @param c     column number of the pixel.
+     * @param color the [r, g, b] of the pixel packed into one int.
+     */
+    void accept(int r, int c, int color);
+  }
+
+  /**
+   * Visit every pixel of the image, tile by tile, with the tiles processed in parallel. Tiles which
+   * are already cached are read from the cache, the others are evaluated without being cached so
+   * that reading a large image does not flush the cache.
+   *
+   * @param consumer consumer of the pixels, called concurrently for different tiles.
+   */
+  private void forEachTile(PixelConsumer consumer) {
+    int tilesDown = (height + TILE_SIZE - 1) / TILE_SIZE;
+    IntStream.range(0, tilesDown * tilesAcross).parallel().forEach(index -> {
+      int[] cached;
+      synchronized (tiles) {
+        cached = tiles.get(index);
+      }
+      int top = (index / tilesAcross) * TILE_SIZE;
+      int left = (index % tilesAcross) * TILE_SIZE;
+      int bottom = Math.min(top + TILE_SIZE, height);
+      int right = Math.min(left + TILE_SIZE, width);
+      for (int r = top; r < bottom; r++) {
+        for (int c = left; c < right; c++) {
+          int color = cached == null ? function.rgb(r, c)
+                  : cached[(r - top) * TILE_SIZE + c - left];
+          consumer.accept(r, c, color);
+        }
+      }
+    });
+  }
+
+  /**
+   * Return the evaluated tile with the given index, evaluating and caching it if necessary.
+   *
+   * @param index index of the tile, counted row by row.
+   * @return the packed colors of the tile, row by row with TILE_SIZE colors per row.
+   */
+  private int[] getTile(int index) {
+    int[] tile;
+    synchronized (tiles) {
+      tile = tiles.get(index);
+    }
+    if (tile != null) {
+      return tile;
+    }
+    //evaluate outside of the lock, the function is pure so a concurrent duplicate is harmless.
+    tile = new int[TILE_SIZE * TILE_SIZE];
+    int top = (index / tilesAcross) * TILE_SIZE;
+    int left = (index % tilesAcross) * TILE_SIZE;
+    int bottom = Math.min(top + TILE_SIZE, height);
+    int right = Math.min(left + TILE_SIZE, width);
+    for (int r = top; r < bottom; r++) {
+      for (int c = left; c < right; c++) {
+        tile[(r - top) * TILE_SIZE + c - left] = function.rgb(r, c);
+      }
+    }
+    synchronized (tiles) {
+      tiles.put(index, tile);
+    }
+    return tile;
+  }
+}
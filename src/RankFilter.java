@@ -0,0 +1,275 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * This class contains the rank filters of any radius: every value of every channel is replaced by
+ * the value of a given rank among the values of the square of 2 * radius + 1 pixels centered on
+ * it, the median for a median filter, the smallest for an erosion and the largest for a dilation.
+ * Near the border only the pixels inside the image are counted, as in the box blur.
+ *
+ * <p>The values are counted in sliding histograms (S. Perreault and P. Hebert, "Median Filtering
+ * in Constant Time", 2007). Every column keeps the histogram of its 2 * radius + 1 values around
+ * the current row, updated by one removal and one addition when the row moves down, and the
+ * histogram of the square is the sum of the column histograms, updated by adding one column
+ * histogram and removing another when the square moves right. Histograms have 16 coarse bins of
+ * 16 values each: the square always keeps its coarse bins up to date, which finds the coarse bin
+ * of the rank in 16 steps, but only brings the 16 values of that bin up to date when the rank
+ * falls in it. The cost per pixel therefore does not depend on the radius.
+ *
+ * <p>Bands of rows are filtered in parallel, each with column histograms of its own.
+ */
+final class RankFilter {
+
+  /**
+   * Smallest number of rows filtered by one task. A band is at least twice as high as the square,
+   * so that filling the column histograms of its first row costs less than the band.
+   */
+  private static final int ROW_BAND = 64;
+
+  /**
+   * The histograms of the thread, reused from one band and one call to the next.
+   */
+  private static final ThreadLocal<Histograms> SCRATCH = new ThreadLocal<>();
+
+  /**
+   * This enum represents the rank taken among the values of the square.
+   */
+  enum Rank {
+    /**
+     * The smallest value, an erosion.
+     */
+    MIN,
+    /**
+     * The median value, the lower one of the two middle values when there are an even number.
+     */
+    MEDIAN,
+    /**
+     * The largest value, a dilation.
+     */
+    MAX;
+
+    /**
+     * Return the index of this rank among count values sorted in increasing order.
+     *
+     * @param count number of values of the square.
+     * @return the index of the value taken.
+     */
+    int index(int count) {
+      switch (this) {
+        case MIN:
+          return 0;
+        case MAX:
+          return count - 1;
+        default:
+          return (count - 1) / 2;
+      }
+    }
+  }
+
+  /**
+   * This class only contains static methods.
+   */
+  private RankFilter() {
+  }
+
+  /**
+   * Return the image where every value of every channel is replaced by the value of the given rank
+   * in the square of 2 * radius + 1 pixels centered on it.
+   *
+   * @param data   the image as a 3D array of [r, g, b].
+   * @param radius radius of the square, 0 leaves the image unchanged.
+   * @param rank   the rank of the value taken.
+   * @return a new 3D array holding the filtered image.
+   */
+  static int[][][] filter(int[][][] data, int radius, Rank rank) {
+    int height = data.length;
+    int width = data[0].length;
+    int[][][] result = PixelBufferPool.shared().acquire(height, width);
+    int band = Math.max(ROW_BAND, 2 * (2 * radius + 1));
+    int bands = (height + band - 1) / band;
+    IntStream.range(0, bands).parallel().forEach(b -> {
+      Histograms histograms = SCRATCH.get();
+      if (histograms == null || histograms.width != width) {
+        histograms = new Histograms(width);
+        SCRATCH.set(histograms);
+      }
+      for (int channel = 0; channel < 3; channel++) {
+        histograms.filterBand(data, result, channel, radius, rank, b * band,
+                Math.min(height, (b + 1) * band));
+      }
+    });
+    return result;
+  }
+
+  /**
+   * This class represents the histograms of the band a thread is filtering: the histogram of
+   * every column and the histogram of the square.
+   */
+  private static final class Histograms {
+    private final int width;
+    private final int[] columnFine;
+    private final int[] columnCoarse;
+    private final int[] fine = new int[256];
+    private final int[] coarse = new int[16];
+    private final int[] updated = new int[16];
+
+    /**
+     * Constructor of the histograms of a band of the given width.
+     *
+     * @param width width of the image.
+     */
+    Histograms(int width) {
+      this.width = width;
+      this.columnFine = new int[width * 256];
+      this.columnCoarse = new int[width * 16];
+    }
+
+    /**
+     * Filter one channel of the rows from top to bottom.
+     *
+     * @param data    the image as a 3D array of [r, g, b].
+     * @param result  the destination, an array of the same size as data.
+     * @param channel the channel filtered.
+     * @param radius  radius of the square.
+     * @param rank    the rank of the value taken.
+     * @param top     first row of the band.
+     * @param bottom  row after the last row of the band.
+     */
+    void filterBand(int[][][] data, int[][][] result, int channel, int radius, Rank rank,
+                    int top, int bottom) {
+      int height = data.length;
+      Arrays.fill(columnFine, 0);
+      Arrays.fill(columnCoarse, 0);
+      for (int r = Math.max(0, top - radius); r < Math.min(height, top + radius + 1); r++) {
+        addRow(data[r], channel, 1);
+      }
+      for (int r = top; r < bottom; r++) {
+        int rows = Math.min(height, r + radius + 1) - Math.max(0, r - radius);
+        filterRow(result[r], channel, radius, rank, rows);
+        if (r - radius >= 0) {
+          addRow(data[r - radius], channel, -1);
+        }
+        if (r + radius + 1 < height) {
+          addRow(data[r + radius + 1], channel, 1);
+        }
+      }
+    }
+
+    /**
+     * Add the values of one row to the column histograms, or remove them.
+     *
+     * @param row     the row of [r, g, b] pixels.
+     * @param channel the channel counted.
+     * @param sign    1 to add the values, -1 to remove them.
+     */
+    private void addRow(int[][] row, int channel, int sign) {
+      for (int c = 0; c < width; c++) {
+        int value = row[c][channel];
+        columnFine[(c << 8) + value] += sign;
+        columnCoarse[(c << 4) + (value >> 4)] += sign;
+      }
+    }
+
+    /**
+     * Write the filtered values of one row, sliding the square from left to right.
+     *
+     * @param target  the destination row of [r, g, b] pixels.
+     * @param channel the channel filtered.
+     * @param radius  radius of the square.
+     * @param rank    the rank of the value taken.
+     * @param rows    number of rows of the square inside the image.
+     */
+    private void filterRow(int[][] target, int channel, int radius, Rank rank, int rows) {
+      Arrays.fill(coarse, 0);
+      //no bin of values is up to date before the first column.
+      Arrays.fill(updated, Integer.MIN_VALUE);
+      for (int c = 0; c < Math.min(width, radius + 1); c++) {
+        addCoarse(c, 1);
+      }
+      for (int c = 0; c < width; c++) {
+        if (c > 0) {
+          if (c + radius < width) {
+            addCoarse(c + radius, 1);
+          }
+          if (c - radius - 1 >= 0) {
+            addCoarse(c - radius - 1, -1);
+          }
+        }
+        int columns = Math.min(width, c + radius + 1) - Math.max(0, c - radius);
+        int index = rank.index(rows * columns);
+        int bin = 0;
+        while (index >= coarse[bin]) {
+          index -= coarse[bin];
+          bin++;
+        }
+        updateBin(bin, c, radius);
+        int value = bin << 4;
+        while (index >= fine[value]) {
+          index -= fine[value];
+          value++;
+        }
+        target[c][channel] = value;
+      }
+    }
+
+    /**
+     * Bring the 16 values of one coarse bin of the square histogram up to date for the square
+     * centered on the given column: from the column it was last brought up to date for, or from
+     * the column histograms of the square when the square has moved too far since for that to be
+     * cheaper.
+     *
+     * @param bin    the coarse bin.
+     * @param column the column the square is centered on.
+     * @param radius radius of the square.
+     */
+    private void updateBin(int bin, int column, int radius) {
+      int from = updated[bin];
+      int start = bin << 4;
+      if (from != Integer.MIN_VALUE && 2L * (column - from) <= 2 * radius + 1) {
+        for (int c = from + 1; c <= column; c++) {
+          if (c + radius < width) {
+            addValues(c + radius, start, 1);
+          }
+          if (c - radius - 1 >= 0) {
+            addValues(c - radius - 1, start, -1);
+          }
+        }
+      } else {
+        Arrays.fill(fine, start, start + 16, 0);
+        for (int c = Math.max(0, column - radius); c < Math.min(width, column + radius + 1);
+             c++) {
+          addValues(c, start, 1);
+        }
+      }
+      updated[bin] = column;
+    }
+
+    /**
+     * Add the 16 values of a coarse bin of a column histogram to the square histogram, or remove
+     * them.
+     *
+     * @param column the column.
+     * @param start  first value of the bin.
+     * @param sign   1 to add the values, -1 to remove them.
+     */
+    private void addValues(int column, int start, int sign) {
+      int offset = (column << 8) + start;
+      for (int v = 0; v < 16; v++) {
+        fine[start + v] += sign * columnFine[offset + v];
+      }
+    }
+
+    /**
+     * Add the coarse bins of a column histogram to the square histogram, or remove them.
+     *
+     * @param column the column.
+     * @param sign   1 to add the bins, -1 to remove them.
+     */
+    private void addCoarse(int column, int sign) {
+      int offset = column << 4;
+      for (int bin = 0; bin < 16; bin++) {
+        coarse[bin] += sign * columnCoarse[offset + bin];
+      }
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/**
+ * This class represents a rectangle of an image an operation is restricted to: the columns x to
+ * x + width - 1 and the rows y to y + height - 1. In a batch-scrip it follows the operation as
+ * "@x,y,width,height", e.g. "blur @10,20,100,50".
+ */
+public final class Region {
+  private final int x;
+  private final int y;
+  private final int width;
+  private final int height;
+
+  /**
+   * Constructor of a Region.
+   *
+   * @param x      first column of the rectangle.
+   * @param y      first row of the rectangle.
+   * @param width  number of columns of the rectangle.
+   * @param height number of rows of the rectangle.
+   * @throws IllegalArgumentException if x or y is negative or if width or height is not
+   *                                  positive.
+   */
+  public Region(int x, int y, int width, int height) throws IllegalArgumentException {
+    if (x < 0 || y < 0) {
+      throw new IllegalArgumentException("Region must start inside the image.");
+    }
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Width and height of a region must be positive.");
+    }
+    this.x = x;
+    this.y = y;
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * Return the Region written as "@x,y,width,height" in a batch-scrip.
+   *
+   * @param text the region, starting with '@'.
+   * @return the region.
+   * @throws IllegalArgumentException if the text is not four integers separated by commas after
+   *                                  '@', or if they are not a valid region.
+   */
+  public static Region parse(String text) throws IllegalArgumentException {
+    String[] parts = text.startsWith("@") ? text.substring(1).split(",") : new String[0];
+    if (parts.length != 4) {
+      throw new IllegalArgumentException("Region must be written @x,y,width,height");
+    }
+    int[] values = new int[4];
+    for (int i = 0; i < 4; i++) {
+      try {
+        values[i] = Integer.parseInt(parts[i].trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("'" + parts[i] + "' is not an integer in region "
+                + text);
+      }
+    }
+    return new Region(values[0], values[1], values[2], values[3]);
+  }
+
+  /**
+   * Return the first column of the rectangle.
+   *
+   * @return the first column of the rectangle.
+   */
+  public int getX() {
+    return x;
+  }
+
+  /**
+   * Return the first row of the rectangle.
+   *
+   * @return the first row of the rectangle.
+   */
+  public int getY() {
+    return y;
+  }
+
+  /**
+   * Return the number of columns of the rectangle.
+   *
+   * @return the number of columns of the rectangle.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Return the number of rows of the rectangle.
+   *
+   * @return the number of rows of the rectangle.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Check that the rectangle is inside an image of the given size.
+   *
+   * @param imageWidth  width of the image.
+   * @param imageHeight height of the image.
+   * @throws IllegalArgumentException if the rectangle goes outside the image.
+   */
+  void checkInside(int imageWidth, int imageHeight) throws IllegalArgumentException {
+    if ((long) x + width > imageWidth || (long) y + height > imageHeight) {
+      throw new IllegalArgumentException("Region " + this + " must be inside the image of "
+              + imageWidth + "*" + imageHeight + ".");
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Region)) {
+      return false;
+    }
+    Region other = (Region) o;
+    return x == other.x && y == other.y && width == other.width && height == other.height;
+  }
+
+  @Override
+  public int hashCode() {
+    return ((x * 31 + y) * 31 + width) * 31 + height;
+  }
+
+  @Override
+  public String toString() {
+    return "@" + x + "," + y + "," + width + "," + height;
+  }
+}
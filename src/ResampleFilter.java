@@ -0,0 +1,98 @@
+/**
+ * This enum represents the filters an image can be resized with. Each filter gives the weight of a
+ * source pixel from its distance to the position of the resized pixel in the source image, and
+ * pixels further than its support have no weight.
+ */
+public enum ResampleFilter {
+  /**
+   * Copy of the closest source pixel. Fastest, but blocky when enlarging and aliased when
+   * shrinking.
+   */
+  NEAREST(0.5),
+  /**
+   * Linear interpolation between the two closest pixels in each direction.
+   */
+  BILINEAR(1),
+  /**
+   * Cubic convolution (Keys, a = -0.5) over the four closest pixels in each direction.
+   */
+  BICUBIC(2),
+  /**
+   * Lanczos window of three lobes over the six closest pixels in each direction. The sharpest of
+   * the filters.
+   */
+  LANCZOS(3);
+
+  private final double support;
+
+  /**
+   * Constructor of a ResampleFilter.
+   *
+   * @param support distance from which the weight of a pixel is 0, in source pixels.
+   */
+  ResampleFilter(double support) {
+    this.support = support;
+  }
+
+  /**
+   * Return the distance from which the weight of a pixel is 0, in source pixels.
+   *
+   * @return the support of the filter.
+   */
+  double getSupport() {
+    return support;
+  }
+
+  /**
+   * Return the weight of a pixel at the given distance, before normalization.
+   *
+   * @param x distance to the position of the resized pixel, in source pixels.
+   * @return the weight of the pixel.
+   */
+  double weight(double x) {
+    x = Math.abs(x);
+    switch (this) {
+      case NEAREST:
+        return x < 0.5 ? 1 : 0;
+      case BILINEAR:
+        return x < 1 ? 1 - x : 0;
+      case BICUBIC:
+        if (x < 1) {
+          return (1.5 * x - 2.5) * x * x + 1;
+        }
+        return x < 2 ? ((-0.5 * x + 2.5) * x - 4) * x + 2 : 0;
+      default:
+        if (x < 1e-12) {
+          return 1;
+        }
+        if (x >= 3) {
+          return 0;
+        }
+        double pix = Math.PI * x;
+        return 3 * Math.sin(pix) * Math.sin(pix / 3) / (pix * pix);
+    }
+  }
+
+  /**
+   * Return the filter of the given name, as written in a batch-scrip ("nearest", "bilinear",
+   * "bicubic" or "lanczos").
+   *
+   * @param name the name of the filter, in any case.
+   * @return the filter of the given name.
+   * @throws IllegalArgumentException if no filter has this name.
+   */
+  static ResampleFilter fromName(String name) throws IllegalArgumentException {
+    for (ResampleFilter filter : values()) {
+      if (filter.name().equalsIgnoreCase(name)) {
+        return filter;
+      }
+    }
+    throw new IllegalArgumentException("Resize filter must be nearest, bilinear, bicubic or "
+            + "lanczos.");
+  }
+
+  @Override
+  public String toString() {
+    return name().toLowerCase();
+  }
+}
@@ -0,0 +1,306 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * This class contains the resizing of an image with a ResampleFilter. The filter is separable: a
+ * horizontal pass resizes every row, then a vertical pass resizes every column of the result. The
+ * weights of each pass depend only on the output column (or row), so they are computed once in a
+ * table before the pixels are visited. When shrinking, the filter is widened by the shrink factor
+ * so that every source pixel contributes (no aliasing). Bands of result rows are computed in
+ * parallel.
+ *
+ * <p>A large reduction first averages blocks of k * k pixels (a box filter, which costs one
+ * addition per source pixel), then applies the filter to the much smaller averaged image. k is
+ * chosen so that the filter still shrinks the image at least REDUCING_GAP times, which keeps the
+ * result visually the same as filtering the full image. Thumbnails of very large images are mostly
+ * computed by this box path.
+ */
+final class Resampler {
+
+  /**
+   * Smallest factor left to the filter after the box reduction.
+   */
+  static final int REDUCING_GAP = 2;
+
+  /**
+   * Number of result rows computed by one task.
+   */
+  private static final int ROW_BAND = 16;
+
+  /**
+   * This class only contains static methods.
+   */
+  private Resampler() {
+  }
+
+  /**
+   * Return the image resized to the given size with the filter. Every result is rounded and
+   * clamped between 0 and 255.
+   *
+   * @param data   the image as a 3D array of [r, g, b].
+   * @param width  width of the result.
+   * @param height height of the result.
+   * @param filter the resampling filter.
+   * @return a new 3D array holding the resized image.
+   */
+  static int[][][] resize(int[][][] data, int width, int height, ResampleFilter filter) {
+    int srcHeight = data.length;
+    int srcWidth = data[0].length;
+    int[][][] result = PixelBufferPool.shared().acquire(height, width);
+    if (filter == ResampleFilter.NEAREST) {
+      nearest(data, result);
+      return result;
+    }
+
+    //the source as rows of interleaved [r, g, b] doubles, either read from data or box reduced.
+    int reduce = reductionFactor(srcWidth, srcHeight, width, height);
+    double[] reduced = null;
+    if (reduce > 1) {
+      reduced = boxReduce(data, reduce);
+      srcWidth = (srcWidth + reduce - 1) / reduce;
+      srcHeight = (srcHeight + reduce - 1) / reduce;
+    }
+    Table columns = new Table(srcWidth, width, filter);
+    Table rows = new Table(srcHeight, height, filter);
+    double[] source = reduced;
+    int sourceWidth = srcWidth;
+
+    //each band of result rows resizes horizontally only the source rows it reads, so that the
+    //intermediate rows never hold more than a band.
+    int bands = (height + ROW_BAND - 1) / ROW_BAND;
+    IntStream.range(0, bands).parallel().forEach(band -> {
+      int top = band * ROW_BAND;
+      int bottom = Math.min(top + ROW_BAND, height);
+      int firstRow = rows.first[top];
+      int lastRow = firstRow;
+      for (int y = top; y < bottom; y++) {
+        firstRow = Math.min(firstRow, rows.first[y]);
+        lastRow = Math.max(lastRow, rows.first[y] + rows.count[y]);
+      }
+      int lineLength = width * 3;
+      double[] line = new double[sourceWidth * 3];
+      double[] across = new double[(lastRow - firstRow) * lineLength];
+      for (int r = firstRow; r < lastRow; r++) {
+        if (source == null) {
+          int[][] pixels = data[r];
+          for (int c = 0; c < sourceWidth; c++) {
+            line[c * 3] = pixels[c][0];
+            line[c * 3 + 1] = pixels[c][1];
+            line[c * 3 + 2] = pixels[c][2];
+          }
+        } else {
+          System.arraycopy(source, r * sourceWidth * 3, line, 0, sourceWidth * 3);
+        }
+        resizeRow(line, columns, across, (r - firstRow) * lineLength);
+      }
+
+      double[] accumulator = new double[lineLength];
+      for (int y = top; y < bottom; y++) {
+        Arrays.fill(accumulator, 0);
+        int weightStart = y * rows.stride;
+        for (int t = 0; t < rows.count[y]; t++) {
+          double w = rows.weights[weightStart + t];
+          int rowStart = (rows.first[y] + t - firstRow) * lineLength;
+          for (int i = 0; i < lineLength; i++) {
+            accumulator[i] += w * across[rowStart + i];
+          }
+        }
+        int[][] dstRow = result[y];
+        for (int x = 0; x < width; x++) {
+          dstRow[x][0] = clamp(accumulator[x * 3]);
+          dstRow[x][1] = clamp(accumulator[x * 3 + 1]);
+          dstRow[x][2] = clamp(accumulator[x * 3 + 2]);
+        }
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Resize one row of interleaved [r, g, b] values horizontally with the table of the columns.
+   *
+   * @param line    the source row.
+   * @param columns the weights of every result column.
+   * @param target  the array receiving the resized row.
+   * @param offset  index in target of the first value written.
+   */
+  private static void resizeRow(double[] line, Table columns, double[] target, int offset) {
+    int width = columns.first.length;
+    for (int x = 0; x < width; x++) {
+      double red = 0;
+      double green = 0;
+      double blue = 0;
+      int weightStart = x * columns.stride;
+      int p = columns.first[x] * 3;
+      for (int t = 0; t < columns.count[x]; t++, p += 3) {
+        double w = columns.weights[weightStart + t];
+        red += w * line[p];
+        green += w * line[p + 1];
+        blue += w * line[p + 2];
+      }
+      target[offset + x * 3] = red;
+      target[offset + x * 3 + 1] = green;
+      target[offset + x * 3 + 2] = blue;
+    }
+  }
+
+  /**
+   * Return the size of an image scaled by the factor, rounded and at least 1.
+   *
+   * @param size   the size (width or height) of the image.
+   * @param factor the scale factor.
+   * @return the scaled size.
+   */
+  static int scaledSize(int size, double factor) {
+    return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(size * factor)));
+  }
+
+  /**
+   * Write into result the source pixel closest to the center of every result pixel.
+   *
+   * @param data   the image as a 3D array of [r, g, b].
+   * @param result the destination, of the resized size.
+   */
+  private static void nearest(int[][][] data, int[][][] result) {
+    int srcHeight = data.length;
+    int srcWidth = data[0].length;
+    int height = result.length;
+    int width = result[0].length;
+    int[] sourceColumn = new int[width];
+    for (int x = 0; x < width; x++) {
+      sourceColumn[x] = (int) Math.min((long) (x * 2 + 1) * srcWidth / (2L * width),
+              srcWidth - 1);
+    }
+    IntStream.range(0, height).parallel().forEach(y -> {
+      int sourceRow = (int) Math.min((long) (y * 2 + 1) * srcHeight / (2L * height),
+              srcHeight - 1);
+      int[][] pixels = data[sourceRow];
+      int[][] dstRow = result[y];
+      for (int x = 0; x < width; x++) {
+        int[] pixel = pixels[sourceColumn[x]];
+        dstRow[x][0] = pixel[0];
+        dstRow[x][1] = pixel[1];
+        dstRow[x][2] = pixel[2];
+      }
+    });
+  }
+
+  /**
+   * Return the factor of the box reduction done before filtering, 1 for none.
+   *
+   * @param srcWidth  width of the source.
+   * @param srcHeight height of the source.
+   * @param width     width of the result.
+   * @param height    height of the result.
+   * @return the largest k leaving a reduction of at least REDUCING_GAP in both directions.
+   */
+  private static int reductionFactor(int srcWidth, int srcHeight, int width, int height) {
+    double shrink = Math.min((double) srcWidth / width, (double) srcHeight / height);
+    return Math.max(1, (int) (shrink / REDUCING_GAP));
+  }
+
+  /**
+   * Return the image with every block of factor * factor pixels replaced by its mean, as rows of
+   * interleaved [r, g, b] doubles. The blocks of the last row and column may be smaller, their
+   * mean is taken over the pixels they hold. Rows of blocks are computed in parallel.
+   *
+   * @param data   the image as a 3D array of [r, g, b].
+   * @param factor size of the blocks.
+   * @return the reduced image, (height / factor) * (width / factor) * 3 rounded up.
+   */
+  private static double[] boxReduce(int[][][] data, int factor) {
+    int height = data.length;
+    int width = data[0].length;
+    int reducedHeight = (height + factor - 1) / factor;
+    int reducedWidth = (width + factor - 1) / factor;
+    double[] reduced = new double[reducedHeight * reducedWidth * 3];
+    IntStream.range(0, reducedHeight).parallel().forEach(y -> {
+      int top = y * factor;
+      int bottom = Math.min(top + factor, height);
+      long[] sums = new long[reducedWidth * 3];
+      for (int r = top; r < bottom; r++) {
+        int[][] pixels = data[r];
+        for (int c = 0; c < width; c++) {
+          int block = (c / factor) * 3;
+          sums[block] += pixels[c][0];
+          sums[block + 1] += pixels[c][1];
+          sums[block + 2] += pixels[c][2];
+        }
+      }
+      int rowStart = y * reducedWidth * 3;
+      for (int x = 0; x < reducedWidth; x++) {
+        int count = (bottom - top) * (Math.min((x + 1) * factor, width) - x * factor);
+        for (int i = 0; i < 3; i++) {
+          reduced[rowStart + x * 3 + i] = (double) sums[x * 3 + i] / count;
+        }
+      }
+    });
+    return reduced;
+  }
+
+  /**
+   * This class represents the precomputed weights of the resampling of one direction: for every
+   * output index, the first source index it reads, the number of source indices and their
+   * normalized weights.
+   */
+  private static final class Table {
+    private final int[] first;
+    private final int[] count;
+    private final double[] weights;
+    private final int stride;
+
+    /**
+     * Constructor of the Table of the resampling of srcSize pixels into dstSize pixels.
+     *
+     * @param srcSize number of source pixels.
+     * @param dstSize number of output pixels.
+     * @param filter  the resampling filter.
+     */
+    Table(int srcSize, int dstSize, ResampleFilter filter) {
+      double scale = (double) srcSize / dstSize;
+      //when shrinking, the filter is stretched over the source pixels one output pixel covers.
+      double stretch = Math.max(1, scale);
+      double support = filter.getSupport() * stretch;
+      this.stride = (int) Math.ceil(support) * 2 + 1;
+      this.first = new int[dstSize];
+      this.count = new int[dstSize];
+      this.weights = new double[dstSize * stride];
+      for (int x = 0; x < dstSize; x++) {
+        double center = (x + 0.5) * scale;
+        int from = Math.max(0, (int) Math.floor(center - support));
+        int to = Math.min(srcSize, (int) Math.ceil(center + support));
+        to = Math.min(to, from + stride);
+        double total = 0;
+        for (int i = from; i < to; i++) {
+          double w = filter.weight((i + 0.5 - center) / stretch);
+          weights[x * stride + i - from] = w;
+          total += w;
+        }
+        if (total == 0) {
+          //no pixel under the filter: take the closest one.
+          int closest = Math.min(srcSize - 1, (int) center);
+          Arrays.fill(weights, x * stride, (x + 1) * stride, 0);
+          first[x] = closest;
+          count[x] = 1;
+          weights[x * stride] = 1;
+          continue;
+        }
+        for (int i = from; i < to; i++) {
+          weights[x * stride + i - from] /= total;
+        }
+        first[x] = from;
+        count[x] = to - from;
+      }
+    }
+  }
+
+  /**
+   * Round the value and clamp it between 0 and 255.
+   *
+   * @param value the value.
+   * @return the value rounded and clamped between 0 and 255.
+   */
+  private static int clamp(double value) {
+    return Math.min(Math.max((int) Math.round(value), 0), 255);
+  }
+}
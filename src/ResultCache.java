@@ -0,0 +1,335 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.UnaryOperator;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class represents a content-addressed cache of the results of deterministic operations. A
+ * result is found by the hash of the pixels of the input image together with a canonical
+ * description of the operation (including its Filter or ColorConverter matrix), so the same
+ * operation on the same pixels is only computed once, whichever file or step they come from.
+ *
+ * <p>Results are kept in memory in a least-recently-used tier bounded by an estimate of their size
+ * in bytes, and optionally written to a directory so that they survive between runs. A result is
+ * kept as it is at first, and compressed as a FrozenImage in the background, so that an operation
+ * does not wait for the compression of its result; its pixels are then recycled as usual.
+ */
+public class ResultCache {
+  /**
+   * Default budget of the in-memory tier, in bytes.
+   */
+  public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+  private static final int FILE_MAGIC = 0x494D4752;
+
+  private final LruCache<String, Image> memory;
+  private final File directory;
+  private final Map<Image, String> contentHashes = new WeakHashMap<>();
+
+  /**
+   * Constructor of a ResultCache kept only in memory.
+   *
+   * @param memoryBudget maximum estimated size in bytes of the results kept in memory.
+   * @throws IllegalArgumentException if memoryBudget is negative.
+   */
+  public ResultCache(long memoryBudget) throws IllegalArgumentException {
+    this(memoryBudget, null);
+  }
+
+  /**
+   * Constructor of a ResultCache kept in memory and in a local directory.
+   *
+   * @param memoryBudget maximum estimated size in bytes of the results kept in memory.
+   * @param directory    directory where the results are written, or null to keep them only in
+   *                     memory. It is created if it does not exist.
+   * @throws IllegalArgumentException if memoryBudget is negative or if directory can not be
+   *                                  created.
+   */
+  public ResultCache(long memoryBudget, File directory) throws IllegalArgumentException {
+    this.memory = new LruCache<>(memoryBudget, ResultCache::estimateBytes);
+    if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+      throw new IllegalArgumentException("Can not create cache directory " + directory);
+    }
+    this.directory = directory;
+  }
+
+  /**
+   * Return the result of the operation on the input image, from the cache if the same operation
+   * was already applied to the same pixels, otherwise by running the operation and caching its
+   * result. Images without data are passed to the operation without being cached.
+   *
+   * @param input      the input image.
+   * @param descriptor canonical description of the operation. Two operations with the same
+   *                   descriptor must give the same result on the same pixels.
+   * @param operation  the operation to run on a cache miss.
+   * @return the result of the operation on the input image.
+   */
+  public Image apply(Image input, String descriptor, UnaryOperator<Image> operation) {
+    if (input.getWidth() == 0 || input.getHeight() == 0) {
+      return operation.apply(input);
+    }
+    String key = sha256Hex(contentHash(input) + "\n" + descriptor);
+    Image cached;
+    //the lock of the LruCache also guards its replace, so a result is shared before it leaves it.
+    synchronized (memory) {
+      cached = memory.get(key);
+      if (cached != null && !(cached instanceof FrozenImage)) {
+        //the cached result itself goes to a second caller, its pixels must never be recycled.
+        PixelBufferPool.shared().share(cached);
+      }
+    }
+    if (cached != null) {
+      return FrozenImage.thaw(cached);
+    }
+    Image result = readFromDisk(key);
+    if (result == null) {
+      result = operation.apply(input);
+      writeToDisk(key, result);
+    }
+    keep(key, result);
+    return result;
+  }
+
+  /**
+   * Keep a result in memory. The pixels of a result which is compressed are only lent to the cache
+   * while it is compressed in the background, so that an operation does not wait for the
+   * compression of its result; the compressed image then takes its place if the entry still holds
+   * the result, and the pixels go back to the PixelBufferPool once the caller is done with them
+   * too. Any other result is kept as it is, and its pixels are never recycled.
+   *
+   * @param key    the key of the result.
+   * @param result the result to keep for the key.
+   */
+  private void keep(String key, Image result) {
+    PixelBufferPool pool = PixelBufferPool.shared();
+    if (FrozenImage.isKeptAsIs(result)) {
+      pool.share(result);
+      memory.put(key, result);
+      return;
+    }
+    //lent before it is cached, so that a hit can not see the result while its caller may still
+    //give it back to the pool.
+    pool.lend(result);
+    if (!memory.put(key, result)) {
+      pool.giveBack(result);
+      return;
+    }
+    ForkJoinPool.commonPool().execute(() -> {
+      memory.replace(key, result, FrozenImage.freeze(result));
+      pool.giveBack(result);
+    });
+  }
+
+  /**
+   * Return the hex SHA-256 hash of the size and pixels of the image, with the alpha of every pixel
+   * for an RgbaImage and the values at full precision for a PreciseImage. The hash is remembered
+   * for as long as the image object is alive, so chained lookups only hash each image once.
+   *
+   * @param image the image to hash.
+   * @return the hex SHA-256 hash of the image content.
+   */
+  String contentHash(Image image) {
+    synchronized (contentHashes) {
+      String hash = contentHashes.get(image);
+      if (hash != null) {
+        return hash;
+      }
+    }
+    int height = image.getHeight();
+    int width = image.getWidth();
+    MessageDigest digest = newDigest();
+    RgbaImage alpha = image instanceof RgbaImage ? (RgbaImage) image : null;
+    byte[] row = new byte[width * (alpha == null ? 3 : 4)];
+    PreciseImage precise = image instanceof PreciseImage ? (PreciseImage) image : null;
+    ByteBuffer values = precise == null ? null : ByteBuffer.allocate(12 * width);
+    digest.update(new byte[]{(byte) (height >> 24), (byte) (height >> 16), (byte) (height >> 8),
+        (byte) height, (byte) (width >> 24), (byte) (width >> 16), (byte) (width >> 8),
+        (byte) width});
+    for (int r = 0; r < height; r++) {
+      for (int c = 0; c < width; c++) {
+        int color = image.getRGB(r, c);
+        row[c * 3] = (byte) (color >> 16);
+        row[c * 3 + 1] = (byte) (color >> 8);
+        row[c * 3 + 2] = (byte) color;
+      }
+      if (alpha != null) {
+        for (int c = 0; c < width; c++) {
+          row[width * 3 + c] = (byte) alpha.getAlpha(r, c);
+        }
+      }
+      digest.update(row);
+      if (precise != null) {
+        values.clear();
+        for (int c = 0; c < width; c++) {
+          for (int channel = 0; channel < 3; channel++) {
+            values.putFloat(precise.getValue(r, c, channel));
+          }
+        }
+        digest.update(values.array());
+      }
+    }
+    String hash = toHex(digest.digest());
+    synchronized (contentHashes) {
+      contentHashes.put(image, hash);
+    }
+    return hash;
+  }
+
+  /**
+   * Return an estimate of the memory used by an image, in bytes. An ImageImpl pixel is an int[3]
+   * object and a reference to it, about 36 bytes; a TiledImage pixel is 4 bytes, a BilevelImage
+   * pixel one bit, and the other images know their own size.
+   *
+   * @param image the image.
+   * @return an estimate of the memory used by the image, in bytes.
+   */
+  static long estimateBytes(Image image) {
+    if (image instanceof TiledImage) {
+      return ((TiledImage) image).estimateBytes();
+    }
+    if (image instanceof FrozenImage) {
+      return ((FrozenImage) image).estimateBytes();
+    }
+    if (image instanceof BilevelImage) {
+      return ((BilevelImage) image).estimateBytes();
+    }
+    if (image instanceof IndexedImage) {
+      return ((IndexedImage) image).estimateBytes();
+    }
+    if (image instanceof RgbaImage) {
+      return ((RgbaImage) image).estimateBytes();
+    }
+    if (image instanceof PreciseImage) {
+      return ((PreciseImage) image).estimateBytes();
+    }
+    return (long) image.getWidth() * image.getHeight() * 36 + 64;
+  }
+
+  /**
+   * Read the result stored in the directory for the key.
+   *
+   * @param key the key of the result.
+   * @return the result, or null if there is no directory, no file for the key or if the file can
+   *         not be read.
+   */
+  private Image readFromDisk(String key) {
+    if (directory == null) {
+      return null;
+    }
+    File file = new File(directory, key + ".img");
+    if (!file.isFile()) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new GZIPInputStream(new FileInputStream(file))))) {
+      if (in.readInt() != FILE_MAGIC) {
+        return null;
+      }
+      int height = in.readInt();
+      int width = in.readInt();
+      int[][][] data = new int[height][width][3];
+      for (int r = 0; r < height; r++) {
+        for (int c = 0; c < width; c++) {
+          data[r][c][0] = in.readUnsignedByte();
+          data[r][c][1] = in.readUnsignedByte();
+          data[r][c][2] = in.readUnsignedByte();
+        }
+      }
+      return new ImageImpl(data);
+    } catch (IOException e) {
+      //a damaged or partially written file is just a miss.
+      return null;
+    }
+  }
+
+  /**
+   * Write the result into the directory under the key. The file is written under a temporary name
+   * and renamed, so a concurrent reader never sees it half written. Errors are ignored since the
+   * result is still kept in memory.
+   *
+   * @param key    the key of the result.
+   * @param result the result to write.
+   */
+  private void writeToDisk(String key, Image result) {
+    //the files hold 8-bit colors only, a result with alpha or full precision is kept in memory.
+    if (directory == null || result instanceof RgbaImage || result instanceof PreciseImage) {
+      return;
+    }
+    File file = new File(directory, key + ".img");
+    File temp = new File(directory, key + ".tmp");
+    int height = result.getHeight();
+    int width = result.getWidth();
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new GZIPOutputStream(new FileOutputStream(temp))))) {
+      out.writeInt(FILE_MAGIC);
+      out.writeInt(height);
+      out.writeInt(width);
+      for (int r = 0; r < height; r++) {
+        for (int c = 0; c < width; c++) {
+          int color = result.getRGB(r, c);
+          out.writeByte(color >> 16);
+          out.writeByte(color >> 8);
+          out.writeByte(color);
+        }
+      }
+    } catch (IOException e) {
+      temp.delete();
+      return;
+    }
+    if (!temp.renameTo(file)) {
+      temp.delete();
+    }
+  }
+
+  /**
+   * Return the hex SHA-256 hash of a string.
+   *
+   * @param text the string to hash.
+   * @return the hex SHA-256 hash of the string.
+   */
+  private static String sha256Hex(String text) {
+    return toHex(newDigest().digest(text.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Return a new SHA-256 MessageDigest.
+   *
+   * @return a new SHA-256 MessageDigest.
+   */
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      //every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Return the bytes as a lower case hex string.
+   *
+   * @param bytes the bytes.
+   * @return the bytes as a lower case hex string.
+   */
+  private static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,301 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.stream.IntStream;
+
+/**
+ * This class represents an Image with an alpha channel, such as a PNG file with transparency or an
+ * overlay made translucent by opacity. Every pixel is packed into one int as 0xAARRGGBB with its
+ * colors not multiplied by its alpha, the layout of a TYPE_INT_ARGB BufferedImage, so that the
+ * image is read from and written to a PNG file with its transparency without any conversion.
+ *
+ * <p>getRGB and getData give the colors without their alpha, exactly as an image file was read
+ * before alpha was supported, whatever the alpha of the pixel. Color operations (color matrices,
+ * greyscale, sepia, auto-levels and equalization) keep the alpha of every pixel; the other
+ * operations give an opaque image.
+ */
+public final class RgbaImage extends AbstractImage {
+  private final int height;
+  private final int width;
+  private final int[] argb;
+
+  /**
+   * Constructor of an RgbaImage from its packed pixels, which must not be modified afterwards.
+   *
+   * @param height height of the image.
+   * @param width  width of the image.
+   * @param argb   the pixels, row by row, as 0xAARRGGBB.
+   */
+  private RgbaImage(int height, int width, int[] argb) {
+    this.height = height;
+    this.width = width;
+    this.argb = argb;
+  }
+
+  /**
+   * Return the image with an alpha channel, the image itself if it already has one. The pixels of
+   * any other image are opaque. Rows are packed in parallel.
+   *
+   * @param image an image with at least one pixel.
+   * @return an RgbaImage holding the same pixels.
+   * @throws IllegalArgumentException if the image has no pixel.
+   */
+  public static RgbaImage of(Image image) throws IllegalArgumentException {
+    if (image instanceof RgbaImage) {
+      return (RgbaImage) image;
+    }
+    int height = image.getHeight();
+    int width = image.getWidth();
+    if (height < 1 || width < 1) {
+      throw new IllegalArgumentException("An image with alpha needs at least one pixel.");
+    }
+    int[][][] data = image instanceof ImageImpl ? ((ImageImpl) image).pixels() : null;
+    int[] argb = new int[height * width];
+    IntStream.range(0, height).parallel().forEach(r -> {
+      for (int c = 0; c < width; c++) {
+        int color = data == null ? image.getRGB(r, c)
+                : (data[r][c][0] << 16) | (data[r][c][1] << 8) | data[r][c][2];
+        argb[r * width + c] = 0xFF000000 | color;
+      }
+    });
+    return new RgbaImage(height, width, argb);
+  }
+
+  /**
+   * Return the image decoded from a BufferedImage which may have an alpha channel: an RgbaImage if
+   * at least one pixel is not opaque, otherwise an ImageImpl as for an image without alpha. Rows
+   * are converted in parallel.
+   *
+   * @param input the decoded image.
+   * @return the image.
+   */
+  static Image fromBufferedImage(BufferedImage input) {
+    int height = input.getHeight();
+    int width = input.getWidth();
+    int[] argb = new int[height * width];
+    boolean translucent = IntStream.range(0, height).parallel().map(r -> {
+      input.getRGB(0, r, width, 1, argb, r * width, width);
+      int opaque = 1;
+      for (int i = r * width; i < (r + 1) * width; i++) {
+        opaque &= argb[i] >>> 24 == 255 ? 1 : 0;
+      }
+      return opaque;
+    }).min().orElse(1) == 0;
+    if (translucent) {
+      return new RgbaImage(height, width, argb);
+    }
+    return new RgbaImage(height, width, argb).toImageImpl();
+  }
+
+  /**
+   * Return the alpha of a pixel, from 0 for a transparent pixel to 255 for an opaque one.
+   *
+   * @param row    row number of the pixel, must be inside the image.
+   * @param column column number of the pixel, must be inside the image.
+   * @return the alpha of the pixel.
+   */
+  public int getAlpha(int row, int column) {
+    return argb[row * width + column] >>> 24;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getRGB(int row, int column) {
+    return argb[row * width + column] & 0xFFFFFF;
+  }
+
+  @Override
+  public int[][][] getData() {
+    int[][][] result = new int[height][width][3];
+    IntStream.range(0, height).parallel().forEach(r -> {
+      int[][] row = result[r];
+      for (int c = 0; c < width; c++) {
+        int color = argb[r * width + c];
+        row[c][0] = (color >> 16) & 0xFF;
+        row[c][1] = (color >> 8) & 0xFF;
+        row[c][2] = color & 0xFF;
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Return the image as a TYPE_INT_ARGB BufferedImage, which holds a copy of the packed pixels.
+   *
+   * @return the image as a BufferedImage with alpha.
+   */
+  @Override
+  public BufferedImage getBufferImage() {
+    BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    int[] target = ((DataBufferInt) output.getRaster().getDataBuffer()).getData();
+    System.arraycopy(argb, 0, target, 0, argb.length);
+    return output;
+  }
+
+  /**
+   * Return an estimate of the memory used by this image, in bytes.
+   *
+   * @return an estimate of the memory used by this image, in bytes.
+   */
+  long estimateBytes() {
+    return 4L * argb.length + 64;
+  }
+
+  /**
+   * Return the image drawn over the background image with its top left corner at the given
+   * position (Porter-Duff "over"). The result has the size and the position of the background,
+   * and the part of this image outside of the background is left out. Rows are composited in
+   * parallel: transparent runs of pixels of this image are skipped, opaque runs are copied, and
+   * only the translucent pixels are blended.
+   *
+   * @param background the image drawn under this one.
+   * @param x          column of the background where the first column of this image goes.
+   * @param y          row of the background where the first row of this image goes.
+   * @return the composited image.
+   */
+  @Override
+  public Image over(Image background, int x, int y) {
+    if (background.getWidth() == 0 || background.getHeight() == 0) {
+      return background;
+    }
+    RgbaImage bottom = of(background);
+    int[] result = bottom.argb.clone();
+    int resultWidth = bottom.width;
+    int top = Math.max(0, y);
+    int bottomRow = (int) Math.min(bottom.height, (long) y + height);
+    int left = Math.max(0, x);
+    int right = (int) Math.min(resultWidth, (long) x + width);
+    if (top < bottomRow && left < right) {
+      IntStream.range(top, bottomRow).parallel().forEach(r -> {
+        int source = (r - y) * width - x;
+        int target = r * resultWidth;
+        int c = left;
+        while (c < right) {
+          int alpha = argb[source + c] >>> 24;
+          int start = c;
+          if (alpha == 0) {
+            while (c < right && argb[source + c] >>> 24 == 0) {
+              c++;
+            }
+          } else if (alpha == 255) {
+            while (c < right && argb[source + c] >>> 24 == 255) {
+              c++;
+            }
+            System.arraycopy(argb, source + start, result, target + start, c - start);
+          } else {
+            result[target + c] = blend(argb[source + c], result[target + c]);
+            c++;
+          }
+        }
+      });
+    }
+    return new RgbaImage(bottom.height, resultWidth, result);
+  }
+
+  /**
+   * Return the image with the alpha of every pixel multiplied by the given opacity. Rows are
+   * computed in parallel.
+   *
+   * @param opacity the opacity, between 0 (transparent) and 1 (unchanged).
+   * @return the translucent image.
+   * @throws IllegalArgumentException if opacity is not between 0 and 1.
+   */
+  @Override
+  public Image opacity(double opacity) throws IllegalArgumentException {
+    if (!(opacity >= 0 && opacity <= 1)) {
+      throw new IllegalArgumentException("Opacity must be between 0 and 1.");
+    }
+    int factor = (int) Math.round(opacity * 255);
+    int[] result = new int[argb.length];
+    IntStream.range(0, height).parallel().forEach(r -> {
+      for (int i = r * width; i < (r + 1) * width; i++) {
+        result[i] = (argb[i] & 0xFFFFFF) | multiply(argb[i] >>> 24, factor) << 24;
+      }
+    });
+    return new RgbaImage(height, width, result);
+  }
+
+  @Override
+  public Image sepia() {
+    return withAlpha(toImageImpl().sepia());
+  }
+
+  @Override
+  public Image greyscale() {
+    return withAlpha(toImageImpl().greyscale());
+  }
+
+  @Override
+  public Image applyColorConvert(ColorConverter converter) {
+    return withAlpha(toImageImpl().applyColorConvert(converter));
+  }
+
+  @Override
+  public Image autoLevels() {
+    return withAlpha(toImageImpl().autoLevels());
+  }
+
+  @Override
+  public Image equalize() {
+    return withAlpha(toImageImpl().equalize());
+  }
+
+  /**
+   * Return the colors of an image of the same size as this one with the alpha of this image.
+   *
+   * @param colors the colors of every pixel.
+   * @return a new RgbaImage.
+   */
+  private RgbaImage withAlpha(Image colors) {
+    int[][][] data = colors instanceof ImageImpl ? ((ImageImpl) colors).pixels() : null;
+    int[] result = new int[argb.length];
+    IntStream.range(0, height).parallel().forEach(r -> {
+      for (int c = 0; c < width; c++) {
+        int color = data == null ? colors.getRGB(r, c)
+                : (data[r][c][0] << 16) | (data[r][c][1] << 8) | data[r][c][2];
+        result[r * width + c] = (color & 0xFFFFFF) | (argb[r * width + c] & 0xFF000000);
+      }
+    });
+    PixelBufferPool.shared().release(colors);
+    return new RgbaImage(height, width, result);
+  }
+
+  /**
+   * Return a translucent pixel drawn over another one (Porter-Duff "over"). The colors are
+   * weighted by the alpha each pixel contributes, and the result rounded.
+   *
+   * @param top    the pixel drawn over, as 0xAARRGGBB with an alpha which is not 0.
+   * @param bottom the pixel under it, as 0xAARRGGBB.
+   * @return the composited pixel as 0xAARRGGBB.
+   */
+  private static int blend(int top, int bottom) {
+    int alpha = top >>> 24;
+    int below = multiply(bottom >>> 24, 255 - alpha);
+    int total = alpha + below;
+    int result = total << 24;
+    for (int shift = 0; shift < 24; shift += 8) {
+      int value = ((top >> shift) & 0xFF) * alpha + ((bottom >> shift) & 0xFF) * below;
+      result |= (value + total / 2) / total << shift;
+    }
+    return result;
+  }
+
+  /**
+   * Return a value between 0 and 255 multiplied by factor / 255, rounded.
+   *
+   * @param value  the value, between 0 and 255.
+   * @param factor the factor, between 0 and 255.
+   * @return the rounded product.
+   */
+  private static int multiply(int value, int factor) {
+    return (value * factor + 127) / 255;
+  }
+}
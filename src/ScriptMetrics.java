@@ -0,0 +1,338 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class records where the time of a batch script goes. For every measured operation it keeps
+ * the wall time, the CPU time and the bytes allocated, and the size in megapixels of the image
+ * going in and out. Every measurement is also emitted as an OperationEvent for the Java Flight
+ * Recorder.
+ *
+ * <p>Most operations run on the workers of the fork-join pool, so the CPU time and the allocated
+ * bytes are those of all the threads of the program, not only of the thread calling the
+ * operation. Operations measured at the same time, such as the blocks of a branch command, each
+ * count the work of the others as well.
+ *
+ * <p>The recorder bound to the current thread (see bind) is the one used by code which has no
+ * access to the controller, such as the decode and encode steps of ImageUtil.
+ */
+public class ScriptMetrics {
+
+  private static final ThreadLocal<ScriptMetrics> ACTIVE = new ThreadLocal<>();
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  private final List<Sample> samples = new ArrayList<>();
+
+  /**
+   * This class represents the measurement of one operation.
+   */
+  static final class Sample {
+    final String operation;
+    final long wallNanos;
+    final long cpuNanos;
+    final long allocatedBytes;
+    final double inputMegapixels;
+    final double outputMegapixels;
+
+    private Sample(String operation, long wallNanos, long cpuNanos, long allocatedBytes,
+                   double inputMegapixels, double outputMegapixels) {
+      this.operation = operation;
+      this.wallNanos = wallNanos;
+      this.cpuNanos = cpuNanos;
+      this.allocatedBytes = allocatedBytes;
+      this.inputMegapixels = inputMegapixels;
+      this.outputMegapixels = outputMegapixels;
+    }
+  }
+
+  /**
+   * This class represents an operation being measured. It is obtained from start and must be ended
+   * on the thread which started it.
+   */
+  public final class Span {
+    private final String operation;
+    private final double inputMegapixels;
+    private final long startWall;
+    private final ThreadUsage startUsage;
+    private final OperationEvent event;
+
+    private Span(String operation, double inputMegapixels) {
+      this.operation = operation;
+      this.inputMegapixels = inputMegapixels;
+      this.event = new OperationEvent();
+      this.event.begin();
+      this.startUsage = new ThreadUsage();
+      this.startWall = System.nanoTime();
+    }
+
+    /**
+     * End the measurement of this operation and record it.
+     *
+     * @param output the image produced by the operation, or null if it produced none.
+     */
+    public void end(Image output) {
+      end(megapixels(output));
+    }
+
+    /**
+     * End the measurement of this operation and record it.
+     *
+     * @param outputMegapixels size of the image produced by the operation in megapixels.
+     */
+    public void end(double outputMegapixels) {
+      long wall = System.nanoTime() - startWall;
+      long[] used = new ThreadUsage().since(startUsage);
+      long cpu = used[0];
+      long allocated = used[1];
+      event.end();
+      if (event.shouldCommit()) {
+        event.operation = operation;
+        event.cpuTime = cpu;
+        event.allocated = allocated;
+        event.inputMegapixels = inputMegapixels;
+        event.outputMegapixels = outputMegapixels;
+        event.commit();
+      }
+      synchronized (samples) {
+        samples.add(new Sample(operation, wall, cpu, allocated, inputMegapixels,
+                outputMegapixels));
+      }
+    }
+  }
+
+  /**
+   * Start measuring an operation.
+   *
+   * @param operation name of the operation, usually the script command.
+   * @param input     the image the operation works on, or null if it works on none.
+   * @return the Span to end when the operation is done.
+   */
+  public Span start(String operation, Image input) {
+    return new Span(operation, megapixels(input));
+  }
+
+  /**
+   * Start measuring an operation.
+   *
+   * @param operation       name of the operation.
+   * @param inputMegapixels size of the image the operation works on in megapixels.
+   * @return the Span to end when the operation is done.
+   */
+  public Span start(String operation, double inputMegapixels) {
+    return new Span(operation, inputMegapixels);
+  }
+
+  /**
+   * Start measuring an operation with the recorder bound to the current thread, if any.
+   *
+   * @param operation       name of the operation.
+   * @param inputMegapixels size of the image the operation works on in megapixels.
+   * @return the Span to end when the operation is done, or null if no recorder is bound.
+   */
+  public static Span startActive(String operation, double inputMegapixels) {
+    ScriptMetrics metrics = ACTIVE.get();
+    if (metrics == null) {
+      return null;
+    }
+    return metrics.start(operation, inputMegapixels);
+  }
+
+  /**
+   * Make this recorder the one returned by active on the current thread.
+   *
+   * @return the recorder which was bound to the current thread before, to give back to restore
+   *         once this one is done. May be null.
+   */
+  public ScriptMetrics bind() {
+    ScriptMetrics previous = ACTIVE.get();
+    ACTIVE.set(this);
+    return previous;
+  }
+
+  /**
+   * Bind back the recorder which was bound to the current thread before a call to bind. The same
+   * thread may run nested scripts (branches), so the previous recorder is restored rather than
+   * simply removed.
+   *
+   * @param previous the value returned by bind, may be null.
+   */
+  public static void restore(ScriptMetrics previous) {
+    if (previous == null) {
+      ACTIVE.remove();
+    } else {
+      ACTIVE.set(previous);
+    }
+  }
+
+  /**
+   * Return the recorder bound to the current thread.
+   *
+   * @return the recorder bound to the current thread, or null if there is none.
+   */
+  public static ScriptMetrics active() {
+    return ACTIVE.get();
+  }
+
+  /**
+   * Return a copy of the measurements recorded so far, in the order they ended.
+   *
+   * @return a copy of the measurements recorded so far.
+   */
+  List<Sample> getSamples() {
+    synchronized (samples) {
+      return new ArrayList<>(samples);
+    }
+  }
+
+  /**
+   * Add all the measurements of another recorder to this one.
+   *
+   * @param other the recorder whose measurements are added.
+   */
+  void addAll(ScriptMetrics other) {
+    List<Sample> added = other.getSamples();
+    synchronized (samples) {
+      samples.addAll(added);
+    }
+  }
+
+  /**
+   * Return the report of this script: one line for every measured operation in the order they
+   * ended, followed by the totals of each operation name and by the number of pixel buffers the
+   * PixelBufferPool allocated and reused since the program started. Note that the decode and
+   * encode steps are included in the load and save commands which trigger them.
+   *
+   * @return the report as a multi-line string.
+   */
+  public String report() {
+    List<Sample> all = getSamples();
+    StringBuilder sb = new StringBuilder();
+    String header = String.format("%-14s %6s %11s %11s %11s %9s %9s%n", "operation", "count",
+            "wall ms", "cpu ms", "alloc MB", "in MP", "out MP");
+    sb.append(header);
+    for (Sample s : all) {
+      appendLine(sb, s.operation, 1, s.wallNanos, s.cpuNanos, s.allocatedBytes,
+              s.inputMegapixels, s.outputMegapixels);
+    }
+
+    Map<String, long[]> counts = new LinkedHashMap<>();
+    Map<String, double[]> pixels = new LinkedHashMap<>();
+    for (Sample s : all) {
+      long[] c = counts.computeIfAbsent(s.operation, k -> new long[4]);
+      c[0]++;
+      c[1] += s.wallNanos;
+      c[2] += s.cpuNanos;
+      c[3] += s.allocatedBytes;
+      double[] p = pixels.computeIfAbsent(s.operation, k -> new double[2]);
+      p[0] += s.inputMegapixels;
+      p[1] += s.outputMegapixels;
+    }
+    sb.append(String.format("%ntotals%n"));
+    sb.append(header);
+    for (Map.Entry<String, long[]> e : counts.entrySet()) {
+      long[] c = e.getValue();
+      double[] p = pixels.get(e.getKey());
+      appendLine(sb, e.getKey(), c[0], c[1], c[2], c[3], p[0], p[1]);
+    }
+    PixelBufferPool pool = PixelBufferPool.shared();
+    sb.append(String.format("%npixel buffers: %d allocated, %d reused%n", pool.getAllocations(),
+            pool.getReuses()));
+    return sb.toString();
+  }
+
+  /**
+   * Append one line of the report. Helper function of report.
+   *
+   * @param sb        the report being built.
+   * @param operation name of the operation.
+   * @param count     number of measurements in this line.
+   * @param wall      wall time in nanoseconds.
+   * @param cpu       CPU time in nanoseconds.
+   * @param allocated allocated bytes.
+   * @param in        input size in megapixels.
+   * @param out       output size in megapixels.
+   */
+  private static void appendLine(StringBuilder sb, String operation, long count, long wall,
+                                 long cpu, long allocated, double in, double out) {
+    sb.append(String.format("%-14s %6d %11.2f %11.2f %11.2f %9.3f %9.3f%n", operation, count,
+            wall / 1e6, cpu / 1e6, allocated / (1024.0 * 1024.0), in, out));
+  }
+
+  /**
+   * Return the size of an image in megapixels.
+   *
+   * @param image an image, may be null.
+   * @return the size of the image in megapixels, 0 if image is null.
+   */
+  static double megapixels(Image image) {
+    if (image == null) {
+      return 0;
+    }
+    return (double) image.getWidth() * image.getHeight() / 1e6;
+  }
+
+  /**
+   * This class represents the CPU time and the allocated bytes of every live thread at one
+   * moment. A measurement the JVM does not make is 0 for every thread.
+   */
+  private static final class ThreadUsage {
+    private final long[] ids;
+    private final long[] cpuNanos;
+    private final long[] allocatedBytes;
+
+    /**
+     * Constructor of a ThreadUsage measuring the live threads now.
+     */
+    ThreadUsage() {
+      ids = THREADS.getAllThreadIds();
+      cpuNanos = new long[ids.length];
+      allocatedBytes = new long[ids.length];
+      com.sun.management.ThreadMXBean threads = THREADS instanceof com.sun.management.ThreadMXBean
+              ? (com.sun.management.ThreadMXBean) THREADS : null;
+      if (THREADS.isThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled()) {
+        if (threads != null) {
+          System.arraycopy(threads.getThreadCpuTime(ids), 0, cpuNanos, 0, ids.length);
+        } else {
+          for (int i = 0; i < ids.length; i++) {
+            cpuNanos[i] = THREADS.getThreadCpuTime(ids[i]);
+          }
+        }
+      }
+      if (threads != null && threads.isThreadAllocatedMemorySupported()
+              && threads.isThreadAllocatedMemoryEnabled()) {
+        System.arraycopy(threads.getThreadAllocatedBytes(ids), 0, allocatedBytes, 0, ids.length);
+      }
+    }
+
+    /**
+     * Return the CPU time and the bytes allocated by all the threads between an earlier
+     * measurement and this one. A thread started in between counts from 0; the work of a thread
+     * which ended in between is lost. A thread which ended while being measured (-1) counts as 0.
+     *
+     * @param start the earlier measurement.
+     * @return the CPU time in nanoseconds and the allocated bytes.
+     */
+    long[] since(ThreadUsage start) {
+      Map<Long, Integer> before = new HashMap<>();
+      for (int i = 0; i < start.ids.length; i++) {
+        before.put(start.ids[i], i);
+      }
+      long[] used = new long[2];
+      for (int i = 0; i < ids.length; i++) {
+        Integer index = before.get(ids[i]);
+        used[0] += Math.max(0, cpuNanos[i])
+                - (index == null ? 0 : Math.max(0, start.cpuNanos[index]));
+        used[1] += Math.max(0, allocatedBytes[i])
+                - (index == null ? 0 : Math.max(0, start.allocatedBytes[index]));
+      }
+      used[0] = Math.max(0, used[0]);
+      used[1] = Math.max(0, used[1]);
+      return used;
+    }
+  }
+}
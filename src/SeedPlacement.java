@@ -0,0 +1,263 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * This enum represents the ways the seeds of a mosaic are placed. The placement is decided by a
+ * SplittableRandom created from a random seed, so the same random seed always gives the same
+ * seeds, whatever the number of threads.
+ */
+public enum SeedPlacement {
+  /**
+   * Seeds at distinct pixels drawn uniformly at random. Some cells are therefore much larger than
+   * others.
+   */
+  RANDOM,
+  /**
+   * Seeds spread evenly (Poisson-disc, or blue noise, placement): no two seeds are closer than a
+   * distance chosen from the size of the image and the number of seeds, so all the cells have
+   * about the same size, while their layout stays irregular.
+   */
+  POISSON;
+
+  /**
+   * Number of pixels per seed under which seeds are too close to be spread, and are placed at
+   * random instead.
+   */
+  private static final double MIN_PIXELS_PER_SEED = 8;
+
+  /**
+   * Number of pixels per seed of a Poisson-disc placement of seeds at least 1 pixel apart. A
+   * placement to which no seed can be added has about 0.7 pixels per seed; it is lowered so that
+   * the few attempts per cell usually place a few more seeds than asked for.
+   */
+  private static final double POISSON_DENSITY = 0.6;
+
+  /**
+   * Number of attempts to place a seed in every cell of the grid of a Poisson-disc placement.
+   */
+  private static final int POISSON_ROUNDS = 5;
+
+  /**
+   * Return the positions of the given number of distinct seeds in an image.
+   *
+   * @param height     number of rows of the image.
+   * @param width      number of columns of the image.
+   * @param count      number of seeds, at most the number of pixels.
+   * @param randomSeed seed of the random numbers.
+   * @return the index of the pixel of every seed, row * width + column, in increasing order.
+   * @throws IllegalArgumentException if count is negative or more than the number of pixels.
+   */
+  int[] place(int height, int width, int count, long randomSeed)
+          throws IllegalArgumentException {
+    long total = (long) height * width;
+    if (count < 0 || count > total) {
+      throw new IllegalArgumentException("Number of seeds must be between 0 and " + total + ".");
+    }
+    SplittableRandom random = new SplittableRandom(randomSeed);
+    if (this == POISSON && total >= MIN_PIXELS_PER_SEED * count && count > 0) {
+      return poisson(height, width, count, random);
+    }
+    BitSet taken = new BitSet((int) total);
+    choose(taken, (int) total, count, random);
+    return taken.stream().toArray();
+  }
+
+  /**
+   * Mark count more pixels, distinct and not marked yet, chosen uniformly at random. Pixels are
+   * drawn until one is not marked, which takes fewer than two draws on average as long as at most
+   * half of the pixels are marked; when more are to be marked, the pixels left unmarked are drawn
+   * instead.
+   *
+   * @param taken  the marked pixels.
+   * @param total  number of pixels.
+   * @param count  number of pixels to mark, at most the number of pixels not marked.
+   * @param random the random numbers.
+   */
+  private static void choose(BitSet taken, int total, int count, SplittableRandom random) {
+    int free = total - taken.cardinality();
+    if (count > free / 2) {
+      BitSet left = (BitSet) taken.clone();
+      left.flip(0, total);
+      //left holds the free pixels: unmark the ones which stay free, and mark the others.
+      BitSet kept = new BitSet(total);
+      kept.or(taken);
+      choose(kept, total, free - count, random);
+      kept.andNot(taken);
+      left.andNot(kept);
+      taken.or(left);
+      return;
+    }
+    for (int i = 0; i < count; i++) {
+      int pixel = random.nextInt(total);
+      while (taken.get(pixel)) {
+        pixel = random.nextInt(total);
+      }
+      taken.set(pixel);
+    }
+  }
+
+  /**
+   * Return count seeds spread evenly. Seeds are thrown at a grid of cells whose diagonal is the
+   * smallest distance between two seeds, so a cell holds at most one seed, and a new seed only has
+   * to be compared with the seeds of the 5 * 5 cells around it. The cells are visited in nine
+   * phases; two cells of the same phase are three cells apart, so their seeds can never conflict
+   * and the rows of cells of a phase are filled in parallel, each with its own SplittableRandom
+   * split from the first one in a fixed order. Extra seeds are then left out at random, or
+   * missing ones added at random pixels.
+   *
+   * @param height number of rows of the image.
+   * @param width  number of columns of the image.
+   * @param count  number of seeds, at most an eighth of the number of pixels.
+   * @param random the random numbers.
+   * @return the index of the pixel of every seed, row * width + column, in increasing order.
+   */
+  private static int[] poisson(int height, int width, int count, SplittableRandom random) {
+    double distance = Math.sqrt(POISSON_DENSITY * height * width / count);
+    double cell = distance / Math.sqrt(2);
+    int cellsAcross = (int) Math.ceil(width / cell);
+    int cellsDown = (int) Math.ceil(height / cell);
+    //the row and the column of the seed of every cell, -1 for none, -2 if it can have none.
+    int[] seedRows = new int[cellsAcross * cellsDown];
+    int[] seedColumns = new int[cellsAcross * cellsDown];
+    Arrays.fill(seedRows, -1);
+    double limit = distance * distance;
+    for (int round = 0; round < POISSON_ROUNDS; round++) {
+      for (int phase = 0; phase < 9; phase++) {
+        int firstRow = phase / 3;
+        int firstColumn = phase % 3;
+        int rows = (cellsDown - firstRow + 2) / 3;
+        SplittableRandom[] randoms = new SplittableRandom[Math.max(rows, 0)];
+        for (int i = 0; i < randoms.length; i++) {
+          randoms[i] = random.split();
+        }
+        IntStream.range(0, randoms.length).parallel().forEach(i -> {
+          SplittableRandom rowRandom = randoms[i];
+          int cellRow = firstRow + 3 * i;
+          int top = (int) Math.ceil(cellRow * cell);
+          int bottom = Math.min(height, (int) Math.ceil((cellRow + 1) * cell));
+          for (int cellColumn = firstColumn; cellColumn < cellsAcross; cellColumn += 3) {
+            int left = (int) Math.ceil(cellColumn * cell);
+            int right = Math.min(width, (int) Math.ceil((cellColumn + 1) * cell));
+            int index = cellRow * cellsAcross + cellColumn;
+            if (seedRows[index] != -1 || top >= bottom || left >= right) {
+              continue;
+            }
+            int row = top + rowRandom.nextInt(bottom - top);
+            int column = left + rowRandom.nextInt(right - left);
+            int conflict = findConflict(seedRows, seedColumns, cellsAcross, cellsDown, index,
+                    row, column, limit);
+            if (conflict < 0) {
+              seedRows[index] = row;
+              seedColumns[index] = column;
+            } else if (isCovered(seedRows[conflict], seedColumns[conflict], top, bottom - 1,
+                    left, right - 1, limit)) {
+              //no pixel of the cell can ever be a seed: do not try it again.
+              seedRows[index] = -2;
+            }
+          }
+        });
+      }
+    }
+    int[] seeds = IntStream.range(0, seedRows.length).filter(index -> seedRows[index] >= 0)
+            .map(index -> seedRows[index] * width + seedColumns[index]).toArray();
+    if (seeds.length > count) {
+      //partial Fisher-Yates shuffle: the first count seeds are a uniform choice among all.
+      for (int i = 0; i < count; i++) {
+        int j = i + random.nextInt(seeds.length - i);
+        int swap = seeds[i];
+        seeds[i] = seeds[j];
+        seeds[j] = swap;
+      }
+      seeds = Arrays.copyOf(seeds, count);
+    } else if (seeds.length < count) {
+      BitSet taken = new BitSet(height * width);
+      for (int pixel : seeds) {
+        taken.set(pixel);
+      }
+      choose(taken, height * width, count - seeds.length, random);
+      return taken.stream().toArray();
+    }
+    Arrays.sort(seeds);
+    return seeds;
+  }
+
+  /**
+   * Return the cell of a seed closer to a pixel than the smallest distance. Only the cells around
+   * the cell of the pixel can hold such a seed: the 5 * 5 cells around it but for the four
+   * corners, whose pixels are all at least the smallest distance away.
+   *
+   * @param seedRows    the row of the seed of every cell, -1 for none.
+   * @param seedColumns the column of the seed of every cell.
+   * @param cellsAcross number of columns of cells.
+   * @param cellsDown   number of rows of cells.
+   * @param index       index of the cell of the pixel.
+   * @param row         row of the pixel.
+   * @param column      column of the pixel.
+   * @param limit       square of the smallest distance.
+   * @return the index of a cell whose seed is too close, or -1 if the pixel can be a seed.
+   */
+  private static int findConflict(int[] seedRows, int[] seedColumns, int cellsAcross,
+                                  int cellsDown, int index, int row, int column, double limit) {
+    int cellRow = index / cellsAcross;
+    int cellColumn = index % cellsAcross;
+    for (int i = Math.max(0, cellRow - 2); i <= Math.min(cellsDown - 1, cellRow + 2); i++) {
+      int side = i == cellRow - 2 || i == cellRow + 2 ? 1 : 2;
+      int from = i * cellsAcross + Math.max(0, cellColumn - side);
+      int to = i * cellsAcross + Math.min(cellsAcross - 1, cellColumn + side);
+      for (int cell = from; cell <= to; cell++) {
+        int seedRow = seedRows[cell];
+        if (seedRow >= 0) {
+          int dy = seedRow - row;
+          int dx = seedColumns[cell] - column;
+          if (dy * dy + dx * dx < limit) {
+            return cell;
+          }
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Return true if all the pixels of a rectangle are closer to a seed than the smallest distance,
+   * which is the case when its four corners are.
+   *
+   * @param row    row of the seed.
+   * @param column column of the seed.
+   * @param top    first row of the rectangle.
+   * @param bottom last row of the rectangle.
+   * @param left   first column of the rectangle.
+   * @param right  last column of the rectangle.
+   * @param limit  square of the smallest distance.
+   * @return true if no pixel of the rectangle can be a seed.
+   */
+  private static boolean isCovered(int row, int column, int top, int bottom, int left, int right,
+                                   double limit) {
+    int dy = Math.max(row - top, bottom - row);
+    int dx = Math.max(column - left, right - column);
+    return dy * dy + dx * dx < limit;
+  }
+
+  /**
+   * Return the placement of the given name, as written in a batch-scrip ("random" or "poisson").
+   *
+   * @param name the name of the placement, in any case.
+   * @return the placement of the given name.
+   * @throws IllegalArgumentException if no placement has this name.
+   */
+  static SeedPlacement fromName(String name) throws IllegalArgumentException {
+    for (SeedPlacement placement : values()) {
+      if (placement.name().equalsIgnoreCase(name)) {
+        return placement;
+      }
+    }
+    throw new IllegalArgumentException("Seed placement must be random or poisson.");
+  }
+
+  @Override
+  public String toString() {
+    return name().toLowerCase();
+  }
+}
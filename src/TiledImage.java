@@ -0,0 +1,528 @@
+import java.awt.image.BufferedImage;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * This class represents an Image stored as square tiles of TILE_SIZE * TILE_SIZE pixels, each
+ * pixel packed into one int as 0xRRGGBB (4 bytes per pixel instead of an int[3] object). A tile is
+ * never modified once the image is built, so images share the tiles they have in common: pasting
+ * a region into an image copies only the tiles the region touches, and every other tile is the
+ * same array in both images (copy on write). Undo history and region edits therefore only pay for
+ * what changed.
+ *
+ * <p>Tiles are also the unit of parallel work: an operation whose result at a pixel only depends
+ * on the pixels around it is computed tile by tile in parallel, each tile reading a halo of the
+ * pixels around it, and the result is tiled as well. Operations depending on the whole image
+ * (resizing and blurs wider than a tile) are computed on the whole image and tiled afterwards;
+ * mosaicing gives an IndexedImage and dithering and threshold a BilevelImage, which are smaller
+ * still.
+ *
+ * <p>Decoded image files are stored this way when the system property "imager.storage" is
+ * "tiled" or "checked". Tiled and flat storage give the same pixels; with "checked", every
+ * operation computed on the tiles is computed on an ImageImpl too, and an IllegalStateException
+ * is thrown if the two results differ.
+ */
+public class TiledImage extends AbstractImage {
+  /**
+   * Width and height of a tile in pixels.
+   */
+  static final int TILE_SIZE = 256;
+
+  private static final int TILE_SHIFT = 8;
+  private static final int TILE_MASK = TILE_SIZE - 1;
+  private static final String STORAGE = System.getProperty("imager.storage");
+  private static final boolean CHECKED = "checked".equals(STORAGE);
+  private static final boolean DEFAULT_STORAGE = CHECKED || "tiled".equals(STORAGE);
+
+  private final int height;
+  private final int width;
+  private final int tilesAcross;
+  private final int[][] tiles;
+
+  /**
+   * Constructor of a TiledImage from its tiles, which must not be modified afterwards.
+   *
+   * @param height height of the image.
+   * @param width  width of the image.
+   * @param tiles  the tiles, row by row, each of TILE_SIZE * TILE_SIZE packed colors.
+   */
+  private TiledImage(int height, int width, int[][] tiles) {
+    this.height = height;
+    this.width = width;
+    this.tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+    this.tiles = tiles;
+  }
+
+  /**
+   * Return true if decoded image files are to be stored as TiledImage.
+   *
+   * @return true if the system property "imager.storage" is "tiled" or "checked".
+   */
+  static boolean isDefaultStorage() {
+    return DEFAULT_STORAGE;
+  }
+
+  /**
+   * Return the image stored as tiles, the image itself if it already is. Tiles are filled in
+   * parallel.
+   *
+   * @param image an image with at least one pixel.
+   * @return a TiledImage holding the same pixels.
+   * @throws IllegalArgumentException if the image has no pixel.
+   */
+  public static TiledImage of(Image image) throws IllegalArgumentException {
+    if (image instanceof TiledImage) {
+      return (TiledImage) image;
+    }
+    int height = image.getHeight();
+    int width = image.getWidth();
+    if (height < 1 || width < 1) {
+      throw new IllegalArgumentException("A tiled image needs at least one pixel.");
+    }
+    int[][][] data = image instanceof ImageImpl ? ((ImageImpl) image).pixels() : null;
+    int tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+    int tilesDown = (height + TILE_SIZE - 1) / TILE_SIZE;
+    int[][] tiles = new int[tilesAcross * tilesDown][];
+    IntStream.range(0, tiles.length).parallel().forEach(index -> {
+      int top = index / tilesAcross * TILE_SIZE;
+      int left = index % tilesAcross * TILE_SIZE;
+      int[] tile = new int[TILE_SIZE * TILE_SIZE];
+      for (int r = top; r < Math.min(top + TILE_SIZE, height); r++) {
+        int offset = (r - top) << TILE_SHIFT;
+        for (int c = left; c < Math.min(left + TILE_SIZE, width); c++) {
+          tile[offset + c - left] = data == null ? image.getRGB(r, c)
+                  : (data[r][c][0] << 16) | (data[r][c][1] << 8) | data[r][c][2];
+        }
+      }
+      tiles[index] = tile;
+    });
+    return new TiledImage(height, width, tiles);
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getRGB(int row, int column) {
+    int[] tile = tiles[(row >> TILE_SHIFT) * tilesAcross + (column >> TILE_SHIFT)];
+    return tile[((row & TILE_MASK) << TILE_SHIFT) | (column & TILE_MASK)];
+  }
+
+  @Override
+  public int[][][] getData() {
+    int[][][] result = new int[height][width][3];
+    copyRegion(0, 0, result);
+    return result;
+  }
+
+  @Override
+  public BufferedImage getBufferImage() {
+    int[] packed = new int[height * width];
+    IntStream.range(0, tiles.length).parallel().forEach(index -> {
+      int top = index / tilesAcross * TILE_SIZE;
+      int left = index % tilesAcross * TILE_SIZE;
+      int columns = Math.min(TILE_SIZE, width - left);
+      for (int r = top; r < Math.min(top + TILE_SIZE, height); r++) {
+        System.arraycopy(tiles[index], (r - top) << TILE_SHIFT, packed, r * width + left,
+                columns);
+      }
+    });
+    BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    output.setRGB(0, 0, width, height, packed, 0, width);
+    return output;
+  }
+
+  /**
+   * Return a new image with the pixels of patch pasted at (top, left). Only the tiles the patch
+   * touches are copied; the new image shares every other tile with this one.
+   *
+   * @param top   row of this image receiving the first row of the patch.
+   * @param left  column of this image receiving the first column of the patch.
+   * @param patch the pixels to paste, which must fit inside this image.
+   * @return a new image with the patch pasted.
+   * @throws IllegalArgumentException if the patch does not fit inside this image.
+   */
+  public TiledImage paste(int top, int left, Image patch) throws IllegalArgumentException {
+    if (top < 0 || left < 0 || top + patch.getHeight() > height
+            || left + patch.getWidth() > width) {
+      throw new IllegalArgumentException("The pasted image must fit inside the image.");
+    }
+    if (patch.getHeight() == 0 || patch.getWidth() == 0) {
+      return new TiledImage(height, width, tiles.clone());
+    }
+    int[][][] data = patch instanceof ImageImpl ? ((ImageImpl) patch).pixels() : patch.getData();
+    return paste(top, left, data, 0, 0, patch.getHeight(), patch.getWidth());
+  }
+
+  /**
+   * Return a new image with a rectangle of data pasted at (top, left), sharing every tile the
+   * rectangle does not touch with this image.
+   *
+   * @param top      row of this image receiving the first row of the rectangle.
+   * @param left     column of this image receiving the first column of the rectangle.
+   * @param data     the pixels as a 3D array of [r, g, b].
+   * @param dataTop  first row of the rectangle in data.
+   * @param dataLeft first column of the rectangle in data.
+   * @param rows     number of rows of the rectangle, at least 1.
+   * @param columns  number of columns of the rectangle, at least 1.
+   * @return a new image with the rectangle pasted.
+   */
+  private TiledImage paste(int top, int left, int[][][] data, int dataTop, int dataLeft, int rows,
+                           int columns) {
+    int bottom = top + rows;
+    int right = left + columns;
+    int[][] result = tiles.clone();
+    int firstTileRow = top >> TILE_SHIFT;
+    int firstTileColumn = left >> TILE_SHIFT;
+    int tileRows = ((bottom - 1) >> TILE_SHIFT) - firstTileRow + 1;
+    int tileColumns = ((right - 1) >> TILE_SHIFT) - firstTileColumn + 1;
+    IntStream.range(0, tileRows * tileColumns).parallel().forEach(i -> {
+      int tileRow = firstTileRow + i / tileColumns;
+      int tileColumn = firstTileColumn + i % tileColumns;
+      int index = tileRow * tilesAcross + tileColumn;
+      int[] tile = tiles[index].clone();
+      int rowFrom = Math.max(top, tileRow << TILE_SHIFT);
+      int rowTo = Math.min(bottom, (tileRow + 1) << TILE_SHIFT);
+      int columnFrom = Math.max(left, tileColumn << TILE_SHIFT);
+      int columnTo = Math.min(right, (tileColumn + 1) << TILE_SHIFT);
+      for (int r = rowFrom; r < rowTo; r++) {
+        int offset = (r & TILE_MASK) << TILE_SHIFT;
+        for (int c = columnFrom; c < columnTo; c++) {
+          int[] pixel = data[r - top + dataTop][c - left + dataLeft];
+          tile[offset | (c & TILE_MASK)] = (pixel[0] << 16) | (pixel[1] << 8) | pixel[2];
+        }
+      }
+      result[index] = tile;
+    });
+    return new TiledImage(height, width, result);
+  }
+
+  /**
+   * Return the number of tiles this image shares with another one, that is the tiles stored in the
+   * same array in both images.
+   *
+   * @param other the other image.
+   * @return the number of tiles shared, 0 if the images do not have the same size.
+   */
+  public int sharedTiles(TiledImage other) {
+    if (other.height != height || other.width != width) {
+      return 0;
+    }
+    int shared = 0;
+    for (int i = 0; i < tiles.length; i++) {
+      if (tiles[i] == other.tiles[i]) {
+        shared++;
+      }
+    }
+    return shared;
+  }
+
+  /**
+   * Return an estimate of the memory used by this image, in bytes. Tiles shared with other images
+   * are counted in full.
+   *
+   * @return an estimate of the memory used by this image, in bytes.
+   */
+  long estimateBytes() {
+    return (long) tiles.length * (TILE_SIZE * TILE_SIZE * 4 + 16) + 64;
+  }
+
+  @Override
+  public Image blur() {
+    return applyFilter(Filter.BLUR);
+  }
+
+  @Override
+  public Image sharpen() {
+    return applyFilter(Filter.SHARPEN);
+  }
+
+  @Override
+  public Image sepia() {
+    return applyColorConvert(ColorConverter.SEPIA);
+  }
+
+  @Override
+  public Image greyscale() {
+    return applyColorConvert(ColorConverter.GREYSCALE);
+  }
+
+  @Override
+  public Image applyFilter(Filter filter) {
+    int halo = filter.getMatrix().length / 2;
+    //the rounding errors of the FFT depend on the size of the image it runs on.
+    if (halo > TILE_SIZE || KernelAnalysis.of(filter).getEngine() == KernelAnalysis.Engine.FFT) {
+      return of(super.applyFilter(filter));
+    }
+    return checked(mapTiles(halo, region -> region.applyFilter(filter)),
+        image -> image.applyFilter(filter));
+  }
+
+  @Override
+  public Image applyColorConvert(ColorConverter converter) {
+    return checked(mapTiles(0, region -> region.applyColorConvert(converter)),
+        image -> image.applyColorConvert(converter));
+  }
+
+  /**
+   * Return the statistics of the colors of the image, counted on the tiles in parallel without
+   * unpacking them.
+   *
+   * @return the statistics of the image.
+   */
+  @Override
+  public ImageStatistics statistics() {
+    return ImageStatistics.count(tiles.length, (index, counts) -> {
+      int top = index / tilesAcross * TILE_SIZE;
+      int left = index % tilesAcross * TILE_SIZE;
+      int[] tile = tiles[index];
+      for (int r = 0; r < Math.min(TILE_SIZE, height - top); r++) {
+        int offset = r << TILE_SHIFT;
+        for (int c = offset; c < offset + Math.min(TILE_SIZE, width - left); c++) {
+          counts[(tile[c] >> 16) & 0xFF]++;
+          counts[256 + ((tile[c] >> 8) & 0xFF)]++;
+          counts[512 + (tile[c] & 0xFF)]++;
+        }
+      }
+    });
+  }
+
+  @Override
+  public Image autoLevels() {
+    int[][] tables = statistics().levelsTables();
+    return checked(mapTiles(0, region -> ((ImageImpl) region).applyTables(tables)),
+        Image::autoLevels);
+  }
+
+  @Override
+  public Image equalize() {
+    int[][] tables = statistics().equalizeTables();
+    return checked(mapTiles(0, region -> ((ImageImpl) region).applyTables(tables)),
+        Image::equalize);
+  }
+
+  @Override
+  public Image boxBlur(int radius) throws IllegalArgumentException {
+    if (radius < 0) {
+      throw new IllegalArgumentException("Radius can not be negative.");
+    }
+    if (radius > TILE_SIZE) {
+      return of(super.boxBlur(radius));
+    }
+    return checked(mapTiles(radius, region -> region.boxBlur(radius)),
+        image -> image.boxBlur(radius));
+  }
+
+  @Override
+  public Image edges(GradientOperator operator) {
+    return checked(mapTiles(operator.getReach(), region -> region.edges(operator)),
+        image -> image.edges(operator));
+  }
+
+  @Override
+  public Image gradient(GradientOperator operator) {
+    return checked(mapTiles(operator.getReach(), region -> region.gradient(operator)),
+        image -> image.gradient(operator));
+  }
+
+  @Override
+  public Image median(int radius) throws IllegalArgumentException {
+    if (radius < 0) {
+      throw new IllegalArgumentException("Radius can not be negative.");
+    }
+    if (radius > TILE_SIZE) {
+      return of(super.median(radius));
+    }
+    return checked(mapTiles(radius, region -> region.median(radius)),
+        image -> image.median(radius));
+  }
+
+  @Override
+  public Image erode(int radius) throws IllegalArgumentException {
+    if (radius < 0) {
+      throw new IllegalArgumentException("Radius can not be negative.");
+    }
+    if (radius > TILE_SIZE) {
+      return of(super.erode(radius));
+    }
+    return checked(mapTiles(radius, region -> region.erode(radius)),
+        image -> image.erode(radius));
+  }
+
+  @Override
+  public Image dilate(int radius) throws IllegalArgumentException {
+    if (radius < 0) {
+      throw new IllegalArgumentException("Radius can not be negative.");
+    }
+    if (radius > TILE_SIZE) {
+      return of(super.dilate(radius));
+    }
+    return checked(mapTiles(radius, region -> region.dilate(radius)),
+        image -> image.dilate(radius));
+  }
+
+  @Override
+  public Image gaussianBlur(double sigma) throws IllegalArgumentException {
+    int halo = BoxBlur.gaussianReach(sigma);
+    if (halo > TILE_SIZE) {
+      return of(super.gaussianBlur(sigma));
+    }
+    return checked(mapTiles(halo, region -> region.gaussianBlur(sigma)),
+        image -> image.gaussianBlur(sigma));
+  }
+
+  @Override
+  public Image resize(int width, int height, ResampleFilter filter)
+          throws IllegalArgumentException {
+    return of(super.resize(width, height, filter));
+  }
+
+  @Override
+  public Image scale(double factor, ResampleFilter filter) throws IllegalArgumentException {
+    return of(super.scale(factor, filter));
+  }
+
+  @Override
+  public Image applyToRegion(Region region, int halo, UnaryOperator<Image> operation)
+          throws IllegalArgumentException {
+    if (halo < 0) {
+      throw new IllegalArgumentException("Halo can not be negative.");
+    }
+    region.checkInside(width, height);
+    int top = Math.max(0, region.getY() - halo);
+    int left = Math.max(0, region.getX() - halo);
+    int bottom = Math.min(height, region.getY() + region.getHeight() + halo);
+    int right = Math.min(width, region.getX() + region.getWidth() + halo);
+    PixelBufferPool pool = PixelBufferPool.shared();
+    int[][][] window = pool.acquire(bottom - top, right - left);
+    copyRegion(top, left, window);
+    Image source = new ImageImpl(window);
+    Image computed = operation.apply(source);
+    if (computed.getHeight() != bottom - top || computed.getWidth() != right - left) {
+      throw new IllegalArgumentException("An operation on a region must keep its size.");
+    }
+    int[][][] data = computed instanceof ImageImpl ? ((ImageImpl) computed).pixels()
+            : computed.getData();
+    TiledImage result = paste(region.getY(), region.getX(), data, region.getY() - top,
+            region.getX() - left, region.getHeight(), region.getWidth());
+    pool.release(source);
+    pool.release(computed);
+    return checked(result, image -> image.applyToRegion(region, halo, operation));
+  }
+
+  /**
+   * Return the result of an operation computed on the tiles. When the system property
+   * "imager.storage" is "checked", it is first compared with the result of the operation on an
+   * ImageImpl holding the same pixels.
+   *
+   * @param result    the result computed on the tiles.
+   * @param operation the operation, run on the ImageImpl.
+   * @return the result.
+   * @throws IllegalStateException if the two results differ.
+   */
+  private Image checked(Image result, UnaryOperator<Image> operation)
+          throws IllegalStateException {
+    if (!CHECKED) {
+      return result;
+    }
+    Image flat = operation.apply(toImageImpl());
+    if (flat.getHeight() != result.getHeight() || flat.getWidth() != result.getWidth()) {
+      throw new IllegalStateException("Tiled and flat storage give images of different sizes.");
+    }
+    for (int r = 0; r < flat.getHeight(); r++) {
+      for (int c = 0; c < flat.getWidth(); c++) {
+        if (flat.getRGB(r, c) != result.getRGB(r, c)) {
+          throw new IllegalStateException("Tiled and flat storage differ at row " + r
+                  + ", column " + c + ".");
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Return the image made of the result of the operation on every tile, computed in parallel. The
+   * operation runs on the tile surrounded by halo pixels on every side (fewer at the border of the
+   * image), so it gives the same result as on the whole image as long as a pixel only depends on
+   * the pixels within halo of it.
+   *
+   * @param halo      number of pixels read around a tile.
+   * @param operation the operation, run on an ImageImpl holding the tile and its halo.
+   * @return a new TiledImage holding the result.
+   */
+  private TiledImage mapTiles(int halo, UnaryOperator<Image> operation) {
+    PixelBufferPool pool = PixelBufferPool.shared();
+    int[][] result = new int[tiles.length][];
+    IntStream.range(0, tiles.length).parallel().forEach(index -> {
+      int top = index / tilesAcross * TILE_SIZE;
+      int left = index % tilesAcross * TILE_SIZE;
+      int regionTop = Math.max(0, top - halo);
+      int regionLeft = Math.max(0, left - halo);
+      int regionBottom = Math.min(height, top + TILE_SIZE + halo);
+      int regionRight = Math.min(width, left + TILE_SIZE + halo);
+      int[][][] region = pool.acquire(regionBottom - regionTop, regionRight - regionLeft);
+      copyRegion(regionTop, regionLeft, region);
+      Image source = new ImageImpl(region);
+      Image computed = operation.apply(source);
+      int[][][] data = computed instanceof ImageImpl ? ((ImageImpl) computed).pixels()
+              : computed.getData();
+      int[] tile = new int[TILE_SIZE * TILE_SIZE];
+      for (int r = top; r < Math.min(top + TILE_SIZE, height); r++) {
+        int offset = (r - top) << TILE_SHIFT;
+        int[][] row = data[r - regionTop];
+        for (int c = left; c < Math.min(left + TILE_SIZE, width); c++) {
+          int[] pixel = row[c - regionLeft];
+          tile[offset + c - left] = (pixel[0] << 16) | (pixel[1] << 8) | pixel[2];
+        }
+      }
+      result[index] = tile;
+      pool.release(source);
+      pool.release(computed);
+    });
+    return new TiledImage(height, width, result);
+  }
+
+  /**
+   * Copy the pixels of this image starting at (top, left) into target, as many as it holds.
+   * Tiles are copied in parallel.
+   *
+   * @param top    first row copied.
+   * @param left   first column copied.
+   * @param target the array of [r, g, b] receiving the pixels, which must fit inside this image.
+   */
+  private void copyRegion(int top, int left, int[][][] target) {
+    int bottom = top + target.length;
+    int right = left + target[0].length;
+    int firstTileRow = top >> TILE_SHIFT;
+    int firstTileColumn = left >> TILE_SHIFT;
+    int tileRows = ((bottom - 1) >> TILE_SHIFT) - firstTileRow + 1;
+    int tileColumns = ((right - 1) >> TILE_SHIFT) - firstTileColumn + 1;
+    IntStream.range(0, tileRows * tileColumns).parallel().forEach(i -> {
+      int tileRow = firstTileRow + i / tileColumns;
+      int tileColumn = firstTileColumn + i % tileColumns;
+      int[] tile = tiles[tileRow * tilesAcross + tileColumn];
+      int rowFrom = Math.max(top, tileRow << TILE_SHIFT);
+      int rowTo = Math.min(bottom, (tileRow + 1) << TILE_SHIFT);
+      int columnFrom = Math.max(left, tileColumn << TILE_SHIFT);
+      int columnTo = Math.min(right, (tileColumn + 1) << TILE_SHIFT);
+      for (int r = rowFrom; r < rowTo; r++) {
+        int offset = (r & TILE_MASK) << TILE_SHIFT;
+        int[][] row = target[r - top];
+        for (int c = columnFrom; c < columnTo; c++) {
+          int color = tile[offset | (c & TILE_MASK)];
+          int[] pixel = row[c - left];
+          pixel[0] = (color >> 16) & 0xFF;
+          pixel[1] = (color >> 8) & 0xFF;
+          pixel[2] = color & 0xFF;
+        }
+      }
+    });
+  }
+}
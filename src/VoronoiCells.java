@@ -0,0 +1,210 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * This class contains the assignment of every pixel to its closest seed, which gives the cells of
+ * a mosaic. It works coarse to fine over the same power-of-two blocks as the levels of an
+ * ImagePyramid: a block only keeps the seeds which can be the closest to one of its pixels, and a
+ * block whose four corners have the same closest seed is filled at once, since every cell is
+ * convex. Only the blocks crossed by the border of a cell are split, down to single pixels, so the
+ * cost depends on the length of the borders rather than on the number of pixels times the number
+ * of seeds. Tiles of the image are processed in parallel.
+ *
+ * <p>The result is exactly the one of comparing every pixel with every seed: when two seeds are
+ * at the same distance of a pixel, the first one wins.
+ */
+final class VoronoiCells {
+
+  /**
+   * Size of the square tiles processed in parallel, a level of the pyramid.
+   */
+  private static final int TILE_SIZE = 64;
+
+  /**
+   * Largest number of pixels of a block compared one by one with its seeds instead of split.
+   */
+  private static final int LEAF_PIXELS = 16;
+
+  /**
+   * This class only contains static methods.
+   */
+  private VoronoiCells() {
+  }
+
+  /**
+   * Return the index of the closest seed of every pixel.
+   *
+   * @param height      number of rows of the image.
+   * @param width       number of columns of the image.
+   * @param seedRows    row of every seed.
+   * @param seedColumns column of every seed.
+   * @return the index of the closest seed of every pixel, row by row.
+   * @throws IllegalArgumentException if there is no seed or if the arrays of rows and columns
+   *                                  have different lengths.
+   */
+  static int[] assign(int height, int width, int[] seedRows, int[] seedColumns)
+          throws IllegalArgumentException {
+    if (seedRows.length == 0 || seedRows.length != seedColumns.length) {
+      throw new IllegalArgumentException("Seeds need as many rows as columns, at least one.");
+    }
+    int[] labels = new int[height * width];
+    int[] all = new int[seedRows.length];
+    for (int i = 0; i < all.length; i++) {
+      all[i] = i;
+    }
+    int tileRows = (height + TILE_SIZE - 1) / TILE_SIZE;
+    int tileColumns = (width + TILE_SIZE - 1) / TILE_SIZE;
+    Block image = new Block(labels, width, seedRows, seedColumns);
+    IntStream.range(0, tileRows * tileColumns).parallel().forEach(tile -> {
+      int top = tile / tileColumns * TILE_SIZE;
+      int left = tile % tileColumns * TILE_SIZE;
+      image.fill(top, left, Math.min(top + TILE_SIZE, height), Math.min(left + TILE_SIZE, width),
+              all);
+    });
+    return labels;
+  }
+
+  /**
+   * This class represents the labels being computed and the seeds they refer to.
+   */
+  private static final class Block {
+    private final int[] labels;
+    private final int width;
+    private final int[] seedRows;
+    private final int[] seedColumns;
+
+    /**
+     * Constructor of a Block.
+     *
+     * @param labels      the labels of the image, row by row.
+     * @param width       number of columns of the image.
+     * @param seedRows    row of every seed.
+     * @param seedColumns column of every seed.
+     */
+    Block(int[] labels, int width, int[] seedRows, int[] seedColumns) {
+      this.labels = labels;
+      this.width = width;
+      this.seedRows = seedRows;
+      this.seedColumns = seedColumns;
+    }
+
+    /**
+     * Write the closest seed of every pixel of the rows top to bottom - 1 and columns left to
+     * right - 1, knowing that it is one of the candidates.
+     *
+     * @param top        first row.
+     * @param left       first column.
+     * @param bottom     row after the last row.
+     * @param right      column after the last column.
+     * @param candidates indices of the seeds which may be the closest, in increasing order.
+     */
+    void fill(int top, int left, int bottom, int right, int[] candidates) {
+      int[] kept = prune(top, left, bottom, right, candidates);
+      if (kept.length == 1) {
+        set(top, left, bottom, right, kept[0]);
+        return;
+      }
+      if ((bottom - top) * (right - left) <= LEAF_PIXELS) {
+        for (int r = top; r < bottom; r++) {
+          for (int c = left; c < right; c++) {
+            labels[r * width + c] = closest(r, c, kept);
+          }
+        }
+        return;
+      }
+      int corner = closest(top, left, kept);
+      if (corner == closest(top, right - 1, kept) && corner == closest(bottom - 1, left, kept)
+              && corner == closest(bottom - 1, right - 1, kept)) {
+        set(top, left, bottom, right, corner);
+        return;
+      }
+      int middleRow = (top + bottom + 1) / 2;
+      int middleColumn = (left + right + 1) / 2;
+      fill(top, left, middleRow, middleColumn, kept);
+      if (middleColumn < right) {
+        fill(top, middleColumn, middleRow, right, kept);
+      }
+      if (middleRow < bottom) {
+        fill(middleRow, left, bottom, middleColumn, kept);
+        if (middleColumn < right) {
+          fill(middleRow, middleColumn, bottom, right, kept);
+        }
+      }
+    }
+
+    /**
+     * Return the candidates which may be the closest seed of a pixel of the block. With m the
+     * center of the block, h the distance from m to its farthest pixel and d the distance from m
+     * to its closest candidate, every pixel has a seed within d + h, so a seed further than
+     * d + 2h from m is never the closest.
+     *
+     * @param top        first row.
+     * @param left       first column.
+     * @param bottom     row after the last row.
+     * @param right      column after the last column.
+     * @param candidates indices of the seeds which may be the closest, in increasing order.
+     * @return the candidates kept, in increasing order.
+     */
+    private int[] prune(int top, int left, int bottom, int right, int[] candidates) {
+      if (candidates.length == 1) {
+        return candidates;
+      }
+      double centerRow = (top + bottom - 1) / 2.0;
+      double centerColumn = (left + right - 1) / 2.0;
+      double reach = Math.hypot(bottom - 1 - top, right - 1 - left);
+      double nearest = Double.POSITIVE_INFINITY;
+      for (int s : candidates) {
+        nearest = Math.min(nearest, Math.hypot(seedRows[s] - centerRow,
+                seedColumns[s] - centerColumn));
+      }
+      //a small margin, so that rounding never drops a seed at exactly the limit.
+      double limit = nearest + reach + 1e-6;
+      int[] kept = new int[candidates.length];
+      int count = 0;
+      for (int s : candidates) {
+        if (Math.hypot(seedRows[s] - centerRow, seedColumns[s] - centerColumn) <= limit) {
+          kept[count++] = s;
+        }
+      }
+      return count == candidates.length ? candidates : Arrays.copyOf(kept, count);
+    }
+
+    /**
+     * Return the candidate closest to the pixel, the first one in case of a tie.
+     *
+     * @param r          row of the pixel.
+     * @param c          column of the pixel.
+     * @param candidates indices of seeds, in increasing order.
+     * @return the index of the closest candidate.
+     */
+    private int closest(int r, int c, int[] candidates) {
+      int best = candidates[0];
+      long bestDistance = Long.MAX_VALUE;
+      for (int s : candidates) {
+        long dr = seedRows[s] - r;
+        long dc = seedColumns[s] - c;
+        long distance = dr * dr + dc * dc;
+        if (distance < bestDistance) {
+          bestDistance = distance;
+          best = s;
+        }
+      }
+      return best;
+    }
+
+    /**
+     * Set the label of every pixel of the block.
+     *
+     * @param top    first row.
+     * @param left   first column.
+     * @param bottom row after the last row.
+     * @param right  column after the last column.
+     * @param label  the label.
+     */
+    private void set(int top, int left, int bottom, int right, int label) {
+      for (int r = top; r < bottom; r++) {
+        Arrays.fill(labels, r * width + left, r * width + right, label);
+      }
+    }
+  }
+}